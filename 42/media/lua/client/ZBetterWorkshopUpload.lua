@@ -5,7 +5,12 @@ if ZBetterWorkshopUpload and ZBetterWorkshopUpload.clearCache then
     ZBetterWorkshopUpload.clearCache()
 end
 
--- Colors for file list by extension (r, g, b, a in 0–1)
+-- remove staging folders left behind by a crash mid-upload (runs on a background thread)
+if ZBetterWorkshopUpload and ZBetterWorkshopUpload.sweepStagingFolders then
+    ZBetterWorkshopUpload.sweepStagingFolders(Core.getMyDocumentFolder())
+end
+
+-- Colors for file list by category (r, g, b, a in 0–1); categories are decided in Java (FileCategory)
 local COLOR_IMAGE   = { 0.35, 0.85, 0.4,  0.95 }
 local COLOR_TEXT    = { 1.0,  1.0,  1.0,  0.95 }
 local COLOR_LUA     = { 0.3,  0.85, 0.9,  0.95 }
@@ -14,29 +19,126 @@ local COLOR_JAR     = { 1.0,  0.55, 0.25, 0.95 }
 local COLOR_EXE     = { 1.0,  0.35, 0.35, 0.95 }
 local DEFAULT_COLOR = { 0.55, 0.55, 0.55, 0.95 }
 
-local FILE_COLORS = {}
-local function colorize(color, ...)
-    for i = 1, select("#", ...) do
-        local ext = select(i, ...)
-        FILE_COLORS[ext] = color
+local CATEGORY_COLORS = {
+    IMAGE = COLOR_IMAGE,
+    TEXT  = COLOR_TEXT,
+    LUA   = COLOR_LUA,
+    JAVA  = COLOR_JAVA,
+    JAR   = COLOR_JAR,
+    EXE   = COLOR_EXE,
+}
+
+-- Virtualized file list for page5: rows are fetched from Java a page at a time and only the
+-- visible ones are drawn, so tens of thousands of files don't freeze the submit screen.
+local FILE_PAGE_SIZE = 200
+local MAX_CACHED_PAGES = 20
+
+local FileList = ISPanel:derive("ZBetterWorkshopUploadFileList")
+
+function FileList:new(x, y, width, height)
+    local o = ISPanel.new(self, x, y, width, height)
+    o.font = UIFont.Medium
+    o.itemPadY = 4
+    o.itemheight = getTextManager():getFontHeight(o.font) + o.itemPadY * 2
+    o.backgroundColor = { r = 0, g = 0, b = 0, a = 0.8 }
+    o.borderColor = { r = 0.4, g = 0.4, b = 0.4, a = 0.9 }
+    o.workshopItem = nil
+    o.count = 0
+    o.messages = {}
+    o.pages = {}
+    o.numPages = 0
+    return o
+end
+
+function FileList:createChildren()
+    ISPanel.createChildren(self)
+    self:addScrollBars()
+end
+
+function FileList:setWorkshopItem(workshopItem, count)
+    self.workshopItem = workshopItem
+    self.count = count
+    self.messages = {}
+    self.pages = {}
+    self.numPages = 0
+    self:setYScroll(0)
+    self:setScrollHeight(count * self.itemheight)
+end
+
+function FileList:setMessages(...)
+    self:setWorkshopItem(nil, 0)
+    self.messages = { ... }
+    self:setScrollHeight(#self.messages * self.itemheight)
+end
+
+function FileList:getRow(index)
+    local pageNo = math.floor(index / FILE_PAGE_SIZE)
+    local page = self.pages[pageNo]
+    if not page then
+        if self.numPages >= MAX_CACHED_PAGES then
+            self.pages = {}
+            self.numPages = 0
+        end
+        page = {}
+        local offset = pageNo * FILE_PAGE_SIZE
+        local paths = ZBetterWorkshopUpload.getWorkshopItemFilePage(self.workshopItem, offset, FILE_PAGE_SIZE)
+        local categories = ZBetterWorkshopUpload.getWorkshopItemFileCategories(self.workshopItem, offset, FILE_PAGE_SIZE)
+        local sizes = ZBetterWorkshopUpload.getWorkshopItemFileSizes and ZBetterWorkshopUpload.getWorkshopItemFileSizes(self.workshopItem, offset, FILE_PAGE_SIZE)
+        for i = 0, paths:size() - 1 do
+            local size = sizes and sizes:get(i) or ""
+            page[i] = {
+                path = paths:get(i),
+                color = CATEGORY_COLORS[categories:get(i)] or DEFAULT_COLOR,
+                size = size,
+                sizeWidth = getTextManager():MeasureStringX(self.font, size),
+            }
+        end
+        self.pages[pageNo] = page
+        self.numPages = self.numPages + 1
     end
+    return page[index - pageNo * FILE_PAGE_SIZE]
 end
 
-colorize(COLOR_IMAGE, "png", "jpg", "gif" )
-colorize(COLOR_TEXT,  "txt", "md", "info", "json" )
-colorize(COLOR_JAVA,  "java", "gradle", "properties" )
-colorize(COLOR_LUA,   "lua" )
-colorize(COLOR_JAR,   "jar", "zbs" )
-colorize(COLOR_EXE,   "exe", "dll", "dylib", "so", "bat", "cmd", "sh", "ps1" )
+function FileList:prerender()
+    -- drawing is in scrolled coordinates, so the background is drawn at the current scroll offset
+    local yScroll = self:getYScroll()
+    local bg = self.backgroundColor
+    local bc = self.borderColor
+    self:drawRect(0, -yScroll, self.width, self.height, bg.a, bg.r, bg.g, bg.b)
+    self:setStencilRect(0, 0, self.width, self.height)
+
+    local rows = self.workshopItem and self.count or #self.messages
+    local first = math.max(0, math.floor(-yScroll / self.itemheight))
+    local last = math.min(rows - 1, math.floor((self.height - yScroll) / self.itemheight))
+    for i = first, last do
+        local y = i * self.itemheight
+        if self.workshopItem then
+            local row = self:getRow(i)
+            if row then
+                local c = row.color
+                self:drawText(row.path, 10, y + self.itemPadY, c[1], c[2], c[3], c[4], self.font)
+                self:drawText(row.size, self.width - 24 - row.sizeWidth, y + self.itemPadY, 0.6, 0.6, 0.6, 0.9, self.font)
+            end
+        else
+            self:drawText(self.messages[i + 1], 10, y + self.itemPadY, 0.9, 0.9, 0.9, 0.9, self.font)
+        end
+        self:drawRectBorder(0, y, self.width, self.itemheight, 0.5, bc.r, bc.g, bc.b)
+    end
+
+    self:updateScrollbars()
+end
 
-local function colorForPath(path)
-    if not path or path == "" then return DEFAULT_COLOR end
-    local filename = path:match("([^/]+)$") or path
-    if filename:lower() == "license" then return COLOR_TEXT end
-    local ext = path:match("%.(%w+)$")
-    if not ext then return DEFAULT_COLOR end
-    ext = ext:lower()
-    return FILE_COLORS[ext] or DEFAULT_COLOR
+function FileList:render()
+    self:clearStencilRect()
+    local bc = self.borderColor
+    self:drawRectBorder(0, -self:getYScroll(), self.width, self.height, bc.a, bc.r, bc.g, bc.b)
+end
+
+function FileList:onMouseWheel(del)
+    local maxScroll = math.max(0, self:getScrollHeight() - self.height)
+    local y = self:getYScroll() - del * self.itemheight * 3
+    self:setYScroll(math.max(-maxScroll, math.min(0, y)))
+    return true
 end
 
 local function getVisiblePage(screen)
@@ -59,6 +161,88 @@ local function onEscKey(key)
     end
 end
 
+-- Upload queue: Java stages queued items in parallel and hands them out one at a time, once the
+-- previous upload's Steam callback has arrived; the pump submits them from the front-end tick.
+local QUEUE_PUMP_TICKS = 30
+local queuePumpTicks = 0
+local queueLabel = nil
+
+local function updateQueueLabel()
+    if not queueLabel then return end
+    local lines = ZBetterWorkshopUpload.getUploadQueue()
+    local total, finished = lines:size(), 0
+    for i = 0, total - 1 do
+        local line = lines:get(i)
+        if line:find(": done$") or line:find(": failed$") or line:find(": skipped$") then
+            finished = finished + 1
+        end
+    end
+    if total == 0 then
+        queueLabel:setName("")
+    else
+        queueLabel:setName("Upload queue: " .. finished .. " of " .. total .. " finished")
+    end
+end
+
+-- "Skip Unchanged Uploads" is decided here, right before SubmitWorkshopItem: the submit hook
+-- never suppresses the call, so the screen never waits for a Steam callback that won't come
+local function isSkippedAsUnchanged(workshopItem)
+    return workshopItem ~= nil and ZBetterWorkshopUpload.isSkipUnchangedUploads ~= nil
+        and ZBetterWorkshopUpload.isSkipUnchangedUploads()
+        and ZBetterWorkshopUpload.isWorkshopItemUnchanged(workshopItem)
+end
+
+local function pumpUploadQueue()
+    queuePumpTicks = queuePumpTicks + 1
+    if queuePumpTicks < QUEUE_PUMP_TICKS then return end
+    queuePumpTicks = 0
+
+    local item = ZBetterWorkshopUpload.nextQueuedUpload()
+    if item and isSkippedAsUnchanged(item) then
+        print("[ZBetterWorkshopUpload] Not submitting queued item " .. tostring(item:getID()) .. ": nothing changed since the last upload")
+        ZBetterWorkshopUpload.skipQueuedUpload(item)
+    elseif item then
+        print("[ZBetterWorkshopUpload] Submitting queued item " .. tostring(item:getID()))
+        -- a rejected submit gets no callback; the submit hook marks the item failed so the queue moves on
+        if not SteamWorkshop.instance:SubmitWorkshopItem(item) then
+            print("[ZBetterWorkshopUpload] Steam rejected queued item " .. tostring(item:getID()))
+        end
+    end
+    updateQueueLabel()
+    if ZBetterWorkshopUpload.isUploadQueueIdle() then
+        Events.OnFETick.Remove(pumpUploadQueue)
+    end
+end
+
+local function onAddToQueue(page5)
+    local workshopItem = page5.parent.item
+    if not (workshopItem and ZBetterWorkshopUpload.addToUploadQueue) then return end
+    if ZBetterWorkshopUpload.addToUploadQueue(workshopItem) then
+        Events.OnFETick.Remove(pumpUploadQueue)
+        Events.OnFETick.Add(pumpUploadQueue)
+    else
+        print("[ZBetterWorkshopUpload] Not queued: item has no ID yet or is already queued")
+    end
+    updateQueueLabel()
+end
+
+-- The submit page compares the item with its last upload on the pre-staging thread; the result
+-- is polled here and appended to the summary, nothing is hashed on the UI thread.
+local unchangedCheckPage = nil
+
+local function pollUnchangedStatus()
+    local page5 = unchangedCheckPage
+    local workshopItem = page5 and page5.parent.item
+    local status = workshopItem and ZBetterWorkshopUpload.getWorkshopItemUnchangedStatus(workshopItem)
+    if status == "checking" then return end
+    Events.OnFETick.Remove(pollUnchangedStatus)
+    unchangedCheckPage = nil
+    if status == "unchanged" then
+        page5.summaryLabel:setName(page5.summary .. "  -  nothing changed since the last upload")
+        page5.summaryLabel:setColor(1.0, 0.8, 0.3)
+    end
+end
+
 -- page1 - "Choose item directory"
 -- page5 - "Prepare to publish item" with "Upload item to workshop now!" button
 
@@ -183,45 +367,128 @@ zdk.hook({
             local listboxY = 128
             local listboxHeight = page5:getHeight() - listboxY - (page5:getHeight() - page5.button1:getY()) - padY/2
 
-            page5.listbox = ISScrollingListBox:new(padX, listboxY, page5.width - padX * 2, listboxHeight)
+            page5.listbox = FileList:new(padX, listboxY, page5.width - padX * 2, listboxHeight)
             page5.listbox:initialise()
             page5.listbox:setAnchorLeft(true)
             page5.listbox:setAnchorRight(true)
             page5.listbox:setAnchorTop(true)
             page5.listbox:setAnchorBottom(true)
-            page5.listbox:setFont("Medium", 4)
-            page5.listbox.drawBorder = true
-            page5.listbox.selectionColor = nil  -- Disable red selection highlight
             page5:addChild(page5.listbox)
 
+            page5.summaryLabel = ISLabel:new(padX, listboxY - 24, 20, "", 0.8, 0.8, 0.8, 1, UIFont.Small, true)
+            page5.summaryLabel:initialise()
+            page5:addChild(page5.summaryLabel)
+
+            if ZBetterWorkshopUpload and ZBetterWorkshopUpload.getWorkshopItemSizeReport then
+                -- toggles the list between the files and the size report (largest files and directories)
+                local reportButton = ISButton:new(0, listboxY - 28, 100, 24, "Size Report", page5, function(page)
+                    if page.showingSizeReport then
+                        page.showingSizeReport = false
+                        page.listbox:setWorkshopItem(page.parent.item, ZBetterWorkshopUpload.getWorkshopItemFileCount(page.parent.item))
+                    else
+                        page.showingSizeReport = true
+                        local lines = ZBetterWorkshopUpload.getWorkshopItemSizeReport(page.parent.item)
+                        local messages = {}
+                        for i = 0, lines:size() - 1 do
+                            messages[#messages + 1] = lines:get(i)
+                        end
+                        if ZBetterWorkshopUpload.getWorkshopItemDuplicateReport then
+                            lines = ZBetterWorkshopUpload.getWorkshopItemDuplicateReport(page.parent.item)
+                            messages[#messages + 1] = ""
+                            for i = 0, lines:size() - 1 do
+                                messages[#messages + 1] = lines:get(i)
+                            end
+                        end
+                        if ZBetterWorkshopUpload.getLastUploadMetrics then
+                            lines = ZBetterWorkshopUpload.getLastUploadMetrics(page.parent.item)
+                            if lines:size() > 0 then
+                                messages[#messages + 1] = ""
+                            end
+                            for i = 0, lines:size() - 1 do
+                                messages[#messages + 1] = lines:get(i)
+                            end
+                        end
+                        page.listbox:setMessages(unpack(messages))
+                    end
+                end)
+                reportButton:initialise()
+                reportButton:setX(page5.width - padX - reportButton:getWidth())
+                reportButton:setAnchorLeft(false)
+                reportButton:setAnchorRight(true)
+                page5:addChild(reportButton)
+            end
+
+            if ZBetterWorkshopUpload and ZBetterWorkshopUpload.addToUploadQueue then
+                local queueButton = ISButton:new(0, page5.button2:getY(), 160, page5.button2:getHeight(), "Add to Upload Queue", page5, onAddToQueue)
+                queueButton:initialise()
+                queueButton:setX(page5.button2:getX() - spanX * 2 - queueButton:getWidth())
+                queueButton:setAnchorLeft(false)
+                queueButton:setAnchorRight(true)
+                queueButton:setAnchorTop(false)
+                queueButton:setAnchorBottom(true)
+                page5:addChild(queueButton)
+                page5.queueButton = queueButton
+
+                queueLabel = ISLabel:new(page5.button1:getRight() + spanX * 2, page5.button1:getY() + 4, 20, "", 0.8, 0.8, 0.8, 1, UIFont.Small, true)
+                queueLabel:initialise()
+                page5:addChild(queueLabel)
+                updateQueueLabel()
+            end
+
+            local uploadNow = page5.button2.onclick
+            page5.button2.onclick = function(target, button, ...)
+                if isSkippedAsUnchanged(page5.parent.item) then
+                    page5.summaryLabel:setName("Not uploaded: nothing changed since the last upload (Skip Unchanged Uploads is on)")
+                    page5.summaryLabel:setColor(1.0, 0.8, 0.3)
+                    return
+                end
+                return uploadNow(target, button, ...)
+            end
+
             zdk.hook({
                 [page5] = {
                     setFields = function(orig, self, ...)
                         orig(self, ...)
 
-                        self.listbox:clear()
-
                         local workshopItem = self.parent.item
-                        if ZBetterWorkshopUpload and ZBetterWorkshopUpload.getWorkshopItemFilteredContents then
+                        if ZBetterWorkshopUpload and ZBetterWorkshopUpload.getWorkshopItemFileCount then
                             print("[ZBetterWorkshopUpload] Getting workshop item filtered contents for item "..tostring(workshopItem))
-                            local fileList = ZBetterWorkshopUpload.getWorkshopItemFilteredContents(workshopItem)
-                            if fileList and fileList:size() > 0 then
-                                local paths = {}
-                                for i = 0, fileList:size() - 1 do
-                                    paths[#paths + 1] = fileList:get(i)
-                                end
-                                table.sort(paths)
-                                for _, path in ipairs(paths) do
-                                    self.listbox:addItem(path)
-                                    local idx = self.listbox:size()
-                                    local c = colorForPath(path)
-                                    self.listbox:setItemTextColorRGBA(idx, c[1], c[2], c[3], c[4])
-                                    self.listbox:setItemSelectedTextColorRGBA(idx, c[1], c[2], c[3], c[4])
+                            local count = ZBetterWorkshopUpload.getWorkshopItemFileCount(workshopItem)
+                            self.listbox:setWorkshopItem(workshopItem, count)
+                            self.showingSizeReport = false
+                            local summary = count .. " files: " .. ZBetterWorkshopUpload.getWorkshopItemFileSummary(workshopItem)
+                            if ZBetterWorkshopUpload.getWorkshopItemUploadSize then
+                                summary = summary .. " (" .. ZBetterWorkshopUpload.getWorkshopItemUploadSize(workshopItem) .. ")"
+                            end
+                            local warnings = ZBetterWorkshopUpload.getWorkshopItemSizeWarnings and ZBetterWorkshopUpload.getWorkshopItemSizeWarnings(workshopItem)
+                            local hasWarnings = warnings and warnings:size() > 0
+                            if hasWarnings then
+                                summary = summary .. "  -  " .. warnings:get(0)
+                                if warnings:size() > 1 then
+                                    summary = summary .. " (+" .. (warnings:size() - 1) .. " more, see Size Report)"
                                 end
+                                self.summaryLabel:setColor(1.0, 0.4, 0.3)
+                            else
+                                self.summaryLabel:setColor(0.8, 0.8, 0.8)
+                            end
+                            self.summary = summary
+                            self.summaryLabel:setName(summary)
+
+                            -- compare with the last upload and stage in the background while the user reviews the page
+                            if ZBetterWorkshopUpload.startPreStaging then
+                                ZBetterWorkshopUpload.startPreStaging(workshopItem)
+                            end
+                            Events.OnFETick.Remove(pollUnchangedStatus)
+                            unchangedCheckPage = nil
+                            if not hasWarnings and ZBetterWorkshopUpload.getWorkshopItemUnchangedStatus then
+                                unchangedCheckPage = self
+                                Events.OnFETick.Add(pollUnchangedStatus)
                             end
                         else
-                            self.listbox:addItem("ZBetterWorkshopUpload.getWorkshopItemFilteredContents() is not available")
-                            self.listbox:addItem("Please check the installation of the ZombieBuddy mod")
+                            self.listbox:setMessages(
+                                "ZBetterWorkshopUpload.getWorkshopItemFileCount() is not available",
+                                "Please check the installation of the ZombieBuddy mod"
+                            )
                         end
                     end
                 }
@@ -234,6 +501,9 @@ zdk.hook({
                 Events.OnKeyPressed.Add(onEscKey)
             else
                 Events.OnKeyPressed.Remove(onEscKey)
+                if ZBetterWorkshopUpload and ZBetterWorkshopUpload.cancelPreStaging then
+                    ZBetterWorkshopUpload.cancelPreStaging()
+                end
             end
         end,
     }, -- WorkshopSubmitScreen
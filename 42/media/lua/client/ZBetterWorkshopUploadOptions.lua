@@ -1,5 +1,19 @@
 local MOD_ID = "ZBetterWorkshopUpload"
 local EXCLUDED_PATTERNS_ID = "excludedPatterns"
+local STAGING_MODE_ID = "stagingMode"
+local PERSISTENT_STAGING_ID = "persistentStaging"
+local SKIP_UNCHANGED_ID = "skipUnchangedUploads"
+local PRE_STAGING_ID = "preStaging"
+local DEDUPE_STAGING_ID = "dedupeStaging"
+local OPTIMIZE_PNGS_ID = "optimizePngs"
+local NORMALIZE_TEXT_ID = "normalizeTextFiles"
+local DROP_JAVA_SOURCES_ID = "dropJavaSources"
+local MOD_INFO_OVERRIDES_ID = "modInfoOverrides"
+local UPLOAD_SIZE_WARNING_ID = "uploadSizeWarningMB"
+local LARGE_FILE_WARNING_ID = "largeFileWarningMB"
+
+-- Combo box index -> Java staging mode
+local STAGING_MODES = { "auto", "clone", "copy" }
 
 -- Get default patterns from Java (single source of truth)
 -- Fallback to hardcoded value if Java isn't available yet
@@ -30,6 +44,41 @@ local function InitZBetterWorkshopUploadModOptions()
     -- Add text entry for excluded patterns
     options:addTextEntry(EXCLUDED_PATTERNS_ID, "Excluded Patterns", defaultPatterns,
         "Separate patterns with semicolons. Examples: .git; *.tmp; .DS_Store")
+
+    local stagingMode = options:addComboBox(STAGING_MODE_ID, "Staging Method",
+        "How files are placed into the temporary upload folder. Hard links and clones need no extra disk space.")
+    stagingMode:addItem("Hard link, clone or copy", true)
+    stagingMode:addItem("Clone or copy", false)
+    stagingMode:addItem("Always copy", false)
+
+    options:addTickBox(PERSISTENT_STAGING_ID, "Keep Staging Folders", false,
+        "Keep each item's upload folder between uploads and only update what changed. Uses disk space when files are copied rather than linked.")
+
+    options:addTextEntry(UPLOAD_SIZE_WARNING_ID, "Upload Size Warning (MB)", "200",
+        "Warn on the submit page when the whole upload is larger than this. 0 disables the warning.")
+    options:addTextEntry(LARGE_FILE_WARNING_ID, "Large File Warning (MB)", "50",
+        "Warn on the submit page about each file larger than this. 0 disables the warning.")
+
+    options:addTickBox(PRE_STAGING_ID, "Prepare Upload in Background", true,
+        "Start staging the item while the submit page is open, so uploading starts sooner.")
+
+    options:addTickBox(OPTIMIZE_PNGS_ID, "Recompress PNG Textures", false,
+        "Losslessly recompress PNG files in the upload (pixels stay identical, metadata chunks are dropped). Your files are not modified.")
+
+    options:addTickBox(NORMALIZE_TEXT_ID, "Normalize Text Files", false,
+        "Strip byte order marks and convert CRLF line endings to LF in uploaded .txt and .lua files. Your files are not modified.")
+
+    options:addTickBox(DROP_JAVA_SOURCES_ID, "Drop Java Sources Next to Jars", false,
+        "Leave .java files out of the upload when a folder above them contains a built .jar (directly or in build/libs).")
+
+    options:addTextEntry(MOD_INFO_OVERRIDES_ID, "mod.info Overrides", "",
+        "Fields to change in uploaded mod.info files, separated by semicolons. Example: versionMin=42.0; poster=poster.png (an empty value removes the field)")
+
+    options:addTickBox(DEDUPE_STAGING_ID, "Link Duplicate Files", false,
+        "Stage files with identical content as hard links to one copy, so they are written to disk only once. Not used with Keep Staging Folders.")
+
+    options:addTickBox(SKIP_UNCHANGED_ID, "Skip Unchanged Uploads", false,
+        "Don't submit an item whose files and description are the same as in its last successful upload. When off, only a warning is shown.")
 end
 
 Events.OnGameBoot.Add(InitZBetterWorkshopUploadModOptions)
@@ -66,9 +115,50 @@ local function updateExcludedPatterns()
     end
 end
 
+local function updateStagingMode()
+    if not (ZBetterWorkshopUpload and ZBetterWorkshopUpload.setStagingMode) then return end
+    local options = PZAPI.ModOptions:getOptions(MOD_ID)
+    local option = options and options:getOption(STAGING_MODE_ID)
+    if option then
+        ZBetterWorkshopUpload.setStagingMode(STAGING_MODES[option:getValue()] or "auto")
+    end
+    local persistent = options and options:getOption(PERSISTENT_STAGING_ID)
+    if persistent and ZBetterWorkshopUpload.setPersistentStaging then
+        ZBetterWorkshopUpload.setPersistentStaging(persistent:getValue() == true)
+    end
+    local skipUnchanged = options and options:getOption(SKIP_UNCHANGED_ID)
+    if skipUnchanged and ZBetterWorkshopUpload.setSkipUnchangedUploads then
+        ZBetterWorkshopUpload.setSkipUnchangedUploads(skipUnchanged:getValue() == true)
+    end
+    local uploadSize = options and options:getOption(UPLOAD_SIZE_WARNING_ID)
+    local largeFile = options and options:getOption(LARGE_FILE_WARNING_ID)
+    if uploadSize and largeFile and ZBetterWorkshopUpload.setSizeWarningThresholds then
+        ZBetterWorkshopUpload.setSizeWarningThresholds(tonumber(uploadSize:getValue()) or 200, tonumber(largeFile:getValue()) or 50)
+    end
+    local optimizePngs = options and options:getOption(OPTIMIZE_PNGS_ID)
+    if optimizePngs and ZBetterWorkshopUpload.setOptimizePngs then
+        ZBetterWorkshopUpload.setOptimizePngs(optimizePngs:getValue() == true)
+    end
+    local normalizeText = options and options:getOption(NORMALIZE_TEXT_ID)
+    local dropJava = options and options:getOption(DROP_JAVA_SOURCES_ID)
+    local modInfo = options and options:getOption(MOD_INFO_OVERRIDES_ID)
+    if normalizeText and dropJava and modInfo and ZBetterWorkshopUpload.setFileTransforms then
+        ZBetterWorkshopUpload.setFileTransforms(normalizeText:getValue() == true, dropJava:getValue() == true, modInfo:getValue() or "")
+    end
+    local dedupe = options and options:getOption(DEDUPE_STAGING_ID)
+    if dedupe and ZBetterWorkshopUpload.setDedupeStaging then
+        ZBetterWorkshopUpload.setDedupeStaging(dedupe:getValue() == true)
+    end
+    local preStaging = options and options:getOption(PRE_STAGING_ID)
+    if preStaging and ZBetterWorkshopUpload.setPreStaging then
+        ZBetterWorkshopUpload.setPreStaging(preStaging:getValue() == true)
+    end
+end
+
 -- Update patterns when mod options are loaded/changed
 local function onModOptionsChanged()
     updateExcludedPatterns()
+    updateStagingMode()
 end
 
 -- Hook into the options apply function
@@ -82,6 +172,7 @@ Events.OnGameBoot.Add(function()
         end
         -- Also update immediately after boot
         updateExcludedPatterns()
+        updateStagingMode()
     end
 end)
 
@@ -0,0 +1,74 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import zombie.core.znet.SteamWorkshopItem;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expanding @include directives of a description that pulls in files from the workshop item folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DescriptionBenchmark {
+    @Param({ "1", "10", "50" })
+    public int includes;
+
+    @Param({ "1024", "65536" })
+    public int includeSize;
+
+    @Param({ "200" })
+    public int textLines;
+
+    private SyntheticModTree tree;
+    private SteamWorkshopItem item;
+    private String description;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tree = SyntheticModTree.create(10, 2, 0, 0, 16);
+        Path workshopDir = tree.getWorkshopDir();
+        char[] text = new char[includeSize];
+        Arrays.fill(text, 'x');
+        for (int i = 0; i < includes; i++) {
+            Files.write(workshopDir.resolve("include" + i + ".txt"), new String(text).getBytes(StandardCharsets.UTF_8));
+        }
+
+        // includes spread over plain text lines
+        StringBuilder sb = new StringBuilder();
+        int every = Math.max(1, textLines / Math.max(1, includes));
+        for (int line = 0, included = 0; line < textLines || included < includes; line++) {
+            if (included < includes && line % every == 0) {
+                sb.append("@include(\"include").append(included++).append(".txt\")\n");
+            }
+            sb.append("[b]Line ").append(line).append("[/b] of the synthetic description\r\n");
+        }
+        description = sb.toString();
+        item = new SteamWorkshopItem(workshopDir.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tree.delete();
+    }
+
+    @Benchmark
+    public String expandIncludes() {
+        return DescriptionIncludeProcessor.expandIncludes(description, item);
+    }
+}
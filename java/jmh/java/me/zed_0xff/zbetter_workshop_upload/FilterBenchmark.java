@@ -0,0 +1,180 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path filtering over a synthetic mod tree: the per-path checks the preview and the staging scan
+ * are built on, and FilterRuleSet against the original per-call regex matching it replaced.
+ * Each benchmark processes the whole tree, so scores are per tree, not per path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FilterBenchmark {
+    @Param({ "1000", "10000" })
+    public int files;
+
+    @Param({ "4", "12" })
+    public int depth;
+
+    @Param({ "10", "100" })
+    public int patterns;
+
+    @Param({ "0", "0.1", "1" })
+    public double ignoreDensity;
+
+    private SyntheticModTree tree;
+    private String basePath;
+    private ArrayList<String> paths;
+    private List<String> patternList;
+    private FilterRuleSet ruleSet;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tree = SyntheticModTree.create(files, depth, patterns, ignoreDensity, 16);
+        basePath = tree.getContentsDir().toString();
+        paths = new ArrayList<>(tree.getFilePaths());
+        patternList = tree.getPatterns();
+        ruleSet = FilterRuleSet.compile(patternList);
+        WorkshopContentFilter.loadExcludedPatterns(String.join(";", patternList));
+        WorkshopContentFilter.clearIgnoreFileCache();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        WorkshopContentFilter.clearIgnoreFileCache();
+        tree.delete();
+    }
+
+    /**
+     * State that empties the ignore file cache before every call, for the cost of reading the
+     * .workshopignore files again.
+     */
+    @State(Scope.Thread)
+    public static class ColdIgnoreCache {
+        @Setup(Level.Invocation)
+        public void clear() {
+            WorkshopContentFilter.clearIgnoreFileCache();
+        }
+    }
+
+    @Benchmark
+    public int shouldIncludePath() {
+        int included = 0;
+        for (String path : paths) {
+            if (WorkshopContentFilter.shouldIncludePath(path, basePath)) {
+                included++;
+            }
+        }
+        return included;
+    }
+
+    @Benchmark
+    public int shouldIncludePathColdIgnoreCache(ColdIgnoreCache cold) {
+        return shouldIncludePath();
+    }
+
+    @Benchmark
+    public ArrayList<String> filterFilePaths() {
+        return WorkshopContentFilter.filterFilePaths(paths, basePath);
+    }
+
+    @Benchmark
+    public File[] listAllFiles() {
+        Path contents = tree.getContentsDir();
+        FileFilter filter = file -> WorkshopContentFilter.shouldIncludePath(contents.relativize(file.toPath()).toString(), basePath);
+        return ZBetterWorkshopUpload.listAllFiles(contents.toFile(), filter, true);
+    }
+
+    @Benchmark
+    public int matchesPattern() {
+        int hits = 0;
+        for (String path : paths) {
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+            for (String pattern : patternList) {
+                if (WorkshopContentFilter.matchesPattern(path, fileName, pattern)) {
+                    hits++;
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int ruleSetMatches() {
+        int hits = 0;
+        for (String path : paths) {
+            if (ruleSet.matches(path)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int legacyMatchesPattern() {
+        int hits = 0;
+        for (String path : paths) {
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+            for (String pattern : patternList) {
+                if (legacyMatchesPattern(path, fileName, pattern)) {
+                    hits++;
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    // Original WorkshopContentFilter.matchesPattern, kept verbatim as the baseline
+    private static boolean legacyMatchesPattern(String filePath, String fileName, String pattern) {
+        String regexPattern = legacyPatternToRegex(pattern);
+        if (fileName.matches(regexPattern) || filePath.matches(regexPattern)) {
+            return true;
+        }
+        if (!pattern.contains("*")) {
+            return filePath.contains("/" + pattern + "/") || filePath.endsWith("/" + pattern) ||
+                filePath.startsWith(pattern + "/");
+        }
+        for (String segment : filePath.split("/")) {
+            if (segment.matches(regexPattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String legacyPatternToRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (".+?^$[](){}|\\".indexOf(c) >= 0) {
+                regex.append("\\").append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+        return regex.toString();
+    }
+}
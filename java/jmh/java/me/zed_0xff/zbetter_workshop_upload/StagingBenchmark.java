@@ -0,0 +1,90 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating the filtered copy of a synthetic workshop item: a new temp staging folder per call,
+ * as an upload without persistent staging does. The folder is deleted outside the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StagingBenchmark {
+    @Param({ "1000", "10000" })
+    public int files;
+
+    @Param({ "6" })
+    public int depth;
+
+    @Param({ "20" })
+    public int patterns;
+
+    @Param({ "0.1" })
+    public double ignoreDensity;
+
+    @Param({ "4096" })
+    public int fileSize;
+
+    @Param({ "auto", "clone", "copy" })
+    public String stagingMode;
+
+    @Param({ "true", "false" })
+    public boolean warmManifest;
+
+    private SyntheticModTree tree;
+    private Path stagingDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tree = SyntheticModTree.create(files, depth, patterns, ignoreDensity, fileSize);
+        WorkshopContentFilter.loadExcludedPatterns(String.join(";", tree.getPatterns()));
+        WorkshopContentFilter.setStagingMode(stagingMode);
+        WorkshopContentFilter.clearIgnoreFileCache();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() {
+        if (!warmManifest) {
+            WorkshopContentFilter.clearIgnoreFileCache();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteStagingDir() {
+        if (stagingDir != null) {
+            StagingCleaner.delete(stagingDir);
+            stagingDir = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        WorkshopContentFilter.setStagingMode(null);
+        WorkshopContentFilter.clearIgnoreFileCache();
+        tree.delete();
+    }
+
+    /**
+     * Stands in for the private createFilteredCopy, which wraps this call with the pre-staging
+     * hand-off and the upload metrics.
+     */
+    @Benchmark
+    public Path createFilteredCopy() throws IOException {
+        stagingDir = WorkshopContentFilter.stageItem(tree.getWorkshopDir().toFile(), null);
+        return stagingDir;
+    }
+}
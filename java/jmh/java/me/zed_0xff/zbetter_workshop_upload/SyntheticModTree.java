@@ -0,0 +1,168 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates a workshop item folder with a synthetic Contents tree for the benchmarks.
+ * The tree is deterministic for the same parameters, so runs are comparable.
+ */
+final class SyntheticModTree {
+    private static final String[] DIRS = { "media", "lua", "client", "textures", "sound", "scripts", "42", "common", "models", "ui", "tmp", ".git" };
+    private static final String[] EXTS = { ".lua", ".png", ".txt", ".ogg", ".log", ".x", ".tmp", ".java", ".bak" };
+    // typical global and .workshopignore patterns, cycled to reach the requested count
+    private static final List<String> PATTERNS = Arrays.asList(
+        ".DS_Store", ".git*", ".gradle", ".idea", ".vscode", "*.log", "*.tmp", "*.swp", "Thumbs.db", "tmp",
+        "*.bak", "*.psd", "node_modules", "build", "out", "*~", "*.orig", "draft*", "*_old*", "docs/*.md"
+    );
+
+    private final Path root;
+    private final Path workshopDir;
+    private final List<String> filePaths;
+    private final List<String> patterns;
+    private final int ignoreFiles;
+
+    private SyntheticModTree(Path root, Path workshopDir, List<String> filePaths, List<String> patterns, int ignoreFiles) {
+        this.root = root;
+        this.workshopDir = workshopDir;
+        this.filePaths = filePaths;
+        this.patterns = patterns;
+        this.ignoreFiles = ignoreFiles;
+    }
+
+    /**
+     * Writes a workshop item folder (Contents plus preview.png) into a new temp folder, laid out
+     * like Zomboid/Workshop/&lt;item&gt; so that staging folders are created inside the temp folder too.
+     *
+     * @param fileCount Number of files in Contents
+     * @param depth Maximum directory depth of a file
+     * @param patternCount Number of exclusion patterns (see {@link #patterns})
+     * @param ignoreDensity Fraction (0..1) of directories that get a .workshopignore
+     * @param fileSize Bytes per file
+     * @return The generated tree
+     * @throws IOException If the tree cannot be written
+     */
+    static SyntheticModTree create(int fileCount, int depth, int patternCount, double ignoreDensity, int fileSize) throws IOException {
+        Path root = Files.createTempDirectory("zb_bench_");
+        Path workshopDir = root.resolve("Zomboid/Workshop/SyntheticMod");
+        Path contents = Files.createDirectories(workshopDir.resolve("Contents"));
+        Files.write(workshopDir.resolve("preview.png"), new byte[fileSize]);
+
+        List<String> filePaths = generatePaths(fileCount, depth);
+        List<String> patterns = patterns(patternCount);
+        byte[] data = new byte[fileSize];
+        Arrays.fill(data, (byte) 'x');
+        List<String> dirs = new ArrayList<>();
+        for (String path : filePaths) {
+            Path file = contents.resolve(path);
+            if (!Files.isDirectory(file.getParent())) {
+                Files.createDirectories(file.getParent());
+                dirs.add(contents.relativize(file.getParent()).toString().replace('\\', '/'));
+            }
+            Files.write(file, data);
+        }
+
+        // spread the .workshopignore files evenly over the directories, each with a slice of the patterns
+        int ignoreFiles = 0;
+        int step = ignoreDensity <= 0 ? Integer.MAX_VALUE : Math.max(1, (int) Math.round(1 / ignoreDensity));
+        for (int i = 0; i < dirs.size(); i += step) {
+            StringBuilder sb = new StringBuilder("# synthetic\n");
+            for (int j = 0; j < 3 && !patterns.isEmpty(); j++) {
+                sb.append(patterns.get((i + j) % patterns.size())).append('\n');
+            }
+            Files.write(contents.resolve(dirs.get(i)).resolve(".workshopignore"), sb.toString().getBytes(StandardCharsets.UTF_8));
+            ignoreFiles++;
+        }
+        return new SyntheticModTree(root, workshopDir, filePaths, patterns, ignoreFiles);
+    }
+
+    /**
+     * @param fileCount Number of paths
+     * @param depth Maximum directory depth
+     * @return Pseudo-random relative file paths, the same for the same arguments
+     */
+    static List<String> generatePaths(int fileCount, int depth) {
+        List<String> paths = new ArrayList<>(fileCount);
+        long seed = 42;
+        for (int i = 0; i < fileCount; i++) {
+            StringBuilder sb = new StringBuilder();
+            seed = next(seed);
+            int d = 1 + (int) ((seed >>> 33) % depth);
+            for (int j = 0; j < d; j++) {
+                seed = next(seed);
+                sb.append(DIRS[(int) ((seed >>> 33) % DIRS.length)]).append('/');
+            }
+            seed = next(seed);
+            sb.append("file").append(i).append(EXTS[(int) ((seed >>> 33) % EXTS.length)]);
+            paths.add(sb.toString());
+        }
+        return paths;
+    }
+
+    /**
+     * @param count Number of patterns
+     * @return The typical patterns, cycled with a numeric suffix once they run out
+     */
+    static List<String> patterns(int count) {
+        List<String> patterns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String pattern = PATTERNS.get(i % PATTERNS.size());
+            patterns.add(i < PATTERNS.size() ? pattern : pattern + (i / PATTERNS.size()));
+        }
+        return patterns;
+    }
+
+    private static long next(long seed) {
+        return seed * 6364136223846793005L + 1442695040888963407L;
+    }
+
+    Path getWorkshopDir() {
+        return workshopDir;
+    }
+
+    Path getContentsDir() {
+        return workshopDir.resolve("Contents");
+    }
+
+    List<String> getFilePaths() {
+        return filePaths;
+    }
+
+    List<String> getPatterns() {
+        return patterns;
+    }
+
+    int getIgnoreFileCount() {
+        return ignoreFiles;
+    }
+
+    /**
+     * Deletes the tree, staging folders left next to it and the temp folder holding them.
+     */
+    void delete() throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,31 @@
+package me.zed_0xff.zombie_buddy;
+
+import java.lang.reflect.Field;
+
+/**
+ * Stand-in for ZombieBuddy's reflection helper, for building and benchmarking without ZombieBuddy.
+ */
+public final class Accessor {
+
+    private Accessor() {
+    }
+
+    /**
+     * @return The value of a field declared by the object's class or a superclass, or def if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T tryGet(Object object, String fieldName, T def) {
+        for (Class<?> c = object.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                return (T) field.get(object);
+            } catch (NoSuchFieldException e) {
+                // look in the superclass
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return def;
+            }
+        }
+        return def;
+    }
+}
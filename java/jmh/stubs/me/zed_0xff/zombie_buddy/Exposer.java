@@ -0,0 +1,20 @@
+package me.zed_0xff.zombie_buddy;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Stand-in for ZombieBuddy's Lua exposer annotations, for building without ZombieBuddy.
+ */
+public final class Exposer {
+
+    private Exposer() {
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface LuaClass {
+    }
+}
@@ -0,0 +1,38 @@
+package me.zed_0xff.zombie_buddy;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Stand-in for ZombieBuddy's patch annotations, for building without ZombieBuddy.
+ * Patches are never applied in a build against the stubs.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Patch {
+    String className();
+
+    String methodName();
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface OnEnter {
+        boolean skipOn() default false;
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface OnExit {
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface This {
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Argument {
+        int value();
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Return {
+        boolean readOnly() default true;
+    }
+}
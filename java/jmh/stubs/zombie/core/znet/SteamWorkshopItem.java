@@ -0,0 +1,41 @@
+package zombie.core.znet;
+
+import java.io.File;
+
+/**
+ * Stand-in for the game's workshop item, for building and benchmarking without the game jar.
+ * Only what the mod uses; the workshopFolder field is read by reflection like the real one.
+ */
+public class SteamWorkshopItem {
+    private final String workshopFolder;
+    private String id;
+    private String description = "";
+
+    public SteamWorkshopItem(String workshopFolder) {
+        this.workshopFolder = workshopFolder;
+    }
+
+    public String getID() {
+        return id;
+    }
+
+    public void setID(String id) {
+        this.id = id;
+    }
+
+    public String getFolderName() {
+        return new File(workshopFolder).getName();
+    }
+
+    public String getContentFolder() {
+        return workshopFolder + "/Contents";
+    }
+
+    public String getSubmitDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+}
@@ -0,0 +1,14 @@
+package zombie.util;
+
+/**
+ * Stand-in for the game's string helpers, for building and benchmarking without the game jar.
+ */
+public final class StringUtils {
+
+    private StringUtils() {
+    }
+
+    public static boolean containsDoubleDot(String string) {
+        return string != null && string.contains("..");
+    }
+}
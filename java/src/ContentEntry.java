@@ -0,0 +1,76 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+
+/**
+ * One scanned entry of a Contents tree: its path relative to the Contents root,
+ * the attributes read during the scan, and the filter decision.
+ */
+public final class ContentEntry {
+    public static final Comparator<ContentEntry> BY_PATH = new Comparator<ContentEntry>() {
+        @Override
+        public int compare(ContentEntry o1, ContentEntry o2) {
+            return o1.relativePath.compareTo(o2.relativePath);
+        }
+    };
+
+    private final String relativePath;
+    private final boolean directory;
+    private final long size;
+    private final long lastModified;
+    private final boolean included;
+    private final FileCategory category;
+
+    public ContentEntry(String relativePath, boolean directory, long size, long lastModified, boolean included) {
+        this.relativePath = relativePath;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.included = included;
+        this.category = directory ? FileCategory.OTHER : FileCategory.of(relativePath);
+    }
+
+    static ContentEntry of(String relativePath, BasicFileAttributes attrs, boolean included) {
+        boolean directory = attrs.isDirectory();
+        return new ContentEntry(relativePath, directory, directory ? 0 : attrs.size(), attrs.lastModifiedTime().toMillis(), included);
+    }
+
+    /**
+     * @return Path relative to the Contents root (normalized with "/")
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return false if the entry was excluded by the filter
+     */
+    public boolean isIncluded() {
+        return included;
+    }
+
+    /**
+     * @return Kind of the file (OTHER for directories)
+     */
+    public FileCategory getCategory() {
+        return category;
+    }
+
+    @Override
+    public String toString() {
+        return relativePath + (directory ? "/" : "") + (included ? "" : " (excluded)");
+    }
+}
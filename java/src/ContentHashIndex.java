@@ -0,0 +1,282 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * On-disk index of the files of one workshop item: relative path, size, mtime and SHA-256.
+ * A file is only rehashed when its size or mtime differ from the indexed ones, so updating
+ * the index of an unchanged multi-GB tree costs one stat per file. A file modified within
+ * {@link ContentManifest#RACY_MILLIS} of being hashed could be edited again without its mtime
+ * changing, so its record is kept without the mtime: it is rehashed on the next update and
+ * {@link #getHash(String, long, long)} does not vouch for it.
+ *
+ * Stored as a text file with one "size TAB mtime TAB sha256 TAB path" line per file.
+ * A missing or unreadable index is treated as empty.
+ */
+public final class ContentHashIndex {
+    private static final String HEADER = "# ZBetterWorkshopUpload content hash index v1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // mtime of a record hashed too close to its file's mtime, never matches a real one
+    private static final long RACY_MTIME = -1;
+
+    private final Path file;
+    private final TreeMap<String, Record> records;
+
+    private ContentHashIndex(Path file, TreeMap<String, Record> records) {
+        this.file = file;
+        this.records = records;
+    }
+
+    /**
+     * Loads an index file.
+     *
+     * @param file The index file (need not exist)
+     * @return The index, empty if the file is missing or unreadable
+     */
+    public static ContentHashIndex load(Path file) {
+        TreeMap<String, Record> records = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                return new ContentHashIndex(file, records);
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 4);
+                if (parts.length == 4) {
+                    records.put(parts[3], new Record(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // first use
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("[ZBetterWorkshopUpload] Ignoring unreadable hash index " + file + ": " + e);
+            records.clear();
+        }
+        return new ContentHashIndex(file, records);
+    }
+
+    /**
+     * Brings the index in line with the files of an upload, hashing new and changed files in parallel.
+     *
+     * @param files The upload's files (see {@link UploadFileSet#collect})
+     * @return What changed since the index was last updated
+     * @throws IOException If a file cannot be read
+     */
+    public synchronized Diff update(Map<String, UploadFileSet.Entry> files) throws IOException {
+        Diff diff = new Diff();
+        TreeMap<String, Record> updated = new TreeMap<>();
+        List<String> toHash = new ArrayList<>();
+        for (Map.Entry<String, UploadFileSet.Entry> e : files.entrySet()) {
+            UploadFileSet.Entry entry = e.getValue();
+            if (entry.directory) {
+                continue;
+            }
+            Record old = records.get(e.getKey());
+            if (old != null && old.size == entry.size && old.lastModified == entry.lastModified) {
+                updated.put(e.getKey(), old);
+                diff.unchanged.add(e.getKey());
+            } else {
+                toHash.add(e.getKey());
+            }
+        }
+
+        long start = System.nanoTime();
+        long hashedAt = System.currentTimeMillis();
+        Map<String, String> hashes = Collections.synchronizedMap(new TreeMap<>());
+        try {
+            toHash.parallelStream().forEach(path -> {
+                try {
+                    hashes.put(path, sha256(files.get(path).source));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        diff.hashNanos = System.nanoTime() - start;
+
+        for (String path : toHash) {
+            UploadFileSet.Entry entry = files.get(path);
+            String hash = hashes.get(path);
+            boolean racy = entry.lastModified >= hashedAt - ContentManifest.RACY_MILLIS;
+            updated.put(path, new Record(entry.size, racy ? RACY_MTIME : entry.lastModified, hash));
+            diff.hashedBytes += entry.size;
+            Record old = records.get(path);
+            if (old == null) {
+                diff.added.add(path);
+            } else if (!old.hash.equals(hash)) {
+                diff.modified.add(path);
+            } else {
+                diff.unchanged.add(path); // touched, same content
+            }
+        }
+        diff.rehashed = toHash.size();
+        for (String path : records.keySet()) {
+            if (!updated.containsKey(path)) {
+                diff.removed.add(path);
+            }
+        }
+
+        records.clear();
+        records.putAll(updated);
+        return diff;
+    }
+
+    /**
+     * Writes the index, replacing the file atomically where the filesystem allows.
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Record> e : records.entrySet()) {
+                Record r = e.getValue();
+                writer.write(r.size + "\t" + r.lastModified + "\t" + r.hash + "\t" + e.getKey());
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param path Path relative to the item folder
+     * @return The file's SHA-256 as lowercase hex, or null if not indexed
+     */
+    public synchronized String getHash(String path) {
+        Record record = records.get(path);
+        return record == null ? null : record.hash;
+    }
+
+    /**
+     * @param path Path relative to the item folder
+     * @param size Current size of the file
+     * @param lastModified Current mtime of the file
+     * @return The indexed SHA-256, or null if not indexed or indexed with another size or mtime
+     */
+    public synchronized String getHash(String path, long size, long lastModified) {
+        Record record = records.get(path);
+        return record == null || record.size != size || record.lastModified != lastModified ? null : record.hash;
+    }
+
+    /**
+     * @return Number of indexed files
+     */
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /**
+     * @return SHA-256 over all indexed paths and hashes; equal digests mean identical file sets
+     */
+    public synchronized String digest() {
+        MessageDigest md = newDigest();
+        for (Map.Entry<String, Record> e : records.entrySet()) {
+            md.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(e.getValue().hash.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+        return toHex(md.digest());
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @param file A file
+     * @return Its SHA-256 as lowercase hex
+     * @throws IOException If the file cannot be read
+     */
+    static String sha256(Path file) throws IOException {
+        MessageDigest md = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                md.update(buffer, 0, length);
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    private static final class Record {
+        final long size;
+        final long lastModified;
+        final String hash;
+
+        Record(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Changes found by one {@link #update}, as paths relative to the item folder.
+     */
+    public static final class Diff {
+        public final List<String> added = new ArrayList<>();
+        public final List<String> modified = new ArrayList<>();
+        public final List<String> removed = new ArrayList<>();
+        public final List<String> unchanged = new ArrayList<>();
+        public int rehashed;
+        public long hashedBytes;
+        public long hashNanos;
+
+        public boolean isEmpty() {
+            return added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d added, %d modified, %d removed, %d unchanged (hashed %d files, %s in %.1f ms)",
+                added.size(), modified.size(), removed.size(), unchanged.size(), rehashed, FileStager.formatBytes(hashedBytes), hashNanos / 1e6);
+        }
+    }
+}
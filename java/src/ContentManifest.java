@@ -0,0 +1,348 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of one filtered scan of a workshop item's Contents folder: every entry with its size,
+ * mtime and include decision. Built for the preview and reused by the upload, so the tree is not
+ * scanned and filtered a second time.
+ *
+ * A manifest stays valid while the global rule set is unchanged and none of the scanned directories
+ * or .workshopignore files changed their mtime. Adding, removing or renaming an entry updates its
+ * directory's mtime, so this catches every change to the set of uploaded paths. Sizes and mtimes of
+ * files edited in place are as of the scan.
+ *
+ * Filesystem timestamps are coarse (a few milliseconds to two seconds), so a change made right
+ * after the scan may leave an mtime unchanged. Directories and .workshopignore files whose mtime
+ * is within {@link #RACY_MILLIS} of the scan are not trusted on their mtime alone: their listing
+ * (or size) is compared with the manifest as well.
+ */
+public final class ContentManifest {
+    // covers the coarsest common mtime granularity (FAT's two seconds)
+    static final long RACY_MILLIS = 2000;
+
+    private final Path root;
+    private final long rulesVersion;
+    private final long rootLastModified;
+    private final long scanStartedAt;
+    private final List<ContentEntry> entries;
+    private final ContentScanner.ScanStats stats;
+    private final long createdAt;
+    private final int[] categoryCounts = new int[FileCategory.values().length];
+    private final long[] categoryBytes = new long[FileCategory.values().length];
+    private volatile IncludedFiles includedFiles;
+    private volatile SizeAnalysis sizeAnalysis;
+
+    private ContentManifest(Path root, long rulesVersion, long rootLastModified, long scanStartedAt, List<ContentEntry> entries, ContentScanner.ScanStats stats) {
+        this.root = root;
+        this.rulesVersion = rulesVersion;
+        this.rootLastModified = rootLastModified;
+        this.scanStartedAt = scanStartedAt;
+        this.entries = Collections.unmodifiableList(entries);
+        this.stats = stats;
+        this.createdAt = System.currentTimeMillis();
+        for (ContentEntry entry : entries) {
+            if (entry.isIncluded() && !entry.isDirectory()) {
+                categoryCounts[entry.getCategory().ordinal()]++;
+                categoryBytes[entry.getCategory().ordinal()] += entry.getSize();
+            }
+        }
+    }
+
+    /**
+     * Scans a Contents folder and builds its manifest.
+     *
+     * @param root The Contents folder
+     * @return The new manifest
+     * @throws IOException If the tree cannot be walked
+     */
+    public static ContentManifest build(Path root) throws IOException {
+        long rulesVersion = WorkshopContentFilter.getGlobalRules().getVersion();
+        long scanStartedAt = System.currentTimeMillis();
+        long rootLastModified = root.toFile().lastModified();
+        ContentScanner.ScanResult scan = ContentScanner.collect(root, true);
+        return new ContentManifest(root, rulesVersion, rootLastModified, scanStartedAt, scan.getEntries(), scan.getStats());
+    }
+
+    /**
+     * Checks that the manifest still describes the tree on disk.
+     * Costs one stat per included directory and per .workshopignore file, plus a listing of each
+     * directory modified shortly before the scan; no filtering.
+     *
+     * @return true if the manifest can be reused
+     */
+    public boolean isValid() {
+        if (rulesVersion != WorkshopContentFilter.getGlobalRules().getVersion()) {
+            return false;
+        }
+        File rootDir = root.toFile();
+        if (rootDir.lastModified() != rootLastModified) {
+            return false;
+        }
+        Map<String, Set<String>> children = null;
+        if (isRacy(rootLastModified)) {
+            children = childrenByDirectory();
+            if (!sameListing(rootDir, children.get(""))) {
+                return false;
+            }
+        }
+        for (ContentEntry entry : entries) {
+            boolean check = entry.isDirectory() ? entry.isIncluded() : isIgnoreFile(entry);
+            if (!check) {
+                continue;
+            }
+            File file = new File(rootDir, entry.getRelativePath());
+            if (file.lastModified() != entry.getLastModified()) {
+                return false;
+            }
+            if (!isRacy(entry.getLastModified())) {
+                continue;
+            }
+            if (!entry.isDirectory()) {
+                if (file.length() != entry.getSize()) {
+                    return false;
+                }
+                continue;
+            }
+            if (children == null) {
+                children = childrenByDirectory();
+            }
+            if (!sameListing(file, children.get(entry.getRelativePath()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // An mtime this close to the scan could hide a change made after it
+    private boolean isRacy(long lastModified) {
+        return lastModified >= scanStartedAt - RACY_MILLIS;
+    }
+
+    // Names of the scanned entries of each directory, "" for the root
+    private Map<String, Set<String>> childrenByDirectory() {
+        Map<String, Set<String>> children = new HashMap<>();
+        for (ContentEntry entry : entries) {
+            String path = entry.getRelativePath();
+            int slash = path.lastIndexOf('/');
+            String parent = slash < 0 ? "" : path.substring(0, slash);
+            children.computeIfAbsent(parent, p -> new HashSet<>()).add(path.substring(slash + 1));
+        }
+        return children;
+    }
+
+    private static boolean sameListing(File dir, Set<String> expected) {
+        String[] names = dir.list();
+        if (names == null) {
+            return false;
+        }
+        if (expected == null) {
+            return names.length == 0;
+        }
+        if (names.length != expected.size()) {
+            return false;
+        }
+        for (String name : names) {
+            if (!expected.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIgnoreFile(ContentEntry entry) {
+        String path = entry.getRelativePath();
+        return path.endsWith(WorkshopContentFilter.IGNORE_FILE_NAME) &&
+            (path.length() == WorkshopContentFilter.IGNORE_FILE_NAME.length() ||
+             path.charAt(path.length() - WorkshopContentFilter.IGNORE_FILE_NAME.length() - 1) == '/');
+    }
+
+    /**
+     * @return The Contents folder this manifest describes
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return All scanned entries sorted by path, excluded ones included (see {@link ContentEntry#isIncluded()})
+     */
+    public List<ContentEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return Relative paths of the files that will be uploaded, sorted
+     */
+    public ArrayList<String> getIncludedFilePaths() {
+        return getIncludedFiles(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return Number of files that will be uploaded
+     */
+    public int getIncludedFileCount() {
+        return includedFiles().paths.length;
+    }
+
+    /**
+     * Gets one page of the sorted list of files that will be uploaded.
+     *
+     * @param offset Index of the first file
+     * @param limit Maximum number of files to return
+     * @return Relative file paths, empty if offset is past the end
+     */
+    public ArrayList<String> getIncludedFiles(int offset, int limit) {
+        return page(includedFiles().paths, offset, limit);
+    }
+
+    /**
+     * Gets the categories of one page of files, parallel to {@link #getIncludedFiles(int, int)}.
+     *
+     * @param offset Index of the first file
+     * @param limit Maximum number of files to return
+     * @return Category names ({@link FileCategory#name()})
+     */
+    public ArrayList<String> getIncludedFileCategories(int offset, int limit) {
+        return page(includedFiles().categories, offset, limit);
+    }
+
+    /**
+     * Gets the sizes of one page of files, parallel to {@link #getIncludedFiles(int, int)}.
+     *
+     * @param offset Index of the first file
+     * @param limit Maximum number of files to return
+     * @return Formatted sizes, e.g. "1.2 MB"
+     */
+    public ArrayList<String> getIncludedFileSizes(int offset, int limit) {
+        long[] sizes = includedFiles().sizes;
+        int from = Math.max(0, Math.min(offset, sizes.length));
+        int to = (int) Math.min((long) from + Math.max(0, limit), sizes.length);
+        ArrayList<String> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(FileStager.formatBytes(sizes[i]));
+        }
+        return page;
+    }
+
+    /**
+     * @return Size analysis of the upload, computed on first use
+     */
+    public SizeAnalysis getSizeAnalysis() {
+        SizeAnalysis analysis = sizeAnalysis;
+        if (analysis == null) {
+            analysis = SizeAnalysis.of(this, SizeAnalysis.DEFAULT_TOP_N);
+            sizeAnalysis = analysis;
+        }
+        return analysis;
+    }
+
+    /**
+     * @param category A file category
+     * @return Number of uploaded files in that category
+     */
+    public int getCategoryCount(FileCategory category) {
+        return categoryCounts[category.ordinal()];
+    }
+
+    /**
+     * @param category A file category
+     * @return Total size in bytes of uploaded files in that category
+     */
+    public long getCategoryBytes(FileCategory category) {
+        return categoryBytes[category.ordinal()];
+    }
+
+    /**
+     * @return Summary of uploaded files by category, e.g. "312 Lua, 1.2k images, 3 executables"
+     */
+    public String getCategorySummary() {
+        StringBuilder sb = new StringBuilder();
+        for (FileCategory category : FileCategory.values()) {
+            int count = categoryCounts[category.ordinal()];
+            if (count == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(formatCount(count)).append(' ').append(category.label(count));
+        }
+        return sb.length() == 0 ? "no files" : sb.toString();
+    }
+
+    static String formatCount(int count) {
+        if (count < 1000) {
+            return Integer.toString(count);
+        }
+        if (count < 1000000) {
+            return String.format(Locale.ROOT, "%.1fk", count / 1000.0);
+        }
+        return String.format(Locale.ROOT, "%.1fM", count / 1000000.0);
+    }
+
+    private static ArrayList<String> page(String[] values, int offset, int limit) {
+        int from = Math.max(0, Math.min(offset, values.length));
+        int to = (int) Math.min((long) from + Math.max(0, limit), values.length);
+        ArrayList<String> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(values[i]);
+        }
+        return page;
+    }
+
+    private IncludedFiles includedFiles() {
+        IncludedFiles files = includedFiles;
+        if (files == null) {
+            List<ContentEntry> included = new ArrayList<>();
+            for (ContentEntry entry : entries) {
+                if (entry.isIncluded() && !entry.isDirectory()) {
+                    included.add(entry);
+                }
+            }
+            files = new IncludedFiles(included);
+            includedFiles = files;
+        }
+        return files;
+    }
+
+    public ContentScanner.ScanStats getStats() {
+        return stats;
+    }
+
+    public long getRulesVersion() {
+        return rulesVersion;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    // Sorted paths of the uploaded files, their category names and sizes, served to the preview in pages
+    private static final class IncludedFiles {
+        final String[] paths;
+        final String[] categories;
+        final long[] sizes;
+
+        IncludedFiles(List<ContentEntry> entries) {
+            paths = new String[entries.size()];
+            categories = new String[entries.size()];
+            sizes = new long[entries.size()];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = entries.get(i).getRelativePath();
+                categories[i] = entries.get(i).getCategory().name();
+                sizes[i] = entries.get(i).getSize();
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Walks a Contents tree with {@link Files#walkFileTree}, reading {@link BasicFileAttributes} once per entry
+ * and handing them to both the filter and the visitor, so no entry is stat'ed more than once.
+ * Carries the ignore-frame stack: a frame is pushed in preVisitDirectory and popped in postVisitDirectory,
+ * and excluded directories are skipped with SKIP_SUBTREE.
+ */
+public final class ContentScanner {
+
+    /**
+     * Receives accepted entries. Paths are relative to the scan root and normalized with "/".
+     */
+    public interface Visitor {
+        /** Called for each accepted directory before its contents. Not called for the root. */
+        void directory(Path dir, String relativePath, BasicFileAttributes attrs) throws IOException;
+
+        /** Called for each accepted regular file (or other non-directory entry). */
+        void file(Path file, String relativePath, BasicFileAttributes attrs) throws IOException;
+
+        /** Called for each excluded entry; excluded directories are not descended into. */
+        default void excluded(Path path, String relativePath, BasicFileAttributes attrs) {
+        }
+    }
+
+    private ContentScanner() {
+    }
+
+    /**
+     * Scans a tree and collects every entry, using the parallel scanner when more than one
+     * scan thread is configured.
+     *
+     * @param root The root folder
+     * @param filtered Whether to apply exclusion rules
+     * @return All entries (including excluded ones, flagged), sorted by path, and scan statistics
+     * @throws IOException If the tree cannot be walked
+     */
+    public static ScanResult collect(Path root, boolean filtered) throws IOException {
+        int parallelism = WorkshopContentFilter.getScanParallelism();
+        if (parallelism > 1) {
+            return ParallelContentScanner.scan(root, filtered, parallelism);
+        }
+
+        List<ContentEntry> entries = new ArrayList<>();
+        ScanStats stats = scan(root, filtered, new Visitor() {
+            @Override
+            public void directory(Path dir, String relativePath, BasicFileAttributes attrs) {
+                entries.add(ContentEntry.of(relativePath, attrs, true));
+            }
+
+            @Override
+            public void file(Path file, String relativePath, BasicFileAttributes attrs) {
+                entries.add(ContentEntry.of(relativePath, attrs, true));
+            }
+
+            @Override
+            public void excluded(Path path, String relativePath, BasicFileAttributes attrs) {
+                entries.add(ContentEntry.of(relativePath, attrs, false));
+            }
+        });
+        entries.sort(ContentEntry.BY_PATH);
+        return new ScanResult(entries, stats);
+    }
+
+    /**
+     * Scans a tree, applying the global rules and .workshopignore files found below the root.
+     *
+     * @param root The Contents folder
+     * @param visitor Receives accepted and excluded entries
+     * @return Scan statistics
+     * @throws IOException If the visitor fails
+     */
+    public static ScanStats scan(Path root, Visitor visitor) throws IOException {
+        return scan(root, true, visitor);
+    }
+
+    /**
+     * Scans a tree.
+     *
+     * @param root The root folder
+     * @param filtered Whether to apply exclusion rules (false visits everything)
+     * @param visitor Receives accepted and excluded entries
+     * @return Scan statistics
+     * @throws IOException If the visitor fails
+     */
+    public static ScanStats scan(Path root, boolean filtered, Visitor visitor) throws IOException {
+        ScanStats stats = new ScanStats();
+        UploadEvents.ContentScan event = UploadEvents.beginContentScan();
+        long ignoreStatsBefore = WorkshopContentFilter.getIgnoreFileStatCount();
+        IgnoreFileCache.ReadStats ignoreReadsBefore = WorkshopContentFilter.getIgnoreFileReadStats();
+        long startNanos = System.nanoTime();
+
+        Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new FileVisitor<Path>() {
+            private final Deque<IgnoreFrame> frames = new ArrayDeque<>();
+            private final Deque<String> relativePaths = new ArrayDeque<>();
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                stats.statCalls++;
+                if (relativePaths.isEmpty()) {
+                    // scan root
+                    relativePaths.push("");
+                    if (filtered) {
+                        frames.push(WorkshopContentFilter.rootFrame(dir.toFile()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                String name = dir.getFileName().toString();
+                String relativePath = childPath(relativePaths.peek(), name);
+                if (filtered && isExcluded(frames.peek(), relativePath, name, true)) {
+                    stats.excluded++;
+                    visitor.excluded(dir, relativePath, attrs);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                stats.directories++;
+                visitor.directory(dir, relativePath, attrs);
+                relativePaths.push(relativePath);
+                if (filtered) {
+                    frames.push(frames.peek().enter(dir.toFile(), relativePath));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                stats.statCalls++;
+                String name = file.getFileName().toString();
+                String relativePath = childPath(relativePaths.peek(), name);
+                if (filtered && isExcluded(frames.peek(), relativePath, name, attrs.isDirectory())) {
+                    stats.excluded++;
+                    visitor.excluded(file, relativePath, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                stats.files++;
+                stats.bytes += attrs.size();
+                visitor.file(file, relativePath, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                stats.statCalls++;
+                stats.errors++;
+                if (exc instanceof FileSystemLoopException) {
+                    System.err.println("[ZBetterWorkshopUpload] Skipping symlink loop: " + file);
+                } else {
+                    System.err.println("[ZBetterWorkshopUpload] Cannot read " + file + ": " + exc);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                if (exc != null) {
+                    stats.errors++;
+                    System.err.println("[ZBetterWorkshopUpload] Cannot list " + dir + ": " + exc);
+                }
+                relativePaths.pop();
+                if (filtered) {
+                    frames.pop();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private boolean isExcluded(IgnoreFrame frame, String relativePath, String name, boolean isDir) {
+                long ruleStart = System.nanoTime();
+                boolean excluded = frame.isExcluded(relativePath, name, isDir);
+                stats.ruleNanos += System.nanoTime() - ruleStart;
+                stats.ruleChecks++;
+                return excluded;
+            }
+        });
+
+        stats.statCalls += WorkshopContentFilter.getIgnoreFileStatCount() - ignoreStatsBefore;
+        stats.setIgnoreReads(WorkshopContentFilter.getIgnoreFileReadStats().since(ignoreReadsBefore));
+        stats.nanos = System.nanoTime() - startNanos;
+        stats.commit(event, root, filtered, 1);
+        return stats;
+    }
+
+    private static String childPath(String parentPath, String name) {
+        return parentPath.isEmpty() ? name : parentPath + "/" + name;
+    }
+
+    /**
+     * Counters for one scan.
+     */
+    public static final class ScanStats {
+        public int files;
+        public int directories;
+        public int excluded;
+        public int errors;
+        public long bytes;
+        public long statCalls; // attribute reads of entries + stat calls for .workshopignore lookups
+        public long nanos;
+        public long ruleChecks; // entries matched against the rules
+        public long ruleNanos; // time spent matching, summed over threads
+        public long ignoreReads; // .workshopignore files read and compiled (not served from the cache)
+        public long ignoreReadBytes;
+        public long ignoreReadNanos;
+
+        public int getEntryCount() {
+            return files + directories + excluded;
+        }
+
+        void add(ScanStats other) {
+            files += other.files;
+            directories += other.directories;
+            excluded += other.excluded;
+            errors += other.errors;
+            bytes += other.bytes;
+            statCalls += other.statCalls;
+            ruleChecks += other.ruleChecks;
+            ruleNanos += other.ruleNanos;
+        }
+
+        void setIgnoreReads(IgnoreFileCache.ReadStats reads) {
+            ignoreReads = reads.reads;
+            ignoreReadBytes = reads.bytes;
+            ignoreReadNanos = reads.nanos;
+        }
+
+        // Fills in and commits the flight recorder event of the scan, if it is being recorded
+        void commit(UploadEvents.ContentScan event, Path root, boolean filtered, int threads) {
+            if (event == null) {
+                return;
+            }
+            event.root = root.toString();
+            event.filtered = filtered;
+            event.threads = threads;
+            event.files = files;
+            event.directories = directories;
+            event.excluded = excluded;
+            event.bytes = bytes;
+            event.ignoreReads = ignoreReads;
+            event.commit();
+        }
+
+        @Override
+        public String toString() {
+            int entries = Math.max(1, getEntryCount());
+            return String.format("%d files, %d dirs, %d excluded, %d bytes in %.1f ms; %d stat calls (%.2f per entry)",
+                files, directories, excluded, bytes, nanos / 1e6, statCalls, (double) statCalls / entries);
+        }
+    }
+
+    /**
+     * Entries collected by a scan, sorted by path, plus the scan statistics.
+     */
+    public static final class ScanResult {
+        private final List<ContentEntry> entries;
+        private final ScanStats stats;
+
+        ScanResult(List<ContentEntry> entries, ScanStats stats) {
+            this.entries = entries;
+            this.stats = stats;
+        }
+
+        /**
+         * @return All scanned entries, excluded ones included (see {@link ContentEntry#isIncluded()})
+         */
+        public List<ContentEntry> getEntries() {
+            return entries;
+        }
+
+        public ScanStats getStats() {
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds files with identical content among the files that will be uploaded, e.g. the same textures
+ * shipped under common/, 42/ and 42.13/. Files are grouped by size first and only files sharing a
+ * size with another file are hashed, so most of the tree is never read. Hashes still valid in the
+ * item's {@link ContentHashIndex} are reused.
+ *
+ * Sizes and mtimes are read again before hashing rather than taken from the manifest, so files
+ * edited since the scan are never reported (or linked) as duplicates of their old content.
+ */
+public final class DuplicateAnalysis {
+    private final List<Group> groups;
+    private final int hashedFiles;
+    private final long hashedBytes;
+    private final long nanos;
+
+    private DuplicateAnalysis(List<Group> groups, int hashedFiles, long hashedBytes, long nanos) {
+        this.groups = Collections.unmodifiableList(groups);
+        this.hashedFiles = hashedFiles;
+        this.hashedBytes = hashedBytes;
+        this.nanos = nanos;
+    }
+
+    /**
+     * Finds duplicate files among the included files of a manifest.
+     *
+     * @param manifest The manifest of a Contents folder
+     * @param index Hash index of the item (keys prefixed with "Contents/"), or null
+     * @return The analysis
+     * @throws IOException If a candidate file cannot be read
+     */
+    public static DuplicateAnalysis of(ContentManifest manifest, ContentHashIndex index) throws IOException {
+        long start = System.nanoTime();
+        Map<Long, List<String>> bySize = new HashMap<>();
+        for (ContentEntry entry : manifest.getEntries()) {
+            if (entry.isIncluded() && !entry.isDirectory() && entry.getSize() > 0) {
+                bySize.computeIfAbsent(entry.getSize(), k -> new ArrayList<>(1)).add(entry.getRelativePath());
+            }
+        }
+        List<String> candidates = new ArrayList<>();
+        for (List<String> paths : bySize.values()) {
+            if (paths.size() > 1) {
+                candidates.addAll(paths);
+            }
+        }
+
+        // path -> "size:sha256" of the current content
+        Map<String, String> keys = Collections.synchronizedMap(new HashMap<>());
+        long[] hashed = new long[2];
+        try {
+            candidates.parallelStream().forEach(path -> {
+                Path file = manifest.getRoot().resolve(path);
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    long mtime = attrs.lastModifiedTime().toMillis();
+                    String hash = index == null ? null : index.getHash("Contents/" + path, attrs.size(), mtime);
+                    if (hash == null) {
+                        hash = ContentHashIndex.sha256(file);
+                        synchronized (hashed) {
+                            hashed[0]++;
+                            hashed[1] += attrs.size();
+                        }
+                    }
+                    keys.put(path, attrs.size() + ":" + hash);
+                } catch (NoSuchFileException e) {
+                    // deleted since the scan
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Map<String, List<String>> byContent = new TreeMap<>();
+        for (String path : candidates) {
+            String key = keys.get(path);
+            if (key != null) {
+                byContent.computeIfAbsent(key, k -> new ArrayList<>()).add(path);
+            }
+        }
+        List<Group> groups = new ArrayList<>();
+        for (Map.Entry<String, List<String>> e : byContent.entrySet()) {
+            List<String> paths = e.getValue();
+            if (paths.size() > 1) {
+                Collections.sort(paths);
+                int colon = e.getKey().indexOf(':');
+                groups.add(new Group(Long.parseLong(e.getKey().substring(0, colon)), e.getKey().substring(colon + 1), paths));
+            }
+        }
+        groups.sort((a, b) -> {
+            int c = Long.compare(b.getWastedBytes(), a.getWastedBytes());
+            return c != 0 ? c : a.paths.get(0).compareTo(b.paths.get(0));
+        });
+        return new DuplicateAnalysis(groups, (int) hashed[0], hashed[1], System.nanoTime() - start);
+    }
+
+    /**
+     * @return Duplicate groups, most wasted bytes first
+     */
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return Bytes that could be saved by keeping one file per group
+     */
+    public long getWastedBytes() {
+        long wasted = 0;
+        for (Group group : groups) {
+            wasted += group.getWastedBytes();
+        }
+        return wasted;
+    }
+
+    /**
+     * Maps every duplicate except the first of its group to the first one, for staging the
+     * duplicates as links to one copy.
+     *
+     * @return Relative path of a duplicate -> relative path of the file it duplicates
+     */
+    public Map<String, String> getLinkTargets() {
+        Map<String, String> targets = new LinkedHashMap<>();
+        for (Group group : groups) {
+            for (int i = 1; i < group.paths.size(); i++) {
+                targets.put(group.paths.get(i), group.paths.get(0));
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * @param limit Maximum number of groups to list
+     * @return Report lines for the submit screen
+     */
+    public List<String> getReport(int limit) {
+        List<String> lines = new ArrayList<>();
+        lines.add("Duplicates: " + groups.size() + " groups, " + FileStager.formatBytes(getWastedBytes()) + " could be saved");
+        for (int i = 0; i < groups.size() && i < limit; i++) {
+            Group group = groups.get(i);
+            lines.add("  " + group.paths.size() + " x " + FileStager.formatBytes(group.size) + ":");
+            for (String path : group.paths) {
+                lines.add("      " + path);
+            }
+        }
+        if (groups.size() > limit) {
+            lines.add("  ... " + (groups.size() - limit) + " more groups");
+        }
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d duplicate groups, %s wasted; hashed %d files (%s) in %.1f ms",
+            groups.size(), FileStager.formatBytes(getWastedBytes()), hashedFiles, FileStager.formatBytes(hashedBytes), nanos / 1e6);
+    }
+
+    /**
+     * Files with the same size and SHA-256.
+     */
+    public static final class Group {
+        public final long size;
+        public final String hash;
+        public final List<String> paths;
+
+        Group(long size, String hash, List<String> paths) {
+            this.size = size;
+            this.hash = hash;
+            this.paths = Collections.unmodifiableList(paths);
+        }
+
+        /**
+         * @return Bytes taken by all copies but one
+         */
+        public long getWastedBytes() {
+            return size * (paths.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Kind of a Contents file, decided by its extension. This is the single classification table:
+ * the preview colors rows and builds its summary from it.
+ */
+public enum FileCategory {
+    IMAGE("image", "images", "png", "jpg", "gif"),
+    TEXT("text file", "text files", "txt", "md", "info", "json"),
+    LUA("Lua", "Lua", "lua"),
+    JAVA("Java", "Java", "java", "gradle", "properties"),
+    JAR("jar", "jars", "jar", "zbs"),
+    EXE("executable", "executables", "exe", "dll", "dylib", "so", "bat", "cmd", "sh", "ps1"),
+    OTHER("other", "other");
+
+    private static final Map<String, FileCategory> BY_EXTENSION = new HashMap<>();
+    private static final Map<String, FileCategory> BY_NAME = new HashMap<>();
+
+    static {
+        for (FileCategory category : values()) {
+            for (String ext : category.extensions) {
+                BY_EXTENSION.put(ext, category);
+            }
+        }
+        BY_NAME.put("license", TEXT);
+    }
+
+    private final String singular;
+    private final String plural;
+    private final String[] extensions;
+
+    FileCategory(String singular, String plural, String... extensions) {
+        this.singular = singular;
+        this.plural = plural;
+        this.extensions = extensions;
+    }
+
+    /**
+     * Classifies a file by its name.
+     *
+     * @param path File name or path (normalized with "/")
+     * @return The category, OTHER if the extension is unknown
+     */
+    public static FileCategory of(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        FileCategory byName = BY_NAME.get(name.toLowerCase(Locale.ROOT));
+        if (byName != null) {
+            return byName;
+        }
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot == name.length() - 1) {
+            return OTHER;
+        }
+        FileCategory category = BY_EXTENSION.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return category == null ? OTHER : category;
+    }
+
+    /**
+     * @param count Number of files
+     * @return Label for the summary line, e.g. "images" or "Lua"
+     */
+    public String label(int count) {
+        return count == 1 ? singular : plural;
+    }
+}
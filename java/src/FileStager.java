@@ -0,0 +1,207 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Places files into a staging tree using the first {@link StagingBackend} that works.
+ * A backend that fails once is skipped for the rest of the session (one staging run),
+ * so an unsupported filesystem costs one failed attempt, not one per file.
+ * The last backend's failures are real errors and are thrown. Files under a backend's
+ * {@link StagingBackend#getMinimumSize() minimum size} go to the next backend without an attempt.
+ * Safe to use from several staging threads at once.
+ */
+public final class FileStager {
+    public static final String MODE_AUTO = "auto";
+    public static final String MODE_CLONE = "clone";
+    public static final String MODE_COPY = "copy";
+
+    // Directory next to the Workshop folder that holds staging trees
+    public static final String STAGING_DIR_NAME = "zb_workshop_staging";
+
+    private final List<StagingBackend> backends;
+    private final AtomicIntegerArray disabled;
+    private final AtomicIntegerArray fileCounts;
+    private final AtomicIntegerArray tooSmallCounts;
+    private final AtomicLongArray byteCounts;
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    /**
+     * @param backends Backends in order of preference
+     */
+    public FileStager(List<StagingBackend> backends) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("no staging backends");
+        }
+        this.backends = Collections.unmodifiableList(new ArrayList<>(backends));
+        this.disabled = new AtomicIntegerArray(backends.size());
+        this.fileCounts = new AtomicIntegerArray(backends.size());
+        this.tooSmallCounts = new AtomicIntegerArray(backends.size());
+        this.byteCounts = new AtomicLongArray(backends.size());
+    }
+
+    /**
+     * Creates a stager for a staging mode.
+     *
+     * @param mode {@link #MODE_AUTO} (hardlink, clone, copy), {@link #MODE_CLONE} (clone, copy) or {@link #MODE_COPY}
+     * @return A new stager
+     */
+    public static FileStager forMode(String mode) {
+        return new FileStager(backendsFor(mode));
+    }
+
+    static List<StagingBackend> backendsFor(String mode) {
+        if (MODE_COPY.equalsIgnoreCase(mode)) {
+            return Collections.singletonList(StagingBackend.COPY);
+        }
+        if (MODE_CLONE.equalsIgnoreCase(mode)) {
+            return Arrays.asList(StagingBackend.CLONE, StagingBackend.COPY);
+        }
+        return Arrays.asList(StagingBackend.HARD_LINK, StagingBackend.CLONE, StagingBackend.COPY);
+    }
+
+    /**
+     * Stages one file.
+     *
+     * @param source The source file
+     * @param dest The staged file (must not exist, its parent must)
+     * @param size Size of the source file, for the statistics
+     * @return The backend that staged the file
+     * @throws IOException If no backend could stage the file
+     */
+    public StagingBackend stage(Path source, Path dest, long size) throws IOException {
+        int last = backends.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            if (i < last && disabled.get(i) != 0) {
+                continue;
+            }
+            StagingBackend backend = backends.get(i);
+            if (i < last && size < backend.getMinimumSize()) {
+                tooSmallCounts.incrementAndGet(i);
+                continue;
+            }
+            try {
+                backend.stage(source, dest);
+            } catch (IOException | UnsupportedOperationException e) {
+                if (i == last) {
+                    throw e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                Files.deleteIfExists(dest);
+                if (disabled.compareAndSet(i, 0, 1)) {
+                    System.out.println("[ZBetterWorkshopUpload] Staging with " + backend.getName() + " failed (" + e + "), falling back to " + backends.get(i + 1).getName());
+                }
+                continue;
+            }
+            fileCounts.incrementAndGet(i);
+            byteCounts.addAndGet(i, size);
+            if (backend.writesData()) {
+                bytesWritten.addAndGet(size);
+            }
+            return backend;
+        }
+        throw new IllegalStateException("unreachable");
+    }
+
+    /**
+     * @return Bytes actually written to disk (data shared via links or clones is not counted)
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @param backend One of this stager's backends
+     * @return Number of files staged with it
+     */
+    public int getFileCount(StagingBackend backend) {
+        int index = backends.indexOf(backend);
+        return index < 0 ? 0 : fileCounts.get(index);
+    }
+
+    /**
+     * @param backend One of this stager's backends
+     * @return Number of files passed on to the next backend for being under its minimum size
+     */
+    public int getTooSmallCount(StagingBackend backend) {
+        int index = backends.indexOf(backend);
+        return index < 0 ? 0 : tooSmallCounts.get(index);
+    }
+
+    /**
+     * @return Summary for the log, e.g. "hardlink: 1200 files (1.3 GB); 0 B written", or
+     *         "clone: 3 files (40.0 MB), copy: 1200 files (5.2 MB); 1200 files under 1.0 MB not staged with clone; 5.2 MB written"
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < backends.size(); i++) {
+            if (fileCounts.get(i) == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(backends.get(i).getName()).append(": ").append(fileCounts.get(i)).append(" files (").append(formatBytes(byteCounts.get(i))).append(')');
+        }
+        if (sb.length() == 0) {
+            sb.append("no files");
+        }
+        for (int i = 0; i < backends.size(); i++) {
+            if (tooSmallCounts.get(i) != 0) {
+                sb.append("; ").append(tooSmallCounts.get(i)).append(" files under ").append(formatBytes(backends.get(i).getMinimumSize()))
+                    .append(" not staged with ").append(backends.get(i).getName());
+            }
+        }
+        return sb.append("; ").append(formatBytes(bytesWritten.get())).append(" written").toString();
+    }
+
+    /**
+     * Picks the directory to create staging trees in: next to the Workshop folder if it is on the
+     * same filesystem as the item's Contents (so hard links and clones work), else the system temp dir.
+     *
+     * @param sourceWorkshopDir The workshop item folder (e.g. ~/Zomboid/Workshop/MyMod)
+     * @return The staging root (may not exist yet)
+     */
+    public static Path chooseStagingRoot(Path sourceWorkshopDir) {
+        Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
+        Path workshopDir = sourceWorkshopDir.toAbsolutePath().getParent();
+        Path zomboidDir = workshopDir == null ? null : workshopDir.getParent();
+        if (zomboidDir == null) {
+            return tempDir;
+        }
+        try {
+            Path contents = sourceWorkshopDir.resolve("Contents");
+            FileStore sourceStore = Files.getFileStore(Files.exists(contents) ? contents.toRealPath() : sourceWorkshopDir);
+            if (sourceStore.equals(Files.getFileStore(zomboidDir))) {
+                return zomboidDir.resolve(STAGING_DIR_NAME);
+            }
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Cannot compare filesystems for staging: " + e.getMessage());
+        }
+        return tempDir;
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String units = "KMGT";
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length() - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.1f %sB", value, units.charAt(unit));
+    }
+}
@@ -0,0 +1,48 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Rewrites or drops files of a Contents folder while they are staged. Transformers are chosen by
+ * glob (see {@link FileTransforms#add}) and only ever see the source through a stream, so the
+ * output is produced in one pass while the staged file is written. Sources are never modified.
+ * Implementations must be thread-safe: files are staged on a worker pool.
+ */
+public interface FileTransformer {
+
+    /**
+     * @return Name for logs and the output cache, e.g. "text"; must also identify any settings
+     *         that change the output, so that cached outputs of other settings are not reused
+     */
+    String getCacheKey();
+
+    /**
+     * @return false if this transformer only drops files and passes the others through unchanged
+     */
+    default boolean rewritesContent() {
+        return true;
+    }
+
+    /**
+     * Decides whether a matching file is left out of the upload entirely.
+     *
+     * @param contentsRoot The source Contents folder
+     * @param relativePath Path of the file relative to Contents (normalized with "/")
+     * @return true to leave the file out
+     */
+    default boolean isDropped(Path contentsRoot, String relativePath) {
+        return false;
+    }
+
+    /**
+     * Writes the transformed content of a file. Must produce the same output for the same input.
+     *
+     * @param in The source content (buffered; need not be read to the end)
+     * @param out Receives the staged content (buffered; closed by the caller)
+     * @throws IOException If reading or writing fails
+     */
+    void transform(InputStream in, OutputStream out) throws IOException;
+}
@@ -0,0 +1,214 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The file transformers that apply to one staging run, each with the globs it is chosen by
+ * (same syntax as .workshopignore, matched against paths relative to Contents; the first
+ * matching transformer wins).
+ * <p>
+ * Outputs are cached by the SHA-256 of the input: a transformed file is streamed from the source
+ * through the transformer into the cache, hashing the input on the way, and the cached output is
+ * then staged with the regular backends (a hard link where possible). When the item's hash index
+ * already knows the input's hash, an existing cached output is staged without reading the source.
+ * Keep the cache on the staging filesystem so that staging an output never copies it.
+ * <p>
+ * Outputs are not streamed straight into the staged file: writing them to the cache first costs
+ * one write per transformed file, and in return an unchanged input is staged from the cache
+ * (as a hard link) on every later upload without being read or transformed again. Entries are
+ * not refreshed when used, since they are linked into staging folders, so the startup sweep
+ * deletes them {@link StagingCleaner#CACHE_MAX_AGE_MILLIS} after they were written.
+ */
+public final class FileTransforms {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path cacheDir;
+    private final ContentHashIndex index;
+    private final List<Rule> rules = new ArrayList<>();
+    private final AtomicInteger transformed = new AtomicInteger();
+    private final AtomicInteger cached = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * @param cacheDir Folder for cached outputs (created on first use)
+     * @param index Hash index of the item being staged, for cache hits without reading the source; may be null
+     */
+    public FileTransforms(Path cacheDir, ContentHashIndex index) {
+        this.cacheDir = cacheDir;
+        this.index = index;
+    }
+
+    /**
+     * Registers a transformer. Not thread-safe: add all transformers before staging.
+     *
+     * @param transformer The transformer
+     * @param globs Patterns of the files it applies to, e.g. "*.lua"
+     * @return this
+     */
+    public FileTransforms add(FileTransformer transformer, String... globs) {
+        rules.add(new Rule(FilterRuleSet.compile(Arrays.asList(globs)), transformer));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * @param relativePath Path of a file relative to Contents
+     * @return The transformer that rewrites the file, or null to stage it as is
+     */
+    public FileTransformer find(String relativePath) {
+        for (Rule rule : rules) {
+            if (rule.transformer.rewritesContent() && rule.globs.matches(relativePath)) {
+                return rule.transformer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param contentsRoot The source Contents folder
+     * @param relativePath Path of a file relative to Contents
+     * @return true if a matching transformer leaves the file out of the upload
+     */
+    public boolean isDropped(Path contentsRoot, String relativePath) {
+        for (Rule rule : rules) {
+            if (rule.globs.matches(relativePath) && rule.transformer.isDropped(contentsRoot, relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts a file left out of the staging folder because {@link #isDropped} returned true.
+     * Called where the file is skipped, once per file.
+     */
+    public void countDropped() {
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Stages the transformed content of a file.
+     *
+     * @param transformer The transformer (see {@link #find})
+     * @param relativePath Path of the file relative to Contents
+     * @param source The source file
+     * @param dest The staged file (must not exist, its parent must)
+     * @param stager Places the cached output at dest
+     * @return The backend that staged the output
+     * @throws IOException If the source cannot be read or the output cannot be written or staged
+     */
+    public StagingBackend stage(FileTransformer transformer, String relativePath, Path source, Path dest, FileStager stager) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        String hash = index == null ? null : index.getHash("Contents/" + relativePath, attrs.size(), attrs.lastModifiedTime().toMillis());
+        Path output = hash == null ? null : cacheFile(hash, transformer);
+        if (output != null && Files.isRegularFile(output)) {
+            cached.incrementAndGet();
+        } else {
+            output = transform(transformer, source);
+            transformed.incrementAndGet();
+        }
+        long size = Files.size(output);
+        bytesIn.addAndGet(attrs.size());
+        bytesOut.addAndGet(size);
+        return stager.stage(output, dest, size);
+    }
+
+    // One pass over the source: hashed on the way into the transformer, output written to the cache
+    private Path transform(FileTransformer transformer, Path source) throws IOException {
+        Files.createDirectories(cacheDir);
+        Path tmp = Files.createTempFile(cacheDir, "transform", ".zbtmp");
+        try {
+            MessageDigest digest = ContentHashIndex.newDigest();
+            try (InputStream in = new DigestInputStream(new BufferedInputStream(Files.newInputStream(source), BUFFER_SIZE), digest);
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE)) {
+                transformer.transform(in, out);
+                // the cache key covers the whole input, also what the transformer didn't read
+                byte[] rest = new byte[BUFFER_SIZE];
+                while (in.read(rest) >= 0) {
+                }
+            }
+            Path output = cacheFile(ContentHashIndex.toHex(digest.digest()), transformer);
+            try {
+                Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return output;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path cacheFile(String hash, FileTransformer transformer) {
+        return cacheDir.resolve(hash + "-" + transformer.getCacheKey().replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    public int getTransformedCount() {
+        return transformed.get();
+    }
+
+    public int getCachedCount() {
+        return cached.get();
+    }
+
+    public int getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return The transformers by cache key with their globs, in order, e.g. "text-v1 *.txt *.lua; java-sources *.java".
+     *         Transforms with the same description stage every file the same way.
+     */
+    public String getDescription() {
+        StringBuilder sb = new StringBuilder();
+        for (Rule rule : rules) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(rule.transformer.getCacheKey());
+            for (String glob : rule.globs.getPatterns()) {
+                sb.append(' ').append(glob);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return Summary for the log, e.g. "Transforms: 12 transformed, 300 from cache, 4 dropped (1.2 MB -> 1.1 MB)"
+     */
+    public String getSummary() {
+        return "Transforms: " + transformed.get() + " transformed, " + cached.get() + " from cache, " + dropped.get() + " dropped ("
+            + FileStager.formatBytes(bytesIn.get()) + " -> " + FileStager.formatBytes(bytesOut.get()) + ")";
+    }
+
+    private static final class Rule {
+        final FilterRuleSet globs;
+        final FileTransformer transformer;
+
+        Rule(FilterRuleSet globs, FileTransformer transformer) {
+            this.globs = globs;
+            this.transformer = transformer;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable, precompiled set of exclusion rules with gitignore semantics (see {@link IgnoreRule}).
+ * Every pattern is compiled exactly once into a {@link SegmentMatcher} when the set is built,
+ * so matching a path never compiles a regex. Instances are safe to share between threads without locking.
+ */
+public final class FilterRuleSet {
+    // Monotonic version counter, lets callers detect that the published rule set changed
+    private static final AtomicLong VERSION_COUNTER = new AtomicLong();
+
+    public static final FilterRuleSet EMPTY = new FilterRuleSet(Collections.emptyList());
+
+    private final List<IgnoreRule> rules;
+    private final SegmentMatcher matcher;
+    private final long version;
+
+    private FilterRuleSet(List<IgnoreRule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        this.matcher = this.rules.isEmpty() ? null : new SegmentMatcher(this.rules);
+        this.version = VERSION_COUNTER.incrementAndGet();
+    }
+
+    /**
+     * Compiles a list of patterns into a rule set. Blank lines and comments are skipped.
+     *
+     * @param patterns The patterns to compile, in precedence order (later patterns win)
+     * @return A new compiled rule set
+     */
+    public static FilterRuleSet compile(List<String> patterns) {
+        if (patterns == null || patterns.isEmpty()) {
+            return EMPTY;
+        }
+        List<IgnoreRule> parsed = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            IgnoreRule rule = IgnoreRule.parse(pattern);
+            if (rule != null) {
+                parsed.add(rule);
+            }
+        }
+        return parsed.isEmpty() ? EMPTY : new FilterRuleSet(parsed);
+    }
+
+    /**
+     * @return The source patterns, in the order they were compiled
+     */
+    public List<String> getPatterns() {
+        List<String> patterns = new ArrayList<>(rules.size());
+        for (IgnoreRule rule : rules) {
+            patterns.add(rule.source);
+        }
+        return patterns;
+    }
+
+    /**
+     * @return Version of this snapshot; a newer snapshot always has a greater version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * @return Number of compiled rules
+     */
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Returns a rule set with the rules of both sets, the other set taking precedence.
+     * Anchored rules of the other set are rebased onto dirPath.
+     *
+     * @param other Rules from the .workshopignore in dirPath
+     * @param dirPath Directory of that ignore file, relative to the Contents root ("" for the root)
+     * @return The combined rule set, or this set if the other one is empty
+     */
+    public FilterRuleSet extend(FilterRuleSet other, String dirPath) {
+        if (other == null || other.isEmpty()) {
+            return this;
+        }
+        List<IgnoreRule> combined = new ArrayList<>(rules.size() + other.rules.size());
+        combined.addAll(rules);
+        for (IgnoreRule rule : other.rules) {
+            combined.add(rule.rebase(dirPath));
+        }
+        return new FilterRuleSet(combined);
+    }
+
+    /**
+     * Decides a single entry, assuming its parent directories have already been accepted.
+     *
+     * @param relativePath Path relative to the Contents root (normalized with "/")
+     * @param name The entry's name (last path segment)
+     * @param isDir Whether the entry is a directory
+     * @return true if the last matching rule excludes the entry
+     */
+    public boolean isExcluded(String relativePath, String name, boolean isDir) {
+        if (matcher == null) {
+            return false;
+        }
+        int index = matcher.lastMatch(relativePath, name, isDir);
+        return index >= 0 && !matcher.getRule(index).negated;
+    }
+
+    /**
+     * Checks a path and all of its parent directories: the path is excluded if it or any parent
+     * directory is excluded. The last segment is treated as a file.
+     *
+     * @param filePath The full file path (normalized with "/")
+     * @return true if the path is excluded
+     */
+    public boolean matches(String filePath) {
+        if (matcher == null) {
+            return false;
+        }
+        int start = 0;
+        int slash;
+        while ((slash = filePath.indexOf('/', start)) >= 0) {
+            if (slash > start && isExcluded(filePath.substring(0, slash), filePath.substring(start, slash), true)) {
+                return true;
+            }
+            start = slash + 1;
+        }
+        return isExcluded(filePath, filePath.substring(start), false);
+    }
+
+    /**
+     * Compiles a single pattern and matches it against a path.
+     * Convenience for one-off checks; hot paths should use a compiled rule set.
+     */
+    static boolean matchesPattern(String filePath, String fileName, String pattern) {
+        return compile(Collections.singletonList(pattern)).matches(filePath);
+    }
+}
@@ -0,0 +1,242 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of compiled .workshopignore rules, keyed by directory.
+ * Every lookup re-stats the ignore file and compares its last-modified time and size with the
+ * cached entry, so edits made during a session are picked up without flushing the cache.
+ * Directories without an ignore file are cached too (as an empty rule set).
+ * <p>
+ * Each entry also keeps the rule set combining its directory's rules with the rules inherited
+ * from the parent directories (see {@link #extend}), so that checking many paths below the same
+ * directories compiles the combination once instead of once per path.
+ * <p>
+ * A file whose mtime is within {@link ContentManifest#RACY_MILLIS} of when it was read may have
+ * been edited again in the same filesystem clock tick, keeping both stamps. Such an entry is only
+ * trusted after its content is read again and found unchanged; once it is read well after its
+ * mtime, the stamps alone are trusted again.
+ */
+public final class IgnoreFileCache {
+    static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private final String fileName;
+    private final Map<String, Entry> entries;
+    private final AtomicLong statCount = new AtomicLong();
+    private final AtomicLong readCount = new AtomicLong();
+    private final AtomicLong readBytes = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+
+    // Stamp used for directories that have no ignore file
+    private static final long MISSING = -1;
+
+    /**
+     * @param fileName Name of the ignore file to look for in each directory
+     * @param maxEntries Maximum number of directories to remember
+     */
+    public IgnoreFileCache(String fileName, int maxEntries) {
+        this.fileName = fileName;
+        this.entries = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the compiled rules of the ignore file in a directory, re-reading it if it changed.
+     *
+     * @param directory The directory to check
+     * @return Compiled rules, or {@link FilterRuleSet#EMPTY} if there is no ignore file
+     */
+    public FilterRuleSet get(File directory) {
+        return lookup(directory).rules;
+    }
+
+    /**
+     * Gets the rules in effect in a directory: the rules inherited from its parents extended with
+     * the directory's own ignore file. The combination is cached with the directory's entry and
+     * reused while the inherited rule set (by {@link FilterRuleSet#getVersion()}) and the ignore
+     * file are unchanged.
+     *
+     * @param directory The directory
+     * @param inherited Rules in effect in the parent directory (or the global rules for the Contents root)
+     * @param relativePath The directory relative to the Contents root ("" for the root)
+     * @return The combined rule set, inherited itself if the directory has no ignore file
+     */
+    public FilterRuleSet extend(File directory, FilterRuleSet inherited, String relativePath) {
+        Entry entry = lookup(directory);
+        if (entry.rules.isEmpty()) {
+            return inherited;
+        }
+        Combined combined = entry.combined;
+        if (combined != null && combined.inheritedVersion == inherited.getVersion() && combined.relativePath.equals(relativePath)) {
+            return combined.rules;
+        }
+        FilterRuleSet rules = inherited.extend(entry.rules, relativePath);
+        entry.combined = new Combined(inherited.getVersion(), relativePath, rules);
+        return rules;
+    }
+
+    private Entry lookup(File directory) {
+        File ignoreFile = new File(directory, fileName);
+        // lastModified() is a single stat and returns 0 for a missing file; only stat again for size if it exists
+        long lastModified = ignoreFile.lastModified();
+        long length = lastModified == 0 ? MISSING : ignoreFile.length();
+        statCount.addAndGet(lastModified == 0 ? 1 : 2);
+
+        String key = directory.getPath();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        boolean sameStamp = entry != null && entry.lastModified == lastModified && entry.length == length;
+        if (sameStamp && !entry.isRacy()) {
+            return entry;
+        }
+
+        FilterRuleSet rules = FilterRuleSet.EMPTY;
+        List<String> lines = null;
+        long readAt = System.currentTimeMillis();
+        if (length != MISSING) {
+            UploadEvents.IgnoreFileRead event = UploadEvents.beginIgnoreFileRead();
+            long start = System.nanoTime();
+            lines = readPatterns(ignoreFile);
+            // a racy entry whose content is unchanged keeps its compiled rules
+            rules = sameStamp && lines.equals(entry.lines) ? entry.rules : FilterRuleSet.compile(lines);
+            readNanos.addAndGet(System.nanoTime() - start);
+            readCount.incrementAndGet();
+            readBytes.addAndGet(length);
+            if (event != null) {
+                event.path = ignoreFile.getPath();
+                event.bytes = length;
+                event.lines = lines.size();
+                event.rules = rules.size();
+                event.commit();
+            }
+        }
+        Entry updated = new Entry(lastModified, length, readAt, lines, rules);
+        if (sameStamp && rules == entry.rules) {
+            updated.combined = entry.combined;
+        }
+        synchronized (entries) {
+            entries.put(key, updated);
+        }
+        return updated;
+    }
+
+    /**
+     * @return Number of stat calls made on ignore files so far
+     */
+    public long getStatCount() {
+        return statCount.get();
+    }
+
+    /**
+     * @return Ignore files read and compiled so far (cache misses), with their bytes and time
+     */
+    public ReadStats getReadStats() {
+        return new ReadStats(readCount.get(), readBytes.get(), readNanos.get());
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Reads the raw lines of an ignore file. Blank lines and comments are dropped by {@link IgnoreRule#parse}.
+     *
+     * @param ignoreFile The ignore file
+     * @return List of lines found in ignore file
+     */
+    private static List<String> readPatterns(File ignoreFile) {
+        List<String> patterns = new ArrayList<>();
+        if (!ignoreFile.isFile()) {
+            return patterns;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(ignoreFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                patterns.add(line);
+            }
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Failed to read ignore file: " + ignoreFile.getAbsolutePath());
+            e.printStackTrace();
+        }
+        return patterns;
+    }
+
+    /**
+     * Cumulative counters of ignore file reads.
+     */
+    public static final class ReadStats {
+        public final long reads;
+        public final long bytes;
+        public final long nanos;
+
+        ReadStats(long reads, long bytes, long nanos) {
+            this.reads = reads;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @param earlier An earlier snapshot of the same cache
+         * @return The reads made since then
+         */
+        public ReadStats since(ReadStats earlier) {
+            return new ReadStats(reads - earlier.reads, bytes - earlier.bytes, nanos - earlier.nanos);
+        }
+    }
+
+    private static final class Entry {
+        final long lastModified;
+        final long length;
+        final long readAt;
+        final List<String> lines; // null if there is no ignore file
+        final FilterRuleSet rules;
+        volatile Combined combined; // last combination with inherited rules, see extend
+
+        Entry(long lastModified, long length, long readAt, List<String> lines, FilterRuleSet rules) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.readAt = readAt;
+            this.lines = lines;
+            this.rules = rules;
+        }
+
+        // An edit in the same clock tick as the read would not have changed the stamp
+        boolean isRacy() {
+            return length != MISSING && lastModified >= readAt - ContentManifest.RACY_MILLIS;
+        }
+    }
+
+    private static final class Combined {
+        final long inheritedVersion;
+        final String relativePath;
+        final FilterRuleSet rules;
+
+        Combined(long inheritedVersion, String relativePath, FilterRuleSet rules) {
+            this.inheritedVersion = inheritedVersion;
+            this.relativePath = relativePath;
+            this.rules = rules;
+        }
+    }
+}
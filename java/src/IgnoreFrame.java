@@ -0,0 +1,113 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.File;
+
+/**
+ * One frame of the ignore-rule stack carried through a directory traversal.
+ * A frame is pushed (via {@link #enter}) when the walker descends into a directory and is
+ * dropped when the walker returns from it, so every entry is checked only against the rules
+ * already in effect: the global patterns plus every .workshopignore between the Contents root
+ * and the entry's directory. Nothing above the Contents root is ever consulted.
+ *
+ * Frames are immutable and only link to their parent, so sibling subtrees can share them.
+ */
+public final class IgnoreFrame {
+    private final IgnoreFrame parent;
+    private final File dir;
+    private final String relativePath;
+    private final FilterRuleSet rules;
+
+    private IgnoreFrame(IgnoreFrame parent, File dir, String relativePath, FilterRuleSet rules) {
+        this.parent = parent;
+        this.dir = dir;
+        this.relativePath = relativePath;
+        this.rules = rules;
+    }
+
+    /**
+     * Creates the bottom frame for a traversal rooted at the Contents folder.
+     *
+     * @param contentsRoot The Contents folder (may be null to use only the global rules)
+     * @param globalRules The global rule set
+     * @return The root frame
+     */
+    static IgnoreFrame root(File contentsRoot, FilterRuleSet globalRules) {
+        if (contentsRoot == null) {
+            return new IgnoreFrame(null, null, "", globalRules);
+        }
+        return new IgnoreFrame(null, contentsRoot, "", lookup(globalRules, contentsRoot, ""));
+    }
+
+    /**
+     * Pushes a frame for a subdirectory of this frame's directory.
+     * Directories without an ignore file share the parent's compiled rules.
+     *
+     * @param childDir The subdirectory being entered
+     * @param childRelativePath Its path relative to the Contents root (normalized with "/")
+     * @return The frame in effect inside the subdirectory
+     */
+    public IgnoreFrame enter(File childDir, String childRelativePath) {
+        return new IgnoreFrame(this, childDir, childRelativePath, lookup(rules, childDir, childRelativePath));
+    }
+
+    // The directory's own rules on top of the inherited ones, compiled once per directory
+    private static FilterRuleSet lookup(FilterRuleSet inherited, File dir, String relativePath) {
+        UploadEvents.IgnoreRules event = UploadEvents.beginIgnoreRules();
+        FilterRuleSet rules = WorkshopContentFilter.getCombinedIgnoreRules(dir, inherited, relativePath);
+        if (event != null) {
+            event.directory = dir.getPath();
+            event.relativePath = relativePath;
+            event.ownRules = rules.size() - inherited.size();
+            event.rules = rules.size();
+            event.commit();
+        }
+        return rules;
+    }
+
+    /**
+     * @return The enclosing frame, or null for the root frame
+     */
+    public IgnoreFrame getParent() {
+        return parent;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * @return This frame's directory relative to the Contents root ("" for the root)
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    /**
+     * Builds the Contents-relative path of a direct child of this frame's directory.
+     */
+    public String childPath(String name) {
+        return relativePath.isEmpty() ? name : relativePath + "/" + name;
+    }
+
+    /**
+     * Checks a direct child of this frame's directory against the rules in effect.
+     * The last matching rule wins; an excluded directory must not be descended into.
+     *
+     * @param childRelativePath Path relative to the Contents root (normalized with "/")
+     * @param name The child's name
+     * @param isDir Whether the child is a directory
+     * @return true if the entry is excluded
+     */
+    public boolean isExcluded(String childRelativePath, String name, boolean isDir) {
+        UploadEvents.RuleDecision event = UploadEvents.beginRuleDecision();
+        boolean excluded = rules.isExcluded(childRelativePath, name, isDir);
+        if (event != null) {
+            event.path = childRelativePath;
+            event.directory = isDir;
+            event.excluded = excluded;
+            event.rules = rules.size();
+            event.commit();
+        }
+        return excluded;
+    }
+}
@@ -0,0 +1,263 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.util.regex.Pattern;
+
+/**
+ * A single parsed exclusion pattern with gitignore semantics:
+ * <ul>
+ *   <li>"#" starts a comment, "\#" and "\!" escape a leading "#" or "!"</li>
+ *   <li>"!pattern" re-includes what an earlier pattern excluded (the last matching pattern wins)</li>
+ *   <li>"pattern/" only matches directories</li>
+ *   <li>a pattern with a leading or middle "/" is anchored to the directory of its ignore file
+ *       (the Contents root for global patterns); otherwise it matches a name at any depth</li>
+ *   <li>"*" and "?" do not match "/", "[...]" is a character class, "**" matches across directories</li>
+ * </ul>
+ * Unlike git, leading whitespace is trimmed as well as trailing whitespace.
+ */
+public final class IgnoreRule {
+    final String source;
+    final String glob;
+    final String base;
+    final boolean negated;
+    final boolean dirOnly;
+    final boolean anchored;
+
+    private IgnoreRule(String source, String glob, String base, boolean negated, boolean dirOnly, boolean anchored) {
+        this.source = source;
+        this.glob = glob;
+        this.base = base;
+        this.negated = negated;
+        this.dirOnly = dirOnly;
+        this.anchored = anchored;
+    }
+
+    /**
+     * Parses one line of an ignore file (or one global pattern).
+     *
+     * @param line The raw line
+     * @return The rule, or null for blank lines and comments
+     */
+    public static IgnoreRule parse(String line) {
+        if (line == null) {
+            return null;
+        }
+        String source = stripTrailingSpaces(line);
+        int start = 0;
+        while (start < source.length() && Character.isWhitespace(source.charAt(start))) {
+            start++;
+        }
+        source = source.substring(start);
+        if (source.isEmpty() || source.startsWith("#")) {
+            return null;
+        }
+
+        String glob = source;
+        boolean negated = false;
+        if (glob.startsWith("!")) {
+            negated = true;
+            glob = glob.substring(1);
+        } else if (glob.startsWith("\\!") || glob.startsWith("\\#")) {
+            glob = glob.substring(1);
+        }
+
+        boolean dirOnly = false;
+        while (glob.endsWith("/")) {
+            dirOnly = true;
+            glob = glob.substring(0, glob.length() - 1);
+        }
+
+        boolean anchored = glob.indexOf('/') >= 0;
+        while (glob.startsWith("/")) {
+            glob = glob.substring(1);
+        }
+
+        if (glob.isEmpty()) {
+            return null;
+        }
+        return new IgnoreRule(source, glob, "", negated, dirOnly, anchored);
+    }
+
+    /**
+     * Re-roots an anchored rule from an ignore file in a subdirectory so it can be matched against
+     * paths relative to the Contents root. Unanchored rules match names and need no change.
+     *
+     * @param dirPath The ignore file's directory relative to the Contents root ("" for the root)
+     * @return The rebased rule
+     */
+    IgnoreRule rebase(String dirPath) {
+        if (!anchored || dirPath == null || dirPath.isEmpty()) {
+            return this;
+        }
+        String newBase = base.isEmpty() ? dirPath : dirPath + "/" + base;
+        return new IgnoreRule(source, glob, newBase, negated, dirOnly, true);
+    }
+
+    /**
+     * @return true if the glob has no wildcard, class or escape characters
+     */
+    boolean isLiteral() {
+        return isLiteral(glob, 0, glob.length());
+    }
+
+    /**
+     * @return The literal path this rule matches (only for anchored literal rules)
+     */
+    String anchoredLiteral() {
+        return base.isEmpty() ? glob : base + "/" + glob;
+    }
+
+    /**
+     * @return The literal prefix of a "prefix*" glob, or null if the glob has another shape
+     */
+    String literalPrefix() {
+        int n = glob.length();
+        if (n > 0 && glob.charAt(n - 1) == '*' && isLiteral(glob, 0, n - 1)) {
+            return glob.substring(0, n - 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return The literal suffix of a "*suffix" glob, or null if the glob has another shape
+     */
+    String literalSuffix() {
+        int n = glob.length();
+        if (n > 1 && glob.charAt(0) == '*' && isLiteral(glob, 1, n)) {
+            return glob.substring(1);
+        }
+        return null;
+    }
+
+    /**
+     * @return Regex matching what this rule applies to: the name for unanchored rules,
+     *         the Contents-relative path for anchored ones
+     */
+    String toRegex() {
+        String regex = globToRegex(glob);
+        return base.isEmpty() ? regex : Pattern.quote(base + "/") + regex;
+    }
+
+    @Override
+    public String toString() {
+        return base.isEmpty() ? source : base + ": " + source;
+    }
+
+    private static boolean isLiteral(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String stripTrailingSpaces(String line) {
+        int end = line.length();
+        while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+            if (end >= 2 && line.charAt(end - 2) == '\\') {
+                break; // escaped space is kept
+            }
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    /**
+     * Converts a gitignore glob to a Java regex.
+     *
+     * @param glob The glob, without leading "!" or surrounding "/"
+     * @return A regex pattern string
+     */
+    static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int n = glob.length();
+        for (int i = 0; i < n; i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                int j = i;
+                while (j < n && glob.charAt(j) == '*') {
+                    j++;
+                }
+                boolean atStart = i == 0 || glob.charAt(i - 1) == '/';
+                boolean atEnd = j == n || glob.charAt(j) == '/';
+                if (j - i == 2 && atStart && atEnd) {
+                    if (j == n) {
+                        sb.append(".*");               // "dir/**" and "**"
+                    } else {
+                        sb.append("(?:.*/)?");         // "**/" - zero or more directories
+                        j++;
+                    }
+                } else {
+                    sb.append("[^/]*");
+                }
+                i = j - 1;
+            } else if (c == '?') {
+                sb.append("[^/]");
+            } else if (c == '[') {
+                int close = findClassEnd(glob, i);
+                if (close < 0) {
+                    sb.append("\\[");
+                } else {
+                    appendClass(sb, glob, i + 1, close);
+                    i = close;
+                }
+            } else if (c == '\\' && i + 1 < n) {
+                appendLiteral(sb, glob.charAt(++i));
+            } else {
+                appendLiteral(sb, c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int findClassEnd(String glob, int open) {
+        int i = open + 1;
+        if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+            i++;
+        }
+        if (i < glob.length() && glob.charAt(i) == ']') {
+            i++; // "]" right after the opening bracket is literal
+        }
+        for (; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == ']') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void appendClass(StringBuilder sb, String glob, int from, int to) {
+        sb.append('[');
+        int i = from;
+        if (i < to && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+            sb.append('^');
+            i++;
+        }
+        for (; i < to; i++) {
+            char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < to) {
+                c = glob.charAt(++i);
+            } else if (c == '-') {
+                sb.append(c);
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            } else {
+                sb.append('\\').append(c);
+            }
+        }
+        sb.append("&&[^/]]");
+    }
+
+    private static void appendLiteral(StringBuilder sb, char c) {
+        if (".+?^$[](){}|\\*".indexOf(c) >= 0) {
+            sb.append('\\');
+        }
+        sb.append(c);
+    }
+}
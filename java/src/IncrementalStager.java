@@ -0,0 +1,120 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings a persistent staging folder in line with a workshop item folder, touching only what changed:
+ * new files are staged, files whose size or mtime differ are replaced, and files that were removed
+ * from the source or are now excluded are deleted. Unchanged files are left alone, so re-uploading
+ * after a small edit costs time proportional to the edit.
+ * <p>
+ * Files of Contents are compared through their {@link StagingStamps}, since a file a transformer
+ * rewrote or a recompressed PNG no longer has the size and mtime of its source. Such a file is
+ * staged again when its source changes or when it would now be produced differently (another
+ * transformer or transformer version, PNG optimization switched on or off).
+ */
+public final class IncrementalStager {
+    private static final String CONTENTS_PREFIX = "Contents/";
+
+    private IncrementalStager() {
+    }
+
+    /**
+     * Syncs a staging folder. Directories are created and stale entries deleted right away;
+     * new and changed files are queued on the pipeline, which the caller runs.
+     *
+     * @param sourceWorkshopDir The workshop item folder
+     * @param contents Manifest of its Contents folder, or null if it has none
+     * @param stagingDir The persistent staging folder (created if missing)
+     * @param pipeline Receives the files to stage
+     * @param stamps Stamps of the staging folder (see {@link StagingStamps#take}), saved by the caller once the pipeline has run
+     * @return What the sync did
+     * @throws IOException If the staging folder cannot be updated
+     */
+    public static SyncStats sync(Path sourceWorkshopDir, ContentManifest contents, Path stagingDir, StagingPipeline pipeline, StagingStamps stamps) throws IOException {
+        Map<String, UploadFileSet.Entry> desired = UploadFileSet.collect(sourceWorkshopDir, contents);
+        SyncStats stats = new SyncStats();
+        FileTransforms transforms = pipeline.getTransforms();
+        if (transforms != null && contents != null) {
+            desired.entrySet().removeIf(e -> {
+                if (!e.getValue().directory && e.getKey().startsWith(CONTENTS_PREFIX)
+                        && transforms.isDropped(contents.getRoot(), e.getKey().substring(CONTENTS_PREFIX.length()))) {
+                    transforms.countDropped();
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        Map<String, ContentEntry> existing = new HashMap<>();
+        if (Files.isDirectory(stagingDir)) {
+            List<ContentEntry> entries = ContentScanner.collect(stagingDir, false).getEntries();
+            // reverse path order visits children before their parent directory
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                ContentEntry entry = entries.get(i);
+                UploadFileSet.Entry target = desired.get(entry.getRelativePath());
+                if (target == null || target.directory != entry.isDirectory()) {
+                    Files.deleteIfExists(stagingDir.resolve(entry.getRelativePath()));
+                    if (!entry.isDirectory()) {
+                        stats.deleted++;
+                    }
+                } else {
+                    existing.put(entry.getRelativePath(), entry);
+                }
+            }
+        }
+
+        Files.createDirectories(stagingDir);
+        for (Map.Entry<String, UploadFileSet.Entry> e : desired.entrySet()) {
+            UploadFileSet.Entry target = e.getValue();
+            Path dest = stagingDir.resolve(e.getKey());
+            if (target.directory) {
+                Files.createDirectories(dest);
+                continue;
+            }
+            ContentEntry staged = existing.get(e.getKey());
+            String contentsPath = e.getKey().startsWith(CONTENTS_PREFIX) ? e.getKey().substring(CONTENTS_PREFIX.length()) : null;
+            FileTransformer transformer = transforms != null && contentsPath != null ? transforms.find(contentsPath) : null;
+            if (staged != null && (contentsPath == null
+                    ? staged.getSize() == target.size && staged.getLastModified() == target.lastModified
+                    : stamps.isUnchanged(e.getKey(), target, staged, transformer))) {
+                stats.unchanged++;
+                continue;
+            }
+            if (staged != null) {
+                Files.delete(dest);
+                stats.updated++;
+            } else {
+                stats.added++;
+            }
+            stats.bytes += target.size;
+            if (contentsPath != null) {
+                stamps.expect(e.getKey(), target.size, target.lastModified, dest, pipeline.addContentsFile(target.source, dest, target.size, contentsPath));
+            } else {
+                pipeline.add(target.source, dest, target.size);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Counts of one sync.
+     */
+    public static final class SyncStats {
+        public int added;
+        public int updated;
+        public int unchanged;
+        public int deleted;
+        public long bytes; // size of added and updated files
+
+        @Override
+        public String toString() {
+            return added + " added, " + updated + " updated, " + unchanged + " unchanged, " + deleted + " deleted (" + FileStager.formatBytes(bytes) + " to stage)";
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leaves Java sources out of the upload when they ship next to their built jar: a source is
+ * dropped if one of its parent directories inside Contents holds a .jar file, directly or in
+ * build/libs (the Gradle layout of 42/media/java/client). Sources without a jar are kept.
+ * Each directory is listed at most once per staging run.
+ */
+public final class JavaSourceDropper implements FileTransformer {
+    private final Map<Path, Boolean> hasJar = new ConcurrentHashMap<>();
+
+    @Override
+    public String getCacheKey() {
+        return "java-sources";
+    }
+
+    @Override
+    public boolean rewritesContent() {
+        return false;
+    }
+
+    @Override
+    public boolean isDropped(Path contentsRoot, String relativePath) {
+        Path root = contentsRoot.toAbsolutePath().normalize();
+        for (Path dir = root.resolve(relativePath).getParent(); dir != null && dir.startsWith(root); dir = dir.getParent()) {
+            if (hasJar.computeIfAbsent(dir, d -> containsJar(d) || containsJar(d.resolve("build").resolve("libs")))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsJar(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (DirectoryStream<Path> jars = Files.newDirectoryStream(dir, "*.jar")) {
+            for (Path jar : jars) {
+                if (Files.isRegularFile(jar)) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            // unreadable directory: keep the sources
+        }
+        return false;
+    }
+
+    @Override
+    public void transform(InputStream in, OutputStream out) throws IOException {
+        in.transferTo(out);
+    }
+}
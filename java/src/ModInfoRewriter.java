@@ -0,0 +1,132 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites fields of mod.info files: each override replaces the value of its key, an empty value
+ * removes the key, and overrides of keys the file doesn't have are appended. Other lines, their
+ * order and their line endings are kept.
+ */
+public final class ModInfoRewriter implements FileTransformer {
+    // bump when the output for the same input can change, invalidates the cache
+    static final int VERSION = 1;
+
+    private final Map<String, String> overrides;
+    private final String cacheKey;
+
+    /**
+     * @param overrides Key -> new value ("" removes the key), applied in order
+     */
+    public ModInfoRewriter(Map<String, String> overrides) {
+        this.overrides = Collections.unmodifiableMap(new LinkedHashMap<>(overrides));
+        StringBuilder settings = new StringBuilder();
+        for (Map.Entry<String, String> e : this.overrides.entrySet()) {
+            settings.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        byte[] digest = ContentHashIndex.newDigest().digest(settings.toString().getBytes(StandardCharsets.UTF_8));
+        this.cacheKey = "modinfo-v" + VERSION + "-" + ContentHashIndex.toHex(digest).substring(0, 16);
+    }
+
+    /**
+     * Parses overrides as entered in the mod options.
+     *
+     * @param text Overrides separated by semicolons, e.g. "versionMin=42.0; poster=poster.png"
+     * @return Key -> value, in order; entries without "=" are skipped
+     */
+    public static Map<String, String> parse(String text) {
+        Map<String, String> overrides = new LinkedHashMap<>();
+        if (text == null) {
+            return overrides;
+        }
+        for (String part : text.split(";")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0 || part.substring(0, eq).trim().isEmpty()) {
+                continue;
+            }
+            overrides.put(part.substring(0, eq).trim(), part.substring(eq + 1).trim());
+        }
+        return overrides;
+    }
+
+    public Map<String, String> getOverrides() {
+        return overrides;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    @Override
+    public void transform(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        Set<String> seen = new HashSet<>();
+        String lineEnding = "\n";
+        boolean open = false; // last line written without a line break
+        StringBuilder line = new StringBuilder();
+        int c;
+        do {
+            c = reader.read();
+            if (c >= 0 && c != '\n') {
+                line.append((char) c);
+                continue;
+            }
+            if (c < 0 && line.length() == 0) {
+                break;
+            }
+            String ending = c < 0 ? "" : "\n";
+            if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+                line.setLength(line.length() - 1);
+                ending = "\r\n";
+            }
+            if (!ending.isEmpty()) {
+                lineEnding = ending;
+            }
+            open = writeLine(writer, line.toString(), ending, seen);
+            line.setLength(0);
+        } while (c >= 0);
+        for (Map.Entry<String, String> e : overrides.entrySet()) {
+            if (!seen.contains(e.getKey()) && !e.getValue().isEmpty()) {
+                if (open) {
+                    writer.write(lineEnding);
+                    open = false;
+                }
+                writer.write(e.getKey() + "=" + e.getValue() + lineEnding);
+            }
+        }
+        writer.flush();
+    }
+
+    // returns true if the output now ends without a line break
+    private boolean writeLine(Writer writer, String line, String ending, Set<String> seen) throws IOException {
+        int eq = line.indexOf('=');
+        String key = eq < 0 ? null : line.substring(0, eq).trim();
+        if (key == null || !overrides.containsKey(key)) {
+            writer.write(line + ending);
+            return ending.isEmpty();
+        }
+        if (!seen.add(key)) {
+            return false; // the override replaced the first occurrence, drop repeats
+        }
+        String value = overrides.get(key);
+        if (!value.isEmpty()) {
+            writer.write(key + "=" + value + ending);
+            return ending.isEmpty();
+        }
+        return false;
+    }
+}
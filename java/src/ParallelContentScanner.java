@@ -0,0 +1,174 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork-join variant of {@link ContentScanner} for large trees: one task per directory,
+ * subdirectories are forked and picked up by idle workers through work stealing.
+ * Entries are collected per task and sorted by path at the end, so the result is deterministic
+ * regardless of scheduling. Ignore frames are immutable and shared between tasks.
+ */
+public final class ParallelContentScanner {
+    private static ForkJoinPool pool;
+    private static int poolParallelism;
+
+    private ParallelContentScanner() {
+    }
+
+    /**
+     * Scans a tree in parallel.
+     *
+     * @param root The root folder
+     * @param filtered Whether to apply exclusion rules
+     * @param parallelism Number of worker threads
+     * @return All entries (including excluded ones, flagged), sorted by path, and scan statistics
+     */
+    public static ContentScanner.ScanResult scan(Path root, boolean filtered, int parallelism) {
+        UploadEvents.ContentScan event = UploadEvents.beginContentScan();
+        long ignoreStatsBefore = WorkshopContentFilter.getIgnoreFileStatCount();
+        IgnoreFileCache.ReadStats ignoreReadsBefore = WorkshopContentFilter.getIgnoreFileReadStats();
+        long startNanos = System.nanoTime();
+
+        IgnoreFrame rootFrame = filtered ? WorkshopContentFilter.rootFrame(root.toFile()) : null;
+        Ancestor rootAncestor = null;
+        try {
+            Object rootKey = Files.readAttributes(root, BasicFileAttributes.class).fileKey();
+            if (rootKey != null) {
+                rootAncestor = new Ancestor(rootKey, null);
+            }
+        } catch (IOException e) {
+            // the root task will report the listing error
+        }
+        Partial result = getPool(parallelism).invoke(new DirectoryTask(root, "", rootFrame, rootAncestor));
+
+        result.entries.sort(ContentEntry.BY_PATH);
+        ContentScanner.ScanStats stats = result.stats;
+        stats.statCalls += 1 + WorkshopContentFilter.getIgnoreFileStatCount() - ignoreStatsBefore; // +1 for the root
+        stats.setIgnoreReads(WorkshopContentFilter.getIgnoreFileReadStats().since(ignoreReadsBefore));
+        stats.nanos = System.nanoTime() - startNanos;
+        stats.commit(event, root, filtered, parallelism);
+        return new ContentScanner.ScanResult(result.entries, stats);
+    }
+
+    // A replaced pool is not shut down: another thread may still be scanning on it, and a shut down
+    // pool rejects that scan's forks. Its workers are daemon threads and exit once the pool is idle.
+    private static synchronized ForkJoinPool getPool(int parallelism) {
+        if (pool == null || poolParallelism != parallelism) {
+            pool = new ForkJoinPool(parallelism);
+            poolParallelism = parallelism;
+        }
+        return pool;
+    }
+
+    private static final class Partial {
+        final List<ContentEntry> entries = new ArrayList<>();
+        final ContentScanner.ScanStats stats = new ContentScanner.ScanStats();
+
+        void merge(Partial other) {
+            entries.addAll(other.entries);
+            stats.add(other.stats);
+        }
+    }
+
+    // Chain of directory file keys from the root, used to detect symlink loops
+    private static final class Ancestor {
+        final Object fileKey;
+        final Ancestor parent;
+
+        Ancestor(Object fileKey, Ancestor parent) {
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+
+        boolean contains(Object key) {
+            for (Ancestor a = this; a != null; a = a.parent) {
+                if (key.equals(a.fileKey)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final String relativePath;
+        private final IgnoreFrame frame;
+        private final Ancestor ancestors;
+
+        DirectoryTask(Path dir, String relativePath, IgnoreFrame frame, Ancestor ancestors) {
+            this.dir = dir;
+            this.relativePath = relativePath;
+            this.frame = frame;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        protected Partial compute() {
+            Partial result = new Partial();
+            List<DirectoryTask> subtasks = new ArrayList<>();
+
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child : children) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        result.stats.errors++;
+                        System.err.println("[ZBetterWorkshopUpload] Cannot read " + child + ": " + e);
+                        continue;
+                    }
+                    result.stats.statCalls++;
+
+                    String name = child.getFileName().toString();
+                    String childPath = relativePath.isEmpty() ? name : relativePath + "/" + name;
+                    boolean isDir = attrs.isDirectory();
+                    boolean excluded = false;
+                    if (frame != null) {
+                        long ruleStart = System.nanoTime();
+                        excluded = frame.isExcluded(childPath, name, isDir);
+                        result.stats.ruleNanos += System.nanoTime() - ruleStart;
+                        result.stats.ruleChecks++;
+                    }
+                    Object key = isDir && !excluded ? attrs.fileKey() : null;
+                    if (key != null && ancestors != null && ancestors.contains(key)) {
+                        result.stats.errors++;
+                        System.err.println("[ZBetterWorkshopUpload] Skipping symlink loop: " + child);
+                        continue;
+                    }
+                    result.entries.add(ContentEntry.of(childPath, attrs, !excluded));
+
+                    if (excluded) {
+                        result.stats.excluded++;
+                    } else if (isDir) {
+                        result.stats.directories++;
+                        IgnoreFrame childFrame = frame == null ? null : frame.enter(child.toFile(), childPath);
+                        subtasks.add(new DirectoryTask(child, childPath, childFrame, key == null ? ancestors : new Ancestor(key, ancestors)));
+                    } else {
+                        result.stats.files++;
+                        result.stats.bytes += attrs.size();
+                    }
+                }
+            } catch (IOException e) {
+                result.stats.errors++;
+                System.err.println("[ZBetterWorkshopUpload] Cannot list " + dir + ": " + e);
+            }
+
+            invokeAll(subtasks);
+            for (DirectoryTask task : subtasks) {
+                result.merge(task.join());
+            }
+            return result;
+        }
+    }
+}
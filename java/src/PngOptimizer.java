@@ -0,0 +1,324 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Losslessly recompresses staged PNG files: the IDAT stream is inflated and deflated again at the
+ * highest level, and ancillary chunks other than tRNS are dropped. IHDR, PLTE, tRNS and the
+ * decompressed scanlines (filter bytes included) are kept exactly, so every pixel is unchanged;
+ * this is verified by inflating the new IDAT stream and comparing it with the original.
+ * <p>
+ * Only staged files are touched, and always by writing a new file and moving it over the staged
+ * one, so a staged hard link or clone of the source never changes the source. Results are cached
+ * by the SHA-256 of the input, including "no gain" results, so unchanged textures are never
+ * recompressed twice. Using an entry refreshes its mtime; entries unused for
+ * {@link StagingCleaner#CACHE_MAX_AGE_MILLIS} are deleted by the startup sweep.
+ */
+public final class PngOptimizer {
+    // bump when the output for the same input can change, invalidates the cache
+    static final int VERSION = 1;
+    static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+    static final int IDAT_CHUNK_SIZE = 1 << 20;
+    // refuse to inflate more than this, a texture never gets close
+    static final long MAX_RAW_BYTES = 512L << 20;
+
+    private static final Set<String> KEPT_CHUNKS = new HashSet<>(Arrays.asList("IHDR", "PLTE", "tRNS", "IDAT", "IEND"));
+
+    private final Path cacheDir;
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicInteger optimized = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicLong bytesBefore = new AtomicLong();
+    private final AtomicLong bytesAfter = new AtomicLong();
+
+    /**
+     * @param cacheDir Folder for cached results (created on first write)
+     */
+    public PngOptimizer(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    static boolean isPng(Path path) {
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".png");
+    }
+
+    /**
+     * Recompresses the PNG files among the given staged files, in parallel.
+     *
+     * @param stagedFiles Staged files (non-PNG files are skipped)
+     * @return Summary of the run
+     * @throws IOException If a staged file cannot be read or replaced
+     */
+    public String optimizeAll(List<Path> stagedFiles) throws IOException {
+        List<Path> pngs = new ArrayList<>();
+        for (Path file : stagedFiles) {
+            if (isPng(file)) {
+                pngs.add(file);
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            pngs.parallelStream().forEach(file -> {
+                try {
+                    optimizeStaged(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return getSummary() + String.format(Locale.ROOT, " in %.1f ms", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Recompresses one staged PNG in place (by replacing the file) if that makes it smaller.
+     *
+     * @param staged The staged file
+     * @return true if the file was replaced
+     * @throws IOException If the file cannot be read or replaced
+     */
+    boolean optimizeStaged(Path staged) throws IOException {
+        byte[] input = Files.readAllBytes(staged);
+        files.incrementAndGet();
+        bytesBefore.addAndGet(input.length);
+
+        String key = ContentHashIndex.toHex(ContentHashIndex.newDigest().digest(input)) + "-v" + VERSION;
+        Path cached = cacheDir.resolve(key + ".png");
+        Path noGain = cacheDir.resolve(key + ".skip");
+        byte[] output;
+        if (Files.exists(cached)) {
+            output = Files.readAllBytes(cached);
+            touch(cached);
+            cacheHits.incrementAndGet();
+        } else if (Files.exists(noGain)) {
+            output = null;
+            touch(noGain);
+            cacheHits.incrementAndGet();
+        } else {
+            output = optimize(input);
+            Files.createDirectories(cacheDir);
+            if (output == null) {
+                writeAtomically(noGain, new byte[0]);
+            } else {
+                writeAtomically(cached, output);
+            }
+        }
+
+        if (output == null) {
+            bytesAfter.addAndGet(input.length);
+            return false;
+        }
+        FileTime mtime = Files.getLastModifiedTime(staged);
+        Path tmp = staged.resolveSibling(staged.getFileName() + ".zbtmp");
+        Files.write(tmp, output);
+        Files.setLastModifiedTime(tmp, mtime);
+        move(tmp, staged);
+        optimized.incrementAndGet();
+        bytesAfter.addAndGet(output.length);
+        return true;
+    }
+
+    // Marks a cache entry as used, the startup sweep deletes entries unused for a long time
+    private static void touch(Path entry) throws IOException {
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    private static void writeAtomically(Path file, byte[] data) throws IOException {
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        Files.write(tmp, data);
+        move(tmp, file);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Recompresses a PNG.
+     *
+     * @param png The PNG file contents
+     * @return A smaller PNG with the same pixels, or null if it can't be made smaller, isn't a
+     *         well-formed PNG, or uses chunks this optimizer doesn't handle (e.g. APNG)
+     */
+    static byte[] optimize(byte[] png) {
+        if (png.length < SIGNATURE.length + 12 || !Arrays.equals(Arrays.copyOf(png, SIGNATURE.length), SIGNATURE)) {
+            return null;
+        }
+
+        List<int[]> kept = new ArrayList<>(); // {offset, length, type index} of kept non-IDAT chunks
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(png.length);
+        int firstIdat = -1;
+        int pos = SIGNATURE.length;
+        boolean ended = false;
+        while (pos + 12 <= png.length && !ended) {
+            int length = readInt(png, pos);
+            if (length < 0 || pos + 12L + length > png.length) {
+                return null;
+            }
+            String type = new String(png, pos + 4, 4, StandardCharsets.ISO_8859_1);
+            CRC32 crc = new CRC32();
+            crc.update(png, pos + 4, 4 + length);
+            if ((int) crc.getValue() != readInt(png, pos + 8 + length)) {
+                return null; // corrupt, leave it alone
+            }
+            boolean critical = Character.isUpperCase(type.charAt(0));
+            if (!KEPT_CHUNKS.contains(type)) {
+                if (critical || type.equals("acTL") || type.equals("fcTL") || type.equals("fdAT")) {
+                    return null; // unknown critical chunk or APNG, can't be handled losslessly
+                }
+            } else if (type.equals("IDAT")) {
+                if (firstIdat < 0) {
+                    firstIdat = kept.size();
+                }
+                idat.write(png, pos + 8, length);
+            } else {
+                kept.add(new int[] { pos, length });
+                ended = type.equals("IEND");
+            }
+            pos += 12 + length;
+        }
+        if (!ended || firstIdat < 0) {
+            return null;
+        }
+
+        byte[] raw = inflate(idat.toByteArray());
+        if (raw == null) {
+            return null;
+        }
+        byte[] best = null;
+        for (int strategy : new int[] { Deflater.DEFAULT_STRATEGY, Deflater.FILTERED }) {
+            byte[] deflated = deflate(raw, strategy);
+            if (best == null || deflated.length < best.length) {
+                best = deflated;
+            }
+        }
+        if (!Arrays.equals(raw, inflate(best))) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(png.length);
+        out.write(SIGNATURE, 0, SIGNATURE.length);
+        for (int i = 0; i <= kept.size(); i++) {
+            if (i == firstIdat) {
+                for (int off = 0; off < best.length || off == 0; off += IDAT_CHUNK_SIZE) {
+                    writeChunk(out, "IDAT", best, off, Math.min(IDAT_CHUNK_SIZE, best.length - off));
+                }
+            }
+            if (i < kept.size()) {
+                int[] chunk = kept.get(i);
+                out.write(png, chunk[0], 12 + chunk[1]);
+            }
+        }
+        byte[] result = out.toByteArray();
+        return result.length < png.length ? result : null;
+    }
+
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null; // truncated stream
+                }
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_RAW_BYTES) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] raw, int strategy) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setStrategy(strategy);
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data, int offset, int length) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.ISO_8859_1);
+        writeInt(out, length);
+        out.write(typeBytes, 0, 4);
+        out.write(data, offset, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    public int getFileCount() {
+        return files.get();
+    }
+
+    public int getOptimizedCount() {
+        return optimized.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesBefore.get() - bytesAfter.get();
+    }
+
+    /**
+     * @return e.g. "PNG: 120 files, 87 smaller, 30 from cache, saved 4.2 MB of 31.0 MB"
+     */
+    public String getSummary() {
+        return "PNG: " + files.get() + " files, " + optimized.get() + " smaller, " + cacheHits.get() + " from cache, saved "
+            + FileStager.formatBytes(getBytesSaved()) + " of " + FileStager.formatBytes(bytesBefore.get());
+    }
+}
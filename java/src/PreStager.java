@@ -0,0 +1,224 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stages the item shown on the submit page in the background, on one low-priority thread,
+ * so that pressing upload only has to wait for whatever is left. At most one item is
+ * pre-staged at a time; starting another one discards the previous temp folder.
+ * <p>
+ * The same thread compares the item with its last successful upload first, which hashes its
+ * new and modified files; the submit page polls the result instead of hashing on the UI thread.
+ * The state of each submitted upload is hashed and recorded here as well.
+ */
+final class PreStager {
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ZBetterWorkshopUpload-prestage");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static Job current;
+    private static Check check;
+
+    private PreStager() {
+    }
+
+    /**
+     * Starts pre-staging an item, unless the same item is already being pre-staged.
+     *
+     * @param sourceWorkshopDir The workshop item folder
+     * @param persistentItemId Item ID if staging into its persistent folder, else null
+     * @param mode Staging mode
+     */
+    static synchronized void start(File sourceWorkshopDir, String persistentItemId, String mode) {
+        File dir = sourceWorkshopDir.getAbsoluteFile();
+        if (current != null) {
+            if (current.matches(dir, persistentItemId, mode)) {
+                return;
+            }
+            discardCurrent();
+        }
+        System.out.println("[ZBetterWorkshopUpload] Pre-staging " + dir + " in the background");
+        Job job = new Job(dir, persistentItemId, mode);
+        job.future = EXECUTOR.submit(() -> {
+            long start = System.nanoTime();
+            Path stagingDir = WorkshopContentFilter.stageItem(dir, persistentItemId);
+            System.out.println(String.format("[ZBetterWorkshopUpload] Pre-staged %s in %.1f ms", dir.getName(), (System.nanoTime() - start) / 1e6));
+            return stagingDir;
+        });
+        current = job;
+    }
+
+    /**
+     * Starts comparing an item with its last successful upload, unless that comparison is still
+     * running. Queued ahead of any pre-staging started afterwards.
+     *
+     * @param sourceWorkshopDir The workshop item folder
+     * @param itemId The item ID
+     * @param description The expanded description that would be submitted
+     */
+    static synchronized void check(File sourceWorkshopDir, String itemId, String description) {
+        File dir = sourceWorkshopDir.getAbsoluteFile();
+        if (check != null) {
+            if (check.matches(dir, itemId) && !check.future.isDone()) {
+                return;
+            }
+            check.future.cancel(false);
+        }
+        Check job = new Check(dir, itemId);
+        job.future = EXECUTOR.submit(() -> {
+            try {
+                return WorkshopContentFilter.isUnchangedSinceLastUpload(dir, itemId, description);
+            } catch (IOException e) {
+                System.err.println("[ZBetterWorkshopUpload] Cannot compare with last upload: " + e.getMessage());
+                return false;
+            }
+        });
+        check = job;
+    }
+
+    /**
+     * Gets the result of the last comparison started by {@link #check}, without waiting for it.
+     *
+     * @param sourceWorkshopDir The workshop item folder
+     * @param itemId The item ID
+     * @return "unchanged" or "changed" once compared, "checking" while the comparison runs,
+     *         "unknown" if none was started for this item
+     */
+    static synchronized String getUnchangedStatus(File sourceWorkshopDir, String itemId) {
+        if (check == null || !check.matches(sourceWorkshopDir.getAbsoluteFile(), itemId) || check.future.isCancelled()) {
+            return "unknown";
+        }
+        if (!check.future.isDone()) {
+            return "checking";
+        }
+        try {
+            return check.future.get() ? "unchanged" : "changed";
+        } catch (ExecutionException e) {
+            return "changed";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "unknown";
+        }
+    }
+
+    /**
+     * Runs a task on the pre-staging thread, after the jobs queued before it.
+     *
+     * @param task The task
+     * @return Its future
+     */
+    static <T> Future<T> submit(Callable<T> task) {
+        return EXECUTOR.submit(task);
+    }
+
+    /**
+     * Takes the pre-staged folder of an item, waiting for pre-staging to finish if needed.
+     * A pre-staged folder of another item (or staged with other settings) is discarded.
+     *
+     * @param sourceWorkshopDir The workshop item folder
+     * @param persistentItemId Item ID if staging into its persistent folder, else null
+     * @param mode Staging mode
+     * @return The staging folder, or null if there is none or pre-staging failed
+     */
+    static Path take(File sourceWorkshopDir, String persistentItemId, String mode) {
+        Job job;
+        synchronized (PreStager.class) {
+            if (current == null) {
+                return null;
+            }
+            if (!current.matches(sourceWorkshopDir.getAbsoluteFile(), persistentItemId, mode)) {
+                discardCurrent();
+                return null;
+            }
+            job = current;
+            current = null;
+        }
+
+        long start = System.nanoTime();
+        try {
+            Path stagingDir = job.future.get();
+            System.out.println(String.format("[ZBetterWorkshopUpload] Waited %.1f ms for pre-staging", (System.nanoTime() - start) / 1e6));
+            return stagingDir;
+        } catch (ExecutionException e) {
+            System.err.println("[ZBetterWorkshopUpload] Pre-staging failed, staging now: " + e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Discards the current pre-staging job, deleting its temp folder once it is done, and the
+     * comparison with the last upload.
+     */
+    static synchronized void discard() {
+        if (current != null) {
+            discardCurrent();
+        }
+        if (check != null) {
+            check.future.cancel(false);
+            check = null;
+        }
+    }
+
+    private static void discardCurrent() {
+        Job job = current;
+        current = null;
+        if (job.future.cancel(false) || job.persistentItemId != null) {
+            return; // never started, or staged into the persistent folder which is kept anyway
+        }
+        // runs after the job on the single pre-staging thread
+        EXECUTOR.submit(() -> {
+            try {
+                WorkshopContentFilter.deleteStagingFolder(job.future.get().toFile());
+            } catch (ExecutionException e) {
+                // failed job, nothing to delete
+            }
+            return null;
+        });
+    }
+
+    private static final class Check {
+        final File sourceWorkshopDir;
+        final String itemId;
+        Future<Boolean> future;
+
+        Check(File sourceWorkshopDir, String itemId) {
+            this.sourceWorkshopDir = sourceWorkshopDir;
+            this.itemId = itemId;
+        }
+
+        boolean matches(File dir, String id) {
+            return sourceWorkshopDir.equals(dir) && itemId.equals(id);
+        }
+    }
+
+    private static final class Job {
+        final File sourceWorkshopDir;
+        final String persistentItemId;
+        final String mode;
+        Future<Path> future;
+
+        Job(File sourceWorkshopDir, String persistentItemId, String mode) {
+            this.sourceWorkshopDir = sourceWorkshopDir;
+            this.persistentItemId = persistentItemId;
+            this.mode = mode;
+        }
+
+        boolean matches(File dir, String itemId, String stagingMode) {
+            return sourceWorkshopDir.equals(dir) && Objects.equals(persistentItemId, itemId) && Objects.equals(mode, stagingMode);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Combined matcher for an ordered list of {@link IgnoreRule}s.
+ * Rules are sorted by shape so that one entry is checked with a few hash/trie lookups:
+ * <ul>
+ *   <li>literal names ("tmp", ".DS_Store") go into a hash map</li>
+ *   <li>suffix rules ("*.log") go into a reversed trie</li>
+ *   <li>prefix rules (".git*") go into a trie</li>
+ *   <li>anchored literal paths ("/media/raw") go into a hash map</li>
+ *   <li>everything else is merged into one alternation regex per kind (name / path),
+ *       used as a quick reject before the individual rules are tried</li>
+ * </ul>
+ * The result is the index of the last matching rule, as in gitignore.
+ */
+public final class SegmentMatcher {
+    private final IgnoreRule[] rules;
+
+    private final Map<String, int[]> names = new HashMap<>();
+    private final CharTrie prefixes = new CharTrie();
+    private final CharTrie suffixes = new CharTrie(); // stores reversed strings
+    private final int[] nameOther;
+    private final Pattern[] nameOtherRegex;
+    private final Pattern nameAutomaton;
+
+    private final Map<String, int[]> paths = new HashMap<>();
+    private final int[] pathOther;
+    private final Pattern[] pathOtherRegex;
+    private final Pattern pathAutomaton;
+
+    /**
+     * Builds a matcher for the given rules.
+     *
+     * @param rules The rules, in precedence order (later rules win)
+     */
+    public SegmentMatcher(List<IgnoreRule> rules) {
+        this.rules = rules.toArray(new IgnoreRule[0]);
+
+        List<Integer> nameOtherList = new ArrayList<>();
+        List<Integer> pathOtherList = new ArrayList<>();
+
+        for (int i = 0; i < this.rules.length; i++) {
+            IgnoreRule rule = this.rules[i];
+            if (rule.anchored) {
+                if (rule.isLiteral()) {
+                    addIndex(paths, rule.anchoredLiteral(), i);
+                } else {
+                    pathOtherList.add(i);
+                }
+                continue;
+            }
+
+            String prefix;
+            String suffix;
+            if (rule.isLiteral()) {
+                addIndex(names, rule.glob, i);
+            } else if ((prefix = rule.literalPrefix()) != null) {
+                prefixes.add(prefix, i);
+            } else if ((suffix = rule.literalSuffix()) != null) {
+                suffixes.add(new StringBuilder(suffix).reverse().toString(), i);
+            } else {
+                nameOtherList.add(i);
+            }
+        }
+
+        nameOther = toArray(nameOtherList);
+        nameOtherRegex = compileEach(nameOther);
+        nameAutomaton = combine(nameOther);
+        pathOther = toArray(pathOtherList);
+        pathOtherRegex = compileEach(pathOther);
+        pathAutomaton = combine(pathOther);
+    }
+
+    /**
+     * Finds the last rule that matches an entry.
+     *
+     * @param relativePath The entry's path relative to the Contents root (normalized with "/")
+     * @param name The entry's name (last path segment)
+     * @param isDir Whether the entry is a directory (directory-only rules are skipped otherwise)
+     * @return Index of the last matching rule, or -1 if none matches
+     */
+    public int lastMatch(String relativePath, String name, boolean isDir) {
+        int best = -1;
+
+        best = pick(names.get(name), isDir, best);
+        best = prefixes.lastMatchPrefix(name, this, isDir, best);
+        best = suffixes.lastMatchSuffix(name, this, isDir, best);
+        if (nameAutomaton != null && nameAutomaton.matcher(name).matches()) {
+            best = pickRegex(nameOther, nameOtherRegex, name, isDir, best);
+        }
+
+        best = pick(paths.get(relativePath), isDir, best);
+        if (pathAutomaton != null && pathAutomaton.matcher(relativePath).matches()) {
+            best = pickRegex(pathOther, pathOtherRegex, relativePath, isDir, best);
+        }
+
+        return best;
+    }
+
+    /**
+     * @return The rule at the given index
+     */
+    public IgnoreRule getRule(int index) {
+        return rules[index];
+    }
+
+    private boolean eligible(int index, boolean isDir) {
+        return isDir || !rules[index].dirOnly;
+    }
+
+    private int pick(int[] candidates, boolean isDir, int best) {
+        if (candidates != null) {
+            for (int index : candidates) {
+                if (index > best && eligible(index, isDir)) {
+                    best = index;
+                }
+            }
+        }
+        return best;
+    }
+
+    private int pickRegex(int[] indices, Pattern[] regexes, String input, boolean isDir, int best) {
+        // Indices are ascending, so the first hit from the end is the last matching rule
+        for (int k = indices.length - 1; k >= 0 && indices[k] > best; k--) {
+            if (eligible(indices[k], isDir) && regexes[k].matcher(input).matches()) {
+                return indices[k];
+            }
+        }
+        return best;
+    }
+
+    private Pattern[] compileEach(int[] indices) {
+        Pattern[] result = new Pattern[indices.length];
+        for (int k = 0; k < indices.length; k++) {
+            result[k] = Pattern.compile(rules[indices[k]].toRegex(), Pattern.DOTALL);
+        }
+        return result;
+    }
+
+    private Pattern combine(int[] indices) {
+        if (indices.length == 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int index : indices) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append("(?:").append(rules[index].toRegex()).append(')');
+        }
+        return Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+
+    private static void addIndex(Map<String, int[]> map, String key, int index) {
+        int[] existing = map.get(key);
+        if (existing == null) {
+            map.put(key, new int[] { index });
+        } else {
+            int[] grown = Arrays.copyOf(existing, existing.length + 1);
+            grown[existing.length] = index;
+            map.put(key, grown);
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Minimal character trie, walked in place without allocating substrings.
+     * Terminal nodes hold the indices of the rules that end there.
+     */
+    private static final class CharTrie {
+        private final Node root = new Node();
+        private boolean empty = true;
+
+        void add(String key, int index) {
+            Node node = root;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.child(key.charAt(i), true);
+            }
+            node.rules = node.rules == null ? new int[] { index } : append(node.rules, index);
+            empty = false;
+        }
+
+        // best rule whose key is a prefix of s
+        int lastMatchPrefix(String s, SegmentMatcher owner, boolean isDir, int best) {
+            if (empty) {
+                return best;
+            }
+            Node node = root;
+            for (int i = 0; node != null; i++) {
+                best = owner.pick(node.rules, isDir, best);
+                node = i < s.length() ? node.child(s.charAt(i), false) : null;
+            }
+            return best;
+        }
+
+        // best rule whose (reversed) key is a suffix of s
+        int lastMatchSuffix(String s, SegmentMatcher owner, boolean isDir, int best) {
+            if (empty) {
+                return best;
+            }
+            Node node = root;
+            for (int i = s.length() - 1; node != null; i--) {
+                best = owner.pick(node.rules, isDir, best);
+                node = i >= 0 ? node.child(s.charAt(i), false) : null;
+            }
+            return best;
+        }
+
+        private static int[] append(int[] array, int value) {
+            int[] grown = Arrays.copyOf(array, array.length + 1);
+            grown[array.length] = value;
+            return grown;
+        }
+
+        private static final class Node {
+            int[] rules;
+            Map<Character, Node> children;
+
+            Node child(char c, boolean create) {
+                if (children == null) {
+                    if (!create) {
+                        return null;
+                    }
+                    children = new HashMap<>();
+                }
+                Node next = children.get(c);
+                if (next == null && create) {
+                    next = new Node();
+                    children.put(c, next);
+                }
+                return next;
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Sizes of what an upload will send, computed from a {@link ContentManifest} without another
+ * filtered scan: total bytes, the largest files, byte totals per directory (including
+ * subdirectories) and bytes left out by filtering.
+ *
+ * Excluded directories are skipped by the filtered scan, so their sizes are measured here with
+ * an extra walk of just those directories (attributes only, no filtering).
+ */
+public final class SizeAnalysis {
+    public static final int DEFAULT_TOP_N = 10;
+
+    static final Comparator<ContentEntry> BY_SIZE_DESC = new Comparator<ContentEntry>() {
+        @Override
+        public int compare(ContentEntry o1, ContentEntry o2) {
+            int c = Long.compare(o2.getSize(), o1.getSize());
+            return c != 0 ? c : o1.getRelativePath().compareTo(o2.getRelativePath());
+        }
+    };
+
+    private final long totalBytes;
+    private final int fileCount;
+    private final List<ContentEntry> largestFiles;
+    private final Map<String, Long> directoryBytes;
+    private final long excludedBytes;
+    private final int excludedFiles;
+
+    private SizeAnalysis(long totalBytes, int fileCount, List<ContentEntry> largestFiles, Map<String, Long> directoryBytes, long excludedBytes, int excludedFiles) {
+        this.totalBytes = totalBytes;
+        this.fileCount = fileCount;
+        this.largestFiles = Collections.unmodifiableList(largestFiles);
+        this.directoryBytes = Collections.unmodifiableMap(directoryBytes);
+        this.excludedBytes = excludedBytes;
+        this.excludedFiles = excludedFiles;
+    }
+
+    /**
+     * Analyzes the entries of a manifest.
+     *
+     * @param manifest The manifest of a Contents folder
+     * @param topN Number of largest files to keep
+     * @return The analysis
+     */
+    public static SizeAnalysis of(ContentManifest manifest, int topN) {
+        long total = 0;
+        int files = 0;
+        long excluded = 0;
+        int excludedFiles = 0;
+        PriorityQueue<ContentEntry> largest = new PriorityQueue<>(Math.max(1, topN), BY_SIZE_DESC.reversed());
+        Map<String, Long> dirs = new HashMap<>();
+
+        for (ContentEntry entry : manifest.getEntries()) {
+            if (!entry.isIncluded()) {
+                if (entry.isDirectory()) {
+                    long[] measured = measure(manifest.getRoot().resolve(entry.getRelativePath()));
+                    excluded += measured[0];
+                    excludedFiles += (int) measured[1];
+                } else {
+                    excluded += entry.getSize();
+                    excludedFiles++;
+                }
+                continue;
+            }
+            if (entry.isDirectory()) {
+                continue;
+            }
+
+            files++;
+            total += entry.getSize();
+            if (topN > 0) {
+                largest.add(entry);
+                if (largest.size() > topN) {
+                    largest.poll();
+                }
+            }
+            String path = entry.getRelativePath();
+            for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+                dirs.merge(path.substring(0, slash), entry.getSize(), Long::sum);
+            }
+        }
+
+        List<ContentEntry> largestFiles = new ArrayList<>(largest);
+        largestFiles.sort(BY_SIZE_DESC);
+        return new SizeAnalysis(total, files, largestFiles, dirs, excluded, excludedFiles);
+    }
+
+    // {bytes, files} below an excluded directory; symbolic links are not followed
+    private static long[] measure(Path dir) {
+        long[] result = new long[2];
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    result[0] += attrs.size();
+                    result[1]++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Cannot measure excluded directory " + dir + ": " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * @return Total bytes of the files that will be uploaded
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return The largest uploaded files, largest first
+     */
+    public List<ContentEntry> getLargestFiles() {
+        return largestFiles;
+    }
+
+    /**
+     * @param relativePath Directory path relative to the Contents root
+     * @return Bytes uploaded from that directory and its subdirectories
+     */
+    public long getDirectoryBytes(String relativePath) {
+        Long bytes = directoryBytes.get(relativePath);
+        return bytes == null ? 0 : bytes;
+    }
+
+    /**
+     * Gets the directories with the most uploaded bytes.
+     *
+     * @param limit Maximum number of directories
+     * @param maxDepth Only directories at most this many levels below the root (1 = top level)
+     * @return Relative directory paths, largest first
+     */
+    public List<String> getLargestDirectories(int limit, int maxDepth) {
+        List<String> paths = new ArrayList<>();
+        for (String path : directoryBytes.keySet()) {
+            if (depth(path) <= maxDepth) {
+                paths.add(path);
+            }
+        }
+        paths.sort((a, b) -> {
+            int c = Long.compare(directoryBytes.get(b), directoryBytes.get(a));
+            return c != 0 ? c : a.compareTo(b);
+        });
+        return paths.size() > limit ? new ArrayList<>(paths.subList(0, limit)) : paths;
+    }
+
+    private static int depth(String path) {
+        int depth = 1;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * @return Bytes left out by filtering, including everything inside excluded directories
+     */
+    public long getExcludedBytes() {
+        return excludedBytes;
+    }
+
+    /**
+     * @return Number of files left out by filtering, including files inside excluded directories
+     */
+    public int getExcludedFileCount() {
+        return excludedFiles;
+    }
+
+    /**
+     * Checks the upload against size budgets.
+     *
+     * @param maxTotalBytes Warn if the upload is larger (0 to disable)
+     * @param maxFileBytes Warn about each file larger than this (0 to disable)
+     * @return Human readable warnings, empty if within budget
+     */
+    public List<String> getWarnings(long maxTotalBytes, long maxFileBytes) {
+        List<String> warnings = new ArrayList<>();
+        if (maxTotalBytes > 0 && totalBytes > maxTotalBytes) {
+            warnings.add("Upload is " + FileStager.formatBytes(totalBytes) + ", over the " + FileStager.formatBytes(maxTotalBytes) + " budget");
+        }
+        if (maxFileBytes > 0) {
+            for (ContentEntry entry : largestFiles) {
+                if (entry.getSize() <= maxFileBytes) {
+                    break;
+                }
+                warnings.add(entry.getRelativePath() + " is " + FileStager.formatBytes(entry.getSize()));
+            }
+        }
+        return warnings;
+    }
+
+    /**
+     * @return Report lines for the submit screen: totals, largest files, largest directories
+     */
+    public List<String> getReport() {
+        List<String> lines = new ArrayList<>();
+        lines.add("Upload: " + fileCount + " files, " + FileStager.formatBytes(totalBytes));
+        lines.add("Excluded: " + excludedFiles + " files, " + FileStager.formatBytes(excludedBytes));
+        lines.add("");
+        lines.add("Largest files:");
+        for (ContentEntry entry : largestFiles) {
+            lines.add("  " + FileStager.formatBytes(entry.getSize()) + "  " + entry.getRelativePath());
+        }
+        lines.add("");
+        lines.add("Largest directories:");
+        for (String dir : getLargestDirectories(DEFAULT_TOP_N, 3)) {
+            lines.add("  " + FileStager.formatBytes(directoryBytes.get(dir)) + "  " + dir + "/");
+        }
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return fileCount + " files, " + FileStager.formatBytes(totalBytes) + " (" + FileStager.formatBytes(excludedBytes) + " excluded)";
+    }
+}
@@ -0,0 +1,183 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * One way of placing a source file into the staging tree. {@link FileStager} tries
+ * backends in order and falls back to the next one when a backend fails.
+ * Staged files keep the source's last-modified time. Implementations must be thread-safe.
+ */
+public interface StagingBackend {
+
+    /**
+     * @return Short name for logs, e.g. "hardlink"
+     */
+    String getName();
+
+    /**
+     * @return true if this backend writes the file's bytes (and so counts towards bytes written)
+     */
+    boolean writesData();
+
+    /**
+     * Files smaller than this are left to the next backend, for backends whose fixed cost per
+     * file outweighs what they save on small files.
+     *
+     * @return Minimum file size in bytes, 0 to stage files of any size
+     */
+    default long getMinimumSize() {
+        return 0;
+    }
+
+    /**
+     * Places source at dest. dest does not exist yet and its parent directory does.
+     *
+     * @param source The source file
+     * @param dest The staged file to create
+     * @throws IOException If the file cannot be staged this way
+     */
+    void stage(Path source, Path dest) throws IOException;
+
+    /**
+     * Hard link to the source file. Costs no space or I/O, but needs the staging tree
+     * on the same filesystem, and the staged file shares its inode with the source,
+     * so nothing may write to staged files in place.
+     */
+    StagingBackend HARD_LINK = new StagingBackend() {
+        @Override
+        public String getName() {
+            return "hardlink";
+        }
+
+        @Override
+        public boolean writesData() {
+            return false;
+        }
+
+        @Override
+        public void stage(Path source, Path dest) throws IOException {
+            // link the target, not a symlink pointing to it
+            Files.createLink(dest, source.toRealPath());
+        }
+    };
+
+    /**
+     * Copy-on-write clone (APFS "cp -c", btrfs/XFS "cp --reflink=always"). Shares data
+     * blocks with the source until either side is modified. Not available on Windows.
+     * Every clone spawns a cp process, which costs more than copying a small file outright,
+     * so files under 1 MB are left to the next backend.
+     */
+    StagingBackend CLONE = new StagingBackend() {
+        private static final long MINIMUM_SIZE = 1L << 20;
+
+        private final String[] command = cloneCommand();
+
+        @Override
+        public String getName() {
+            return "clone";
+        }
+
+        @Override
+        public boolean writesData() {
+            return false;
+        }
+
+        @Override
+        public long getMinimumSize() {
+            return MINIMUM_SIZE;
+        }
+
+        @Override
+        public void stage(Path source, Path dest) throws IOException {
+            if (command == null) {
+                throw new IOException("copy-on-write clones are not supported on " + System.getProperty("os.name"));
+            }
+            String[] args = new String[command.length + 2];
+            System.arraycopy(command, 0, args, 0, command.length);
+            args[command.length] = source.toRealPath().toString();
+            args[command.length + 1] = dest.toString();
+
+            Process process = new ProcessBuilder(args).redirectErrorStream(true).start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (InputStream in = process.getInputStream()) {
+                byte[] buffer = new byte[1024];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    output.write(buffer, 0, length);
+                }
+            }
+            int exitCode;
+            try {
+                exitCode = process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while cloning " + source, e);
+            }
+            if (exitCode != 0) {
+                Files.deleteIfExists(dest);
+                throw new IOException("cp exited with " + exitCode + ": " + output.toString().trim());
+            }
+        }
+
+        private String[] cloneCommand() {
+            String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+            if (os.contains("mac")) {
+                return new String[] { "cp", "-c", "-p" };
+            }
+            if (os.contains("linux")) {
+                return new String[] { "cp", "--reflink=always", "--preserve=timestamps" };
+            }
+            return null;
+        }
+    };
+
+    /**
+     * Full copy of the file's bytes. Always works, used as the last resort.
+     * Large files go through {@link FileChannel#transferTo}, which lets the OS move the data
+     * without copying it through Java buffers; small ones through {@link Files#copy}.
+     */
+    StagingBackend COPY = new StagingBackend() {
+        private static final long TRANSFER_THRESHOLD = 1L << 20;
+
+        @Override
+        public String getName() {
+            return "copy";
+        }
+
+        @Override
+        public boolean writesData() {
+            return true;
+        }
+
+        @Override
+        public void stage(Path source, Path dest) throws IOException {
+            if (Files.size(source) < TRANSFER_THRESHOLD) {
+                Files.copy(source, dest, StandardCopyOption.COPY_ATTRIBUTES);
+                return;
+            }
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = in.transferTo(position, size - position, out);
+                    if (transferred == 0) {
+                        // shrunk since its size was read, transferTo would return 0 forever
+                        throw new IOException("Source changed during staging: " + source);
+                    }
+                    position += transferred;
+                }
+            }
+            Files.setLastModifiedTime(dest, Files.getLastModifiedTime(source));
+        }
+    };
+}
@@ -0,0 +1,295 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Deletes staging folders on a low-priority background thread, so Steam callbacks don't wait
+ * for a recursive delete, and sweeps temp staging folders left behind by a crashed game.
+ * <p>
+ * Each temp staging folder gets a lock file next to it (not inside, where it would be uploaded)
+ * holding the owning process's PID and start time. The sweep only deletes folders that are older
+ * than {@link #STALE_AGE_MILLIS} and whose lock is missing or belongs to a process that is gone.
+ * <p>
+ * The same sweep bounds the result caches kept across uploads: entries not written or used for
+ * {@link #CACHE_MAX_AGE_MILLIS} are deleted and get recomputed when they are needed again.
+ */
+final class StagingCleaner {
+    static final String TEMP_STAGING_PREFIX = "zb_workshop_filtered_";
+    static final String LOCK_SUFFIX = ".lock";
+    static final long STALE_AGE_MILLIS = 60 * 60 * 1000L;
+    static final long CACHE_MAX_AGE_MILLIS = 30 * 24 * 60 * 60 * 1000L;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ZBetterWorkshopUpload-cleanup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private StagingCleaner() {
+    }
+
+    /**
+     * Marks a temp staging folder as in use by this process.
+     *
+     * @param stagingDir The staging folder
+     * @throws IOException If the lock file cannot be written
+     */
+    static void lock(Path stagingDir) throws IOException {
+        ProcessHandle self = ProcessHandle.current();
+        long started = self.info().startInstant().map(i -> i.toEpochMilli()).orElse(0L);
+        Files.write(lockFile(stagingDir), (self.pid() + " " + started).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Queues a staging folder (and its lock file) for deletion on the cleanup thread.
+     *
+     * @param stagingDir The staging folder
+     * @return Future completing once the folder is gone
+     */
+    static Future<?> deleteLater(Path stagingDir) {
+        return EXECUTOR.submit(() -> delete(stagingDir));
+    }
+
+    /**
+     * Queues a staging folder for deletion and reports what the deletion took.
+     *
+     * @param stagingDir The staging folder
+     * @param done Called on the cleanup thread with the time, files and bytes of the deletion
+     * @return Future completing once the folder is gone and done has run
+     */
+    static Future<?> deleteLater(Path stagingDir, Consumer<UploadMetrics.PhaseStats> done) {
+        return EXECUTOR.submit(() -> done.accept(delete(stagingDir)));
+    }
+
+    /**
+     * Queues a sweep of orphaned temp staging folders below the given roots, and of old entries
+     * of the given caches.
+     *
+     * @param roots Folders that hold temp staging folders
+     * @param caches Cache folders to trim
+     * @return Future completing with the number of deleted folders and cache entries
+     */
+    static Future<Integer> sweepLater(Collection<Path> roots, Collection<Path> caches) {
+        List<Path> rootsCopy = new ArrayList<>(roots);
+        List<Path> cachesCopy = new ArrayList<>(caches);
+        return EXECUTOR.submit(() -> {
+            int deleted = 0;
+            for (Path root : rootsCopy) {
+                deleted += sweep(root, STALE_AGE_MILLIS, System.currentTimeMillis());
+            }
+            for (Path cache : cachesCopy) {
+                deleted += trimCache(cache, CACHE_MAX_AGE_MILLIS, System.currentTimeMillis());
+            }
+            return deleted;
+        });
+    }
+
+    /**
+     * Deletes a staging folder with its lock and stamps files. Symbolic links are deleted, never followed.
+     *
+     * @param stagingDir The staging folder
+     * @return Time taken and the number and size of the deleted files (those deleted before a failure, if any)
+     */
+    static UploadMetrics.PhaseStats delete(Path stagingDir) {
+        UploadMetrics.PhaseStats stats = new UploadMetrics.PhaseStats();
+        UploadEvents.StagingCleanup event = UploadEvents.beginStagingCleanup();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            if (Files.exists(stagingDir)) {
+                deleteTree(stagingDir, stats);
+            }
+            Files.deleteIfExists(StagingStamps.file(stagingDir));
+            Files.deleteIfExists(lockFile(stagingDir));
+            succeeded = true;
+            System.out.println(String.format("[ZBetterWorkshopUpload] Deleted staging folder %s in %.1f ms", stagingDir, (System.nanoTime() - start) / 1e6));
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Failed to delete staging folder " + stagingDir + ": " + e);
+        }
+        stats.nanos = System.nanoTime() - start;
+        if (event != null) {
+            event.stagingFolder = stagingDir.toString();
+            event.files = stats.files;
+            event.bytes = stats.bytes;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+        return stats;
+    }
+
+    /**
+     * Deletes temp staging folders below a root that no running process owns.
+     *
+     * @param root Folder holding temp staging folders
+     * @param maxAgeMillis Folders modified more recently than this are kept
+     * @param now Current time in milliseconds
+     * @return Number of deleted folders
+     */
+    static int sweep(Path root, long maxAgeMillis, long now) {
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        List<Path> orphans = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root, TEMP_STAGING_PREFIX + "*")) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                String suffix = name.endsWith(LOCK_SUFFIX) ? LOCK_SUFFIX : name.endsWith(StagingStamps.SUFFIX) ? StagingStamps.SUFFIX : null;
+                if (suffix != null) {
+                    Path dir = entry.resolveSibling(name.substring(0, name.length() - suffix.length()));
+                    if (!Files.exists(dir) && isStale(entry, maxAgeMillis, now)) {
+                        orphans.add(entry); // lock or stamps left behind by a delete that didn't finish
+                    }
+                } else if (Files.isDirectory(entry) && isOrphaned(entry, maxAgeMillis, now)) {
+                    orphans.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Cannot sweep staging folders in " + root + ": " + e);
+            return 0;
+        }
+
+        for (Path orphan : orphans) {
+            if (Files.isDirectory(orphan)) {
+                delete(orphan);
+            } else {
+                try {
+                    Files.deleteIfExists(orphan);
+                } catch (IOException e) {
+                    System.err.println("[ZBetterWorkshopUpload] Cannot delete " + orphan + ": " + e);
+                }
+            }
+        }
+        if (!orphans.isEmpty()) {
+            System.out.println("[ZBetterWorkshopUpload] Swept " + orphans.size() + " orphaned staging entries from " + root);
+        }
+        return orphans.size();
+    }
+
+    /**
+     * Deletes the files of a cache folder that were last modified longer ago than the given age.
+     * Caches refresh the mtime of an entry when they use it, where that is safe, so this keeps the
+     * entries in use.
+     *
+     * @param cacheDir The cache folder (need not exist)
+     * @param maxAgeMillis Entries modified more recently than this are kept
+     * @param now Current time in milliseconds
+     * @return Number of deleted entries
+     */
+    static int trimCache(Path cacheDir, long maxAgeMillis, long now) {
+        if (!Files.isDirectory(cacheDir)) {
+            return 0;
+        }
+        int deleted = 0;
+        long bytes = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(cacheDir)) {
+            for (Path entry : entries) {
+                BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isDirectory() || now - attrs.lastModifiedTime().toMillis() <= maxAgeMillis) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(entry);
+                    deleted++;
+                    bytes += attrs.size();
+                } catch (IOException e) {
+                    System.err.println("[ZBetterWorkshopUpload] Cannot delete " + entry + ": " + e);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Cannot trim cache " + cacheDir + ": " + e);
+        }
+        if (deleted > 0) {
+            System.out.println("[ZBetterWorkshopUpload] Trimmed " + deleted + " old entries (" + FileStager.formatBytes(bytes) + ") from " + cacheDir);
+        }
+        return deleted;
+    }
+
+    private static boolean isOrphaned(Path stagingDir, long maxAgeMillis, long now) throws IOException {
+        Path lock = lockFile(stagingDir);
+        if (Files.exists(lock)) {
+            return !isLockHeld(lock) && isStale(lock, maxAgeMillis, now);
+        }
+        // no lock: crashed before writing it, or staged by a version without locks
+        return isStale(stagingDir, maxAgeMillis, now);
+    }
+
+    private static boolean isStale(Path path, long maxAgeMillis, long now) throws IOException {
+        return now - Files.getLastModifiedTime(path).toMillis() > maxAgeMillis;
+    }
+
+    /**
+     * @return true if the process that wrote the lock is still running
+     */
+    static boolean isLockHeld(Path lock) {
+        String[] parts;
+        try {
+            parts = new String(Files.readAllBytes(lock), StandardCharsets.UTF_8).trim().split("\\s+");
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            return true; // can't tell, keep the folder
+        }
+        long pid;
+        long started;
+        try {
+            pid = Long.parseLong(parts[0]);
+            started = parts.length > 1 ? Long.parseLong(parts[1]) : 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        Optional<ProcessHandle> process = ProcessHandle.of(pid);
+        if (!process.isPresent() || !process.get().isAlive()) {
+            return false;
+        }
+        // a reused PID belongs to a process that started later
+        Optional<Long> actualStart = process.get().info().startInstant().map(i -> i.toEpochMilli());
+        return started == 0 || !actualStart.isPresent() || actualStart.get() == started;
+    }
+
+    static Path lockFile(Path stagingDir) {
+        return stagingDir.resolveSibling(stagingDir.getFileName() + LOCK_SUFFIX);
+    }
+
+    private static void deleteTree(Path root, UploadMetrics.PhaseStats stats) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                stats.files++;
+                stats.bytes += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
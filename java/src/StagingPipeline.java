@@ -0,0 +1,320 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stages a list of files on a bounded worker pool. Large files are one task each;
+ * small files are batched so that a tree of thousands of tiny Lua files doesn't pay
+ * a task hand-off per file. Directories must exist before {@link #run()} is called.
+ */
+public final class StagingPipeline {
+    // Files at least this big get their own task
+    static final long LARGE_FILE = 4L << 20;
+    // Limits of one batch of small files
+    static final int BATCH_FILES = 256;
+    static final long BATCH_BYTES = 16L << 20;
+
+    private final FileStager stager;
+    private final int threads;
+    private final FileTransforms transforms;
+    private final List<Job> jobs = new ArrayList<>();
+
+    /**
+     * @param stager Places the files
+     * @param threads Maximum number of worker threads (1 stages on the calling thread)
+     */
+    public StagingPipeline(FileStager stager, int threads) {
+        this(stager, threads, null);
+    }
+
+    /**
+     * @param stager Places the files
+     * @param threads Maximum number of worker threads (1 stages on the calling thread)
+     * @param transforms Transformers for the files of Contents, or null to stage every file as is
+     */
+    public StagingPipeline(FileStager stager, int threads, FileTransforms transforms) {
+        this.stager = stager;
+        this.threads = Math.max(1, threads);
+        this.transforms = transforms;
+    }
+
+    /**
+     * @return The transformers for the files of Contents, or null if there are none
+     */
+    public FileTransforms getTransforms() {
+        return transforms;
+    }
+
+    /**
+     * Queues a file for staging.
+     *
+     * @param source The source file
+     * @param dest The staged file
+     * @param size Size of the source file
+     */
+    public void add(Path source, Path dest, long size) {
+        jobs.add(new Job(source, dest, size, null, null));
+    }
+
+    /**
+     * Queues a file of Contents for staging, through the transformer chosen for its path.
+     *
+     * @param source The source file
+     * @param dest The staged file
+     * @param size Size of the source file
+     * @param relativePath Path of the file relative to Contents
+     * @return The transformer that will rewrite the file, or null if it is staged as is
+     */
+    public FileTransformer addContentsFile(Path source, Path dest, long size, String relativePath) {
+        FileTransformer transformer = transforms == null ? null : transforms.find(relativePath);
+        jobs.add(new Job(source, dest, size, transformer, relativePath));
+        return transformer;
+    }
+
+    /**
+     * @return Staged paths of the queued files, in queue order
+     */
+    public List<Path> getDestinations() {
+        List<Path> destinations = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            destinations.add(job.dest);
+        }
+        return destinations;
+    }
+
+    /**
+     * @return Number of queued files
+     */
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Stages all queued files and waits for them.
+     *
+     * @return Per-file and aggregate timings
+     * @throws IOException The first failure, after all started tasks finished
+     */
+    public Stats run() throws IOException {
+        Stats stats = new Stats(jobs.size());
+        long start = System.nanoTime();
+        List<List<Job>> tasks = partition();
+        try {
+            if (threads == 1 || tasks.size() <= 1) {
+                for (List<Job> task : tasks) {
+                    runTask(task, stats);
+                }
+            } else {
+                runParallel(tasks, stats);
+            }
+        } finally {
+            stats.wallNanos = System.nanoTime() - start;
+        }
+        return stats;
+    }
+
+    private void runParallel(List<List<Job>> tasks, Stats stats) throws IOException {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), r -> {
+            Thread thread = new Thread(r, "ZBetterWorkshopUpload-stage-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(tasks.size());
+            for (List<Job> task : tasks) {
+                futures.add(pool.submit(() -> {
+                    runTask(task, stats);
+                    return null;
+                }));
+            }
+            IOException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while staging", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Large files first (they dominate the wall time), then batches of small ones
+    private List<List<Job>> partition() {
+        List<List<Job>> tasks = new ArrayList<>();
+        List<Job> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (Job job : jobs) {
+            if (job.size >= LARGE_FILE) {
+                tasks.add(Collections.singletonList(job));
+                continue;
+            }
+            batch.add(job);
+            batchBytes += job.size;
+            if (batch.size() >= BATCH_FILES || batchBytes >= BATCH_BYTES) {
+                tasks.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            tasks.add(batch);
+        }
+        tasks.sort(Comparator.comparingLong(StagingPipeline::largestSize).reversed());
+        return tasks;
+    }
+
+    private static long largestSize(List<Job> task) {
+        return task.size() == 1 ? task.get(0).size : 0;
+    }
+
+    private void runTask(List<Job> task, Stats stats) throws IOException {
+        for (Job job : task) {
+            UploadEvents.StageFile event = UploadEvents.beginStageFile();
+            long start = System.nanoTime();
+            StagingBackend backend = job.transformer == null
+                ? stager.stage(job.source, job.dest, job.size)
+                : transforms.stage(job.transformer, job.relativePath, job.source, job.dest, stager);
+            String name = job.transformer == null ? backend.getName() : job.transformer.getCacheKey() + "+" + backend.getName();
+            stats.record(new FileTiming(job.dest, job.size, System.nanoTime() - start, name));
+            if (event != null) {
+                event.source = job.source.toString();
+                event.destination = job.dest.toString();
+                event.bytes = job.size;
+                event.backend = backend.getName();
+                event.transformer = job.transformer == null ? "" : job.transformer.getCacheKey();
+                event.commit();
+            }
+        }
+    }
+
+    private static final class Job {
+        final Path source;
+        final Path dest;
+        final long size;
+        final FileTransformer transformer;
+        final String relativePath; // relative to Contents, for the transformer
+
+        Job(Path source, Path dest, long size, FileTransformer transformer, String relativePath) {
+            this.source = source;
+            this.dest = dest;
+            this.size = size;
+            this.transformer = transformer;
+            this.relativePath = relativePath;
+        }
+    }
+
+    /**
+     * Time spent staging one file.
+     */
+    public static final class FileTiming {
+        public final Path path;
+        public final long bytes;
+        public final long nanos;
+        public final String backend;
+
+        FileTiming(Path path, long bytes, long nanos, String backend) {
+            this.path = path;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.backend = backend;
+        }
+
+        /**
+         * @return Throughput in MB/s (0 for empty or instant files)
+         */
+        public double getMegabytesPerSecond() {
+            return megabytesPerSecond(bytes, nanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s (%s, %s, %.1f ms, %.1f MB/s)",
+                path.getFileName(), FileStager.formatBytes(bytes), backend, nanos / 1e6, getMegabytesPerSecond());
+        }
+    }
+
+    /**
+     * Timings of one pipeline run.
+     */
+    public static final class Stats {
+        private final List<FileTiming> files;
+        private long bytes;
+        private long busyNanos;
+        private long wallNanos;
+
+        Stats(int expectedFiles) {
+            files = new ArrayList<>(expectedFiles);
+        }
+
+        synchronized void record(FileTiming timing) {
+            files.add(timing);
+            bytes += timing.bytes;
+            busyNanos += timing.nanos;
+        }
+
+        /**
+         * @return Per-file timings, in completion order
+         */
+        public synchronized List<FileTiming> getFiles() {
+            return new ArrayList<>(files);
+        }
+
+        /**
+         * @param count Maximum number of files
+         * @return The files that took longest to stage, slowest first
+         */
+        public synchronized List<FileTiming> getSlowest(int count) {
+            List<FileTiming> sorted = new ArrayList<>(files);
+            sorted.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+            return sorted.subList(0, Math.min(count, sorted.size()));
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        public synchronized long getWallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * @return Aggregate throughput over the wall-clock time of the run, in MB/s
+         */
+        public synchronized double getMegabytesPerSecond() {
+            return megabytesPerSecond(bytes, wallNanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.ROOT, "%d files, %s in %.1f ms (%.1f MB/s, %.1f ms busy across workers)",
+                files.size(), FileStager.formatBytes(bytes), wallNanos / 1e6, getMegabytesPerSecond(), busyNanos / 1e6);
+        }
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos <= 0 ? 0 : (bytes / 1048576.0) / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,205 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records where each staged file of Contents came from: the size and mtime of its source, the
+ * size and mtime it was staged with, and how it was produced (transformer and PNG optimizer).
+ * A staged file that was transformed or recompressed has the size and mtime of the output, so
+ * a sync compares the source against the stamp instead; a file is unchanged while both its source
+ * and the staged file still match the stamp and it would be produced the same way.
+ * <p>
+ * Stored as a text file with one "source size TAB source mtime TAB staged size TAB staged mtime
+ * TAB variant TAB path" line per file, next to the staging folder (not inside, where it would
+ * be uploaded). {@link #take} removes the file, and {@link #save} writes it once the staging run
+ * has finished, so a run that fails halfway leaves no stamps and the next sync stages again.
+ * Sources modified within {@link ContentManifest#RACY_MILLIS} of the save are not stamped.
+ * Not thread-safe; stamps are taken before and saved after the pipeline runs.
+ */
+public final class StagingStamps {
+    static final String SUFFIX = ".stamps";
+    private static final String HEADER = "# ZBetterWorkshopUpload staging stamps v1";
+
+    private final Map<String, Stamp> previous;
+    private final boolean optimizePngs;
+    private final TreeMap<String, Stamp> current = new TreeMap<>();
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    private StagingStamps(Map<String, Stamp> previous, boolean optimizePngs) {
+        this.previous = previous;
+        this.optimizePngs = optimizePngs;
+    }
+
+    /**
+     * Loads the stamps of a staging folder and deletes the file until {@link #save}.
+     *
+     * @param stagingDir The staging folder
+     * @param optimizePngs Whether staged PNG files of this run are recompressed
+     * @return The stamps, empty if the file is missing or unreadable
+     * @throws IOException If the file cannot be deleted
+     */
+    public static StagingStamps take(Path stagingDir, boolean optimizePngs) throws IOException {
+        Path file = file(stagingDir);
+        Map<String, Stamp> stamps = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (HEADER.equals(line)) {
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t", 6);
+                    if (parts.length == 6) {
+                        stamps.put(parts[5], new Stamp(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]), parts[4]));
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // staged before, or by a version without stamps
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("[ZBetterWorkshopUpload] Ignoring unreadable staging stamps " + file + ": " + e);
+            stamps.clear();
+        }
+        Files.deleteIfExists(file);
+        return new StagingStamps(stamps, optimizePngs);
+    }
+
+    /**
+     * @param stagingDir The staging folder
+     * @return The stamps file next to it
+     */
+    static Path file(Path stagingDir) {
+        return stagingDir.resolveSibling(stagingDir.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Checks whether a staged file of Contents is still what staging its source would produce,
+     * and keeps its stamp if so. Without a stamp, only a file staged as is can be recognized
+     * (by the staged file having the source's size and mtime).
+     *
+     * @param path Path relative to the item folder
+     * @param source The source file's current attributes
+     * @param staged The staged file's current attributes
+     * @param transformer Transformer the file would be staged through, or null
+     * @return true if the staged file can be kept
+     */
+    public boolean isUnchanged(String path, UploadFileSet.Entry source, ContentEntry staged, FileTransformer transformer) {
+        String variant = variant(path, transformer);
+        Stamp stamp = previous.get(path);
+        if (stamp == null) {
+            return variant.isEmpty() && staged.getSize() == source.size && staged.getLastModified() == source.lastModified;
+        }
+        if (stamp.sourceSize != source.size || stamp.sourceLastModified != source.lastModified || !stamp.variant.equals(variant)
+            || stamp.stagedSize != staged.getSize() || stamp.stagedLastModified != staged.getLastModified()) {
+            return false;
+        }
+        current.put(path, stamp);
+        return true;
+    }
+
+    /**
+     * Records a file of Contents queued for staging. Its stamp is completed by {@link #save},
+     * after the file was staged (and recompressed).
+     *
+     * @param path Path relative to the item folder
+     * @param sourceSize Size of the source when it was listed
+     * @param sourceLastModified Mtime of the source when it was listed
+     * @param dest The staged file
+     * @param transformer Transformer the file is staged through, or null
+     */
+    public void expect(String path, long sourceSize, long sourceLastModified, Path dest, FileTransformer transformer) {
+        pending.put(path, new Pending(sourceSize, sourceLastModified, dest, variant(path, transformer)));
+    }
+
+    /**
+     * Writes the stamps of the files kept and staged by this run, replacing the file atomically
+     * where the filesystem allows.
+     *
+     * @param stagingDir The staging folder
+     * @throws IOException If the file cannot be written
+     */
+    public void save(Path stagingDir) throws IOException {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Pending> e : pending.entrySet()) {
+            Pending p = e.getValue();
+            if (p.sourceLastModified >= now - ContentManifest.RACY_MILLIS) {
+                continue; // an edit in the same clock tick would keep the source's stamp, stage it again next time
+            }
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(p.dest, BasicFileAttributes.class);
+            } catch (NoSuchFileException ex) {
+                continue; // not staged
+            }
+            current.put(e.getKey(), new Stamp(p.sourceSize, p.sourceLastModified, attrs.size(), attrs.lastModifiedTime().toMillis(), p.variant));
+        }
+        pending.clear();
+
+        Path file = file(stagingDir);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Stamp> e : current.entrySet()) {
+                Stamp s = e.getValue();
+                writer.write(s.sourceSize + "\t" + s.sourceLastModified + "\t" + s.stagedSize + "\t" + s.stagedLastModified + "\t" + s.variant + "\t" + e.getKey());
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // How a file is produced from its source, "" if it is staged as is
+    private String variant(String path, FileTransformer transformer) {
+        String variant = transformer == null ? "" : transformer.getCacheKey();
+        if (optimizePngs && path.toLowerCase(Locale.ROOT).endsWith(".png")) {
+            variant = variant.isEmpty() ? "png-v" + PngOptimizer.VERSION : variant + "+png-v" + PngOptimizer.VERSION;
+        }
+        return variant;
+    }
+
+    private static final class Stamp {
+        final long sourceSize;
+        final long sourceLastModified;
+        final long stagedSize;
+        final long stagedLastModified;
+        final String variant;
+
+        Stamp(long sourceSize, long sourceLastModified, long stagedSize, long stagedLastModified, String variant) {
+            this.sourceSize = sourceSize;
+            this.sourceLastModified = sourceLastModified;
+            this.stagedSize = stagedSize;
+            this.stagedLastModified = stagedLastModified;
+            this.variant = variant;
+        }
+    }
+
+    private static final class Pending {
+        final long sourceSize;
+        final long sourceLastModified;
+        final Path dest;
+        final String variant;
+
+        Pending(long sourceSize, long sourceLastModified, Path dest, String variant) {
+            this.sourceSize = sourceSize;
+            this.sourceLastModified = sourceLastModified;
+            this.dest = dest;
+            this.variant = variant;
+        }
+    }
+}
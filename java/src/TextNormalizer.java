@@ -0,0 +1,48 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Normalizes text files: strips a leading UTF-8 byte order mark and turns CRLF line endings into LF.
+ * Works on bytes, so the encoding of the rest of the file does not matter; a lone CR is kept.
+ */
+public final class TextNormalizer implements FileTransformer {
+    // bump when the output for the same input can change, invalidates the cache
+    static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    public String getCacheKey() {
+        return "text-v" + VERSION;
+    }
+
+    @Override
+    public void transform(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] output = new byte[BUFFER_SIZE + 1];
+        int length = in.readNBytes(buffer, 0, 3);
+        int offset = length == 3 && (buffer[0] & 0xff) == 0xEF && (buffer[1] & 0xff) == 0xBB && (buffer[2] & 0xff) == 0xBF ? 3 : 0;
+        boolean pendingCR = false;
+        while (length >= 0) {
+            int count = 0;
+            for (int i = offset; i < length; i++) {
+                byte b = buffer[i];
+                if (pendingCR && b != '\n') {
+                    output[count++] = '\r';
+                }
+                pendingCR = b == '\r';
+                if (!pendingCR) {
+                    output[count++] = b;
+                }
+            }
+            out.write(output, 0, count);
+            length = in.read(buffer);
+            offset = 0;
+        }
+        if (pendingCR) {
+            out.write('\r');
+        }
+    }
+}
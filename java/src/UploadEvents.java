@@ -0,0 +1,262 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events for the I/O and CPU work of an upload: scans, .workshopignore reads,
+ * rule lookups and decisions, staged files, filtered copies and cleanups. A standard recording of
+ * the running game (e.g. -XX:StartFlightRecording, or jcmd &lt;pid&gt; JFR.start) contains them under
+ * the "ZBetterWorkshopUpload" category; the per-entry {@link RuleDecision} event is disabled by
+ * default and has to be enabled in the recording's settings.
+ * <p>
+ * Each begin method returns null when the event is not being recorded (or the runtime has no
+ * jdk.jfr module), so callers only pay for a null check: fill in the fields and commit only if
+ * the returned event is not null.
+ */
+public final class UploadEvents {
+    static final String PREFIX = "zbetter_workshop_upload.";
+    static final String CATEGORY = "ZBetterWorkshopUpload";
+
+    // the game's runtime may be trimmed, never load an event class without jdk.jfr
+    private static final boolean AVAILABLE = isAvailable();
+
+    private UploadEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, UploadEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static IgnoreFileRead beginIgnoreFileRead() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        IgnoreFileRead event = new IgnoreFileRead();
+        return begin(event) ? event : null;
+    }
+
+    static IgnoreRules beginIgnoreRules() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        IgnoreRules event = new IgnoreRules();
+        return begin(event) ? event : null;
+    }
+
+    static RuleDecision beginRuleDecision() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        RuleDecision event = new RuleDecision();
+        return begin(event) ? event : null;
+    }
+
+    static ContentScan beginContentScan() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        ContentScan event = new ContentScan();
+        return begin(event) ? event : null;
+    }
+
+    static StageFile beginStageFile() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        StageFile event = new StageFile();
+        return begin(event) ? event : null;
+    }
+
+    static FilteredCopy beginFilteredCopy() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        FilteredCopy event = new FilteredCopy();
+        return begin(event) ? event : null;
+    }
+
+    static StagingCleanup beginStagingCleanup() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        StagingCleanup event = new StagingCleanup();
+        return begin(event) ? event : null;
+    }
+
+    private static boolean begin(Event event) {
+        if (!event.isEnabled()) {
+            return false;
+        }
+        event.begin();
+        return true;
+    }
+
+    @Name(PREFIX + "IgnoreFileRead")
+    @Label("Ignore File Read")
+    @Category(CATEGORY)
+    @Description("A .workshopignore file read and compiled (a miss of the ignore file cache)")
+    public static final class IgnoreFileRead extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Lines")
+        public int lines;
+
+        @Label("Rules")
+        @Description("Patterns compiled from the file, without blank lines and comments")
+        public int rules;
+    }
+
+    @Name(PREFIX + "IgnoreRules")
+    @Label("Ignore Rules Lookup")
+    @Category(CATEGORY)
+    @Description("The rules in effect for a directory: its .workshopignore (from the cache or read) on top of its parent's rules")
+    public static final class IgnoreRules extends Event {
+        @Label("Directory")
+        public String directory;
+
+        @Label("Relative Path")
+        @Description("Directory relative to Contents, empty for Contents itself")
+        public String relativePath;
+
+        @Label("Own Rules")
+        @Description("Rules of the directory's own .workshopignore, 0 if there is none")
+        public int ownRules;
+
+        @Label("Rules In Effect")
+        public int rules;
+    }
+
+    @Name(PREFIX + "RuleDecision")
+    @Label("Rule Decision")
+    @Category(CATEGORY)
+    @Description("One entry checked against the rules in effect. Very frequent, disabled by default")
+    @Enabled(false)
+    public static final class RuleDecision extends Event {
+        @Label("Path")
+        @Description("Entry path relative to Contents")
+        public String path;
+
+        @Label("Directory")
+        public boolean directory;
+
+        @Label("Excluded")
+        public boolean excluded;
+
+        @Label("Rules In Effect")
+        public int rules;
+    }
+
+    @Name(PREFIX + "ContentScan")
+    @Label("Content Scan")
+    @Category(CATEGORY)
+    @Description("A walk of a Contents folder applying the exclusion rules")
+    public static final class ContentScan extends Event {
+        @Label("Root")
+        public String root;
+
+        @Label("Filtered")
+        public boolean filtered;
+
+        @Label("Threads")
+        public int threads;
+
+        @Label("Files")
+        public int files;
+
+        @Label("Directories")
+        public int directories;
+
+        @Label("Excluded")
+        public int excluded;
+
+        @Label("Size")
+        @Description("Total size of the included files")
+        @DataAmount
+        public long bytes;
+
+        @Label("Ignore File Reads")
+        public long ignoreReads;
+    }
+
+    @Name(PREFIX + "StageFile")
+    @Label("Stage File")
+    @Category(CATEGORY)
+    @Description("One file placed into a staging folder by hard link, clone or copy, after an optional transform")
+    public static final class StageFile extends Event {
+        @Label("Source")
+        public String source;
+
+        @Label("Destination")
+        public String destination;
+
+        @Label("Size")
+        @Description("Size of the source file")
+        @DataAmount
+        public long bytes;
+
+        @Label("Backend")
+        public String backend;
+
+        @Label("Transformer")
+        @Description("Cache key of the transformer that rewrote the file, empty if staged as is")
+        public String transformer;
+    }
+
+    @Name(PREFIX + "FilteredCopy")
+    @Label("Filtered Copy")
+    @Category(CATEGORY)
+    @Description("Creation of the filtered copy of a workshop item for one upload")
+    public static final class FilteredCopy extends Event {
+        @Label("Source")
+        public String source;
+
+        @Label("Staging Folder")
+        public String stagingFolder;
+
+        @Label("Persistent")
+        @Description("Synced into the item's persistent staging folder instead of a new temp folder")
+        public boolean persistent;
+
+        @Label("Pre-Staged")
+        @Description("Picked up a folder staged in the background")
+        public boolean preStaged;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name(PREFIX + "StagingCleanup")
+    @Label("Staging Cleanup")
+    @Category(CATEGORY)
+    @Description("Deletion of a staging folder after an upload, or of one left behind")
+    public static final class StagingCleanup extends Event {
+        @Label("Staging Folder")
+        public String stagingFolder;
+
+        @Label("Files")
+        public long files;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+}
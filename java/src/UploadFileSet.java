@@ -0,0 +1,106 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Everything an upload of a workshop item consists of: the filtered Contents folder plus the
+ * other entries of the item folder (preview.png, workshop.txt, ...) as they are.
+ * Paths are relative to the item folder, parents come before their children, and file
+ * attributes are read fresh (the manifest may predate an in-place edit).
+ */
+public final class UploadFileSet {
+
+    private UploadFileSet() {
+    }
+
+    /**
+     * Lists an item folder.
+     *
+     * @param sourceWorkshopDir The workshop item folder
+     * @param contents Manifest of its Contents folder, or null if it has none
+     * @return Entries keyed by path relative to the item folder (normalized with "/")
+     * @throws IOException If the item folder cannot be listed
+     */
+    public static Map<String, Entry> collect(Path sourceWorkshopDir, ContentManifest contents) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(sourceWorkshopDir)) {
+            for (Path child : children) {
+                String name = child.getFileName().toString();
+                if (!Files.isDirectory(child)) {
+                    addFile(entries, name, child);
+                } else if ("Contents".equals(name)) {
+                    entries.put(name, Entry.DIRECTORY);
+                    if (contents != null) {
+                        addContents(entries, name, contents);
+                    }
+                } else {
+                    entries.put(name, Entry.DIRECTORY);
+                    ContentScanner.scan(child, false, new ContentScanner.Visitor() {
+                        @Override
+                        public void directory(Path dir, String relativePath, BasicFileAttributes attrs) {
+                            entries.put(name + "/" + relativePath, Entry.DIRECTORY);
+                        }
+
+                        @Override
+                        public void file(Path file, String relativePath, BasicFileAttributes attrs) {
+                            entries.put(name + "/" + relativePath, new Entry(file, attrs));
+                        }
+                    });
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void addContents(Map<String, Entry> entries, String prefix, ContentManifest contents) throws IOException {
+        for (ContentEntry entry : contents.getEntries()) {
+            if (!entry.isIncluded()) {
+                continue;
+            }
+            String key = prefix + "/" + entry.getRelativePath();
+            if (entry.isDirectory()) {
+                entries.put(key, Entry.DIRECTORY);
+            } else {
+                addFile(entries, key, contents.getRoot().resolve(entry.getRelativePath()));
+            }
+        }
+    }
+
+    private static void addFile(Map<String, Entry> entries, String key, Path source) throws IOException {
+        try {
+            entries.put(key, new Entry(source, Files.readAttributes(source, BasicFileAttributes.class)));
+        } catch (NoSuchFileException e) {
+            // deleted since it was listed
+        }
+    }
+
+    /**
+     * One file or directory of an upload.
+     */
+    public static final class Entry {
+        static final Entry DIRECTORY = new Entry(null, true, 0, 0);
+
+        public final Path source;
+        public final boolean directory;
+        public final long size;
+        public final long lastModified;
+
+        Entry(Path source, BasicFileAttributes attrs) {
+            this(source, false, attrs.size(), attrs.lastModifiedTime().toMillis());
+        }
+
+        private Entry(Path source, boolean directory, long size, long lastModified) {
+            this.source = source;
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * What was last uploaded successfully for each workshop item ID: a digest of the uploaded files
+ * (see {@link ContentHashIndex#digest()}), of the expanded description and of the staging
+ * configuration that turns the files into what is uploaded (transformers, PNG optimization).
+ * Stored as a properties file: itemId=contentDigest descriptionDigest timestamp configurationDigest.
+ */
+public final class UploadHistory {
+    private final Path file;
+    private final Properties entries = new Properties();
+
+    private UploadHistory(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads a history file.
+     *
+     * @param file The history file (need not exist)
+     * @return The history, empty if the file is missing or unreadable
+     */
+    public static UploadHistory load(Path file) {
+        UploadHistory history = new UploadHistory(file);
+        try (InputStream in = Files.newInputStream(file)) {
+            history.entries.load(in);
+        } catch (NoSuchFileException e) {
+            // no uploads yet
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("[ZBetterWorkshopUpload] Ignoring unreadable upload history " + file + ": " + e);
+            history.entries.clear();
+        }
+        return history;
+    }
+
+    /**
+     * @param state The state about to be uploaded
+     * @return true if the last successful upload of the same item had the same files, description and staging configuration
+     */
+    public synchronized boolean isUnchanged(UploadState state) {
+        String value = entries.getProperty(state.itemId);
+        if (value == null) {
+            return false;
+        }
+        // entries recorded without a configuration digest never match
+        String[] parts = value.split(" ");
+        return parts.length >= 4 && parts[0].equals(state.contentDigest) && parts[1].equals(state.descriptionDigest)
+            && parts[3].equals(state.configurationDigest);
+    }
+
+    /**
+     * Records a successful upload and saves the file.
+     *
+     * @param state The uploaded state
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void record(UploadState state) throws IOException {
+        entries.setProperty(state.itemId, state.contentDigest + " " + state.descriptionDigest + " " + System.currentTimeMillis() + " " + state.configurationDigest);
+        save();
+    }
+
+    /**
+     * Forgets the last successful upload of an item, for an upload whose state is unknown, and
+     * saves the file if it had one.
+     *
+     * @param itemId The item ID
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void forget(String itemId) throws IOException {
+        if (entries.remove(itemId) != null) {
+            save();
+        }
+    }
+
+    private void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            entries.store(out, "ZBetterWorkshopUpload: last successful upload per item");
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Digests of one upload of one item.
+     */
+    public static final class UploadState {
+        public final String itemId;
+        public final String contentDigest;
+        public final String descriptionDigest;
+        public final String configurationDigest;
+
+        /**
+         * @param itemId The workshop item ID
+         * @param contentDigest Digest of the files (see {@link ContentHashIndex#digest()})
+         * @param description The expanded description
+         * @param configuration Description of the staging configuration (see {@link WorkshopContentFilter#getStagingConfiguration})
+         */
+        public UploadState(String itemId, String contentDigest, String description, String configuration) {
+            this.itemId = itemId;
+            this.contentDigest = contentDigest;
+            this.descriptionDigest = digest(description);
+            this.configurationDigest = digest(configuration);
+        }
+
+        private static String digest(String text) {
+            return ContentHashIndex.toHex(ContentHashIndex.newDigest().digest((text == null ? "" : text).getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Durations, counts and bytes of the phases of one upload, from the submit to the cleanup of its
+ * staging folder. Collected on the submit thread (see {@link #current()}) and from the staging and
+ * cleanup results, shown on the submit screen and appended to a JSON-lines history file, so that
+ * upload times can be compared as a mod grows.
+ * <p>
+ * The scan phases describe the scan the upload's manifest came from, which may have been done
+ * earlier for the preview. Staging is the work done on the submit thread, including the wait for
+ * a pre-staged folder; staging finished in the background before the submit is not counted.
+ */
+public final class UploadMetrics {
+    public static final String HISTORY_FILE_NAME = "zb_workshop_metrics.jsonl";
+
+    /**
+     * The measured phases of an upload.
+     */
+    public enum Phase {
+        SCAN("scan"),
+        RULES("rules"),
+        IGNORE_READS("ignoreReads"),
+        STAGING("staging"),
+        DESCRIPTION("description"),
+        CLEANUP("cleanup");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return Name used in the JSON history, e.g. "ignoreReads"
+         */
+        public String key() {
+            return key;
+        }
+    }
+
+    private static final ThreadLocal<UploadMetrics> CURRENT = new ThreadLocal<>();
+    private static final Map<String, UploadMetrics> lastByItem = new LinkedHashMap<String, UploadMetrics>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UploadMetrics> eldest) {
+            return size() > 64;
+        }
+    };
+
+    private final String itemId;
+    private final long startedAt = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final Map<Phase, PhaseStats> phases = new EnumMap<>(Phase.class);
+    private long totalNanos;
+    private String outcome = "pending";
+
+    /**
+     * @param itemId Workshop item ID of the upload
+     */
+    public UploadMetrics(String itemId) {
+        this.itemId = itemId;
+    }
+
+    /**
+     * @return The metrics of the upload being submitted on this thread, or null outside a submit
+     */
+    public static UploadMetrics current() {
+        return CURRENT.get();
+    }
+
+    static void setCurrent(UploadMetrics metrics) {
+        if (metrics == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(metrics);
+        }
+    }
+
+    /**
+     * @param itemId A workshop item ID
+     * @return Metrics of the item's last finished upload in this session, or null
+     */
+    public static UploadMetrics getLast(String itemId) {
+        synchronized (lastByItem) {
+            return lastByItem.get(itemId);
+        }
+    }
+
+    /**
+     * Adds work to a phase.
+     *
+     * @param phase The phase
+     * @param nanos Time spent
+     * @param files Files (or entries) processed
+     * @param bytes Bytes processed
+     */
+    public synchronized void add(Phase phase, long nanos, long files, long bytes) {
+        PhaseStats stats = phases.computeIfAbsent(phase, p -> new PhaseStats());
+        stats.nanos += nanos;
+        stats.files += files;
+        stats.bytes += bytes;
+    }
+
+    /**
+     * Records the scan, rule and ignore-file phases from the scan of the upload's Contents folder.
+     * Replaces earlier scan results, the upload uses one manifest.
+     *
+     * @param stats Statistics of the scan
+     */
+    public synchronized void recordScan(ContentScanner.ScanStats stats) {
+        phases.remove(Phase.SCAN);
+        phases.remove(Phase.RULES);
+        phases.remove(Phase.IGNORE_READS);
+        add(Phase.SCAN, stats.nanos, stats.getEntryCount(), stats.bytes);
+        add(Phase.RULES, stats.ruleNanos, stats.ruleChecks, 0);
+        add(Phase.IGNORE_READS, stats.ignoreReadNanos, stats.ignoreReads, stats.ignoreReadBytes);
+    }
+
+    /**
+     * @param stats Timings of a staging pipeline run done for this upload
+     */
+    public void recordStaging(StagingPipeline.Stats stats) {
+        add(Phase.STAGING, stats.getWallNanos(), stats.getFiles().size(), stats.getBytes());
+    }
+
+    /**
+     * Marks the upload as finished. Later phases (cleanup) may still be added before {@link #complete}.
+     *
+     * @param outcome e.g. "success", "failed", "skipped"
+     */
+    public synchronized void finish(String outcome) {
+        this.outcome = outcome;
+        this.totalNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Publishes the metrics as the item's last upload and appends them to a history file.
+     *
+     * @param historyFile The JSON-lines file (created if missing), or null to skip writing
+     */
+    public void complete(Path historyFile) {
+        synchronized (lastByItem) {
+            lastByItem.put(itemId, this);
+        }
+        System.out.println("[ZBetterWorkshopUpload] Upload metrics: " + this);
+        if (historyFile == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(historyFile.getParent());
+            Files.write(historyFile, (toJson() + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Failed to append upload metrics to " + historyFile + ": " + e.getMessage());
+        }
+    }
+
+    public String getItemId() {
+        return itemId;
+    }
+
+    public synchronized String getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @param phase A phase
+     * @return Its counters, or null if the phase did not run
+     */
+    public synchronized PhaseStats get(Phase phase) {
+        PhaseStats stats = phases.get(phase);
+        return stats == null ? null : stats.copy();
+    }
+
+    /**
+     * @return One line per phase for the submit screen, e.g. "staging: 12.3 ms, 1200 files, 45.0 MB (3658.5 MB/s)"
+     */
+    public synchronized List<String> getLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT, "Last upload of item %s: %s, %.1f ms", itemId, outcome, totalNanos / 1e6));
+        for (Map.Entry<Phase, PhaseStats> e : phases.entrySet()) {
+            lines.add("  " + e.getKey().key() + ": " + e.getValue());
+        }
+        return lines;
+    }
+
+    /**
+     * @return The metrics as one line of JSON
+     */
+    public synchronized String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"time\":\"").append(Instant.ofEpochMilli(startedAt)).append('"');
+        sb.append(",\"itemId\":").append(jsonString(itemId));
+        sb.append(",\"outcome\":").append(jsonString(outcome));
+        sb.append(String.format(Locale.ROOT, ",\"totalMs\":%.3f", totalNanos / 1e6));
+        sb.append(",\"phases\":{");
+        boolean first = true;
+        for (Map.Entry<Phase, PhaseStats> e : phases.entrySet()) {
+            PhaseStats stats = e.getValue();
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(e.getKey().key()).append("\":");
+            sb.append(String.format(Locale.ROOT, "{\"ms\":%.3f,\"files\":%d,\"bytes\":%d,\"mbPerSec\":%.1f}",
+                stats.nanos / 1e6, stats.files, stats.bytes, stats.getMegabytesPerSecond()));
+        }
+        return sb.append("}}").toString();
+    }
+
+    private static String jsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "item %s %s in %.1f ms", itemId, outcome, totalNanos / 1e6));
+        for (Map.Entry<Phase, PhaseStats> e : phases.entrySet()) {
+            sb.append("; ").append(e.getKey().key()).append(' ').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Counters of one phase.
+     */
+    public static final class PhaseStats {
+        public long nanos;
+        public long files;
+        public long bytes;
+
+        /**
+         * @return Throughput in MB/s (0 if no bytes or no time)
+         */
+        public double getMegabytesPerSecond() {
+            return nanos <= 0 ? 0 : (bytes / 1048576.0) / (nanos / 1e9);
+        }
+
+        PhaseStats copy() {
+            PhaseStats copy = new PhaseStats();
+            copy.nanos = nanos;
+            copy.files = files;
+            copy.bytes = bytes;
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            String s = String.format(Locale.ROOT, "%.1f ms, %d files", nanos / 1e6, files);
+            if (bytes > 0) {
+                s += String.format(Locale.ROOT, ", %s (%.1f MB/s)", FileStager.formatBytes(bytes), getMegabytesPerSecond());
+            }
+            return s;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import zombie.core.znet.SteamWorkshopItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads several workshop items unattended: items are staged in parallel as soon as they are
+ * queued, and handed out one at a time, in queue order, for Lua to submit. The next item is only
+ * handed out once the previous upload's own Steam callback has arrived.
+ */
+final class UploadQueue {
+    static final int STAGING_THREADS = 2;
+
+    enum Status {
+        STAGING, STAGED, UPLOADING, DONE, FAILED, SKIPPED;
+
+        boolean isFinished() {
+            return this == DONE || this == FAILED || this == SKIPPED;
+        }
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(STAGING_THREADS, r -> {
+        Thread thread = new Thread(r, "ZBetterWorkshopUpload-queue-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static final List<Entry> entries = new ArrayList<>();
+
+    private UploadQueue() {
+    }
+
+    /**
+     * Queues an item and starts staging it. Items without an ID must be created first.
+     *
+     * @param item The workshop item
+     * @param sourceWorkshopDir The workshop item folder
+     * @param persistentItemId Item ID if staging into its persistent folder, else null
+     * @param mode Staging mode
+     * @return false if the item has no ID or is already queued
+     */
+    static synchronized boolean add(SteamWorkshopItem item, File sourceWorkshopDir, String persistentItemId, String mode) {
+        String itemId = item.getID();
+        if (itemId == null || itemId.isEmpty()) {
+            return false;
+        }
+        for (Entry entry : entries) {
+            if (entry.itemId.equals(itemId) && !entry.status.isFinished()) {
+                return false;
+            }
+        }
+
+        File dir = sourceWorkshopDir.getAbsoluteFile();
+        Entry entry = new Entry(item, itemId, dir, persistentItemId, mode);
+        entry.future = EXECUTOR.submit(() -> {
+            try {
+                // so the unchanged check before submitting and the record after it only stat files
+                WorkshopContentFilter.updateHashIndex(dir);
+            } catch (IOException e) {
+                System.err.println("[ZBetterWorkshopUpload] Failed to update content hash index: " + e.getMessage());
+            }
+            // reuse the background staging started by the submit page, if it is for this item
+            Path stagingDir = PreStager.take(dir, persistentItemId, mode);
+            if (stagingDir == null) {
+                stagingDir = WorkshopContentFilter.stageItem(dir, persistentItemId);
+            }
+            synchronized (UploadQueue.class) {
+                if (entry.status == Status.STAGING) {
+                    entry.status = Status.STAGED;
+                }
+            }
+            return stagingDir;
+        });
+        entries.add(entry);
+        System.out.println("[ZBetterWorkshopUpload] Queued item " + itemId + " for upload (" + entries.size() + " in queue)");
+        return true;
+    }
+
+    /**
+     * Hands out the next item to submit, if nothing is uploading and it is staged.
+     *
+     * @return The item to pass to SubmitWorkshopItem, or null to wait
+     */
+    static synchronized SteamWorkshopItem next() {
+        if (WorkshopContentFilter.getInFlightUploadCount() > 0) {
+            return null;
+        }
+        for (Entry entry : entries) {
+            if (entry.status == Status.UPLOADING) {
+                return null;
+            }
+            if (entry.status == Status.STAGED || (entry.status == Status.STAGING && entry.future.isDone())) {
+                // a failed staging job is staged again synchronously by the submit hook
+                entry.status = Status.UPLOADING;
+                System.out.println("[ZBetterWorkshopUpload] Submitting queued item " + entry.itemId);
+                return entry.item;
+            }
+            if (!entry.status.isFinished()) {
+                return null; // keep queue order
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the staged folder of the queued item that is being submitted.
+     *
+     * @param sourceWorkshopDir The workshop item folder
+     * @param persistentItemId Item ID if staging into its persistent folder, else null
+     * @param mode Staging mode
+     * @return The staging folder, or null if the item is not being submitted from the queue
+     */
+    static Path take(File sourceWorkshopDir, String persistentItemId, String mode) {
+        Entry entry = null;
+        synchronized (UploadQueue.class) {
+            for (Entry e : entries) {
+                if (e.status == Status.UPLOADING && !e.taken && e.matches(sourceWorkshopDir.getAbsoluteFile(), persistentItemId, mode)) {
+                    entry = e;
+                    entry.taken = true;
+                    break;
+                }
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return entry.future.get();
+        } catch (ExecutionException e) {
+            System.err.println("[ZBetterWorkshopUpload] Staging queued item " + entry.itemId + " failed, staging now: " + e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Marks the uploading entry of an item as finished, so the next one can be submitted.
+     * A staged folder that was never handed to the upload is deleted.
+     *
+     * @param itemId The item ID
+     * @param status DONE, FAILED or SKIPPED
+     */
+    static synchronized void finish(String itemId, Status status) {
+        for (Entry entry : entries) {
+            if (entry.status == Status.UPLOADING && entry.itemId.equals(itemId)) {
+                entry.status = status;
+                if (!entry.taken) {
+                    discard(entry);
+                }
+                System.out.println("[ZBetterWorkshopUpload] Queued item " + itemId + ": " + status);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes all entries that are not uploading right now, discarding their staged folders.
+     */
+    static synchronized void clear() {
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.status != Status.UPLOADING) {
+                if (!entry.status.isFinished()) {
+                    discard(entry);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return One line per queued item: title and status
+     */
+    static synchronized List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        for (Entry entry : entries) {
+            String status = entry.status == Status.STAGING && entry.future.isDone() ? "STAGED" : entry.status.name();
+            lines.add(entry.sourceWorkshopDir.getName() + " (" + entry.itemId + "): " + status.toLowerCase());
+        }
+        return lines;
+    }
+
+    /**
+     * @return true if every queued item is finished
+     */
+    static synchronized boolean isIdle() {
+        for (Entry entry : entries) {
+            if (!entry.status.isFinished()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void discard(Entry entry) {
+        entry.taken = true;
+        if (entry.future.cancel(false) || entry.persistentItemId != null) {
+            return; // never started, or staged into the persistent folder which is kept anyway
+        }
+        Future<Path> future = entry.future;
+        EXECUTOR.submit(() -> {
+            try {
+                WorkshopContentFilter.deleteStagingFolder(future.get().toFile());
+            } catch (ExecutionException e) {
+                // failed job, nothing to delete
+            }
+            return null;
+        });
+    }
+
+    private static final class Entry {
+        final SteamWorkshopItem item;
+        final String itemId;
+        final File sourceWorkshopDir;
+        final String persistentItemId;
+        final String mode;
+        Future<Path> future;
+        Status status = Status.STAGING;
+        boolean taken; // staged folder handed to the upload (or discarded)
+
+        Entry(SteamWorkshopItem item, String itemId, File sourceWorkshopDir, String persistentItemId, String mode) {
+            this.item = item;
+            this.itemId = itemId;
+            this.sourceWorkshopDir = sourceWorkshopDir;
+            this.persistentItemId = persistentItemId;
+            this.mode = mode;
+        }
+
+        boolean matches(File dir, String id, String stagingMode) {
+            return sourceWorkshopDir.equals(dir) && Objects.equals(persistentItemId, id) && Objects.equals(mode, stagingMode);
+        }
+    }
+}
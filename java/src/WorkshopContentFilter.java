@@ -4,38 +4,99 @@ import me.zed_0xff.zombie_buddy.Accessor;
 
 import zombie.core.znet.SteamWorkshopItem;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class WorkshopContentFilter {
     // Ignore file name to check
-    private static final String IGNORE_FILE_NAME = ".workshopignore";
+    static final String IGNORE_FILE_NAME = ".workshopignore";
     
-    // Map to track filtered folders by workshop item ID (string)
-    private static final Map<String, FilteredFolderInfo> filteredFoldersByItemId = new HashMap<>();
+    // Submitted uploads waiting for their Steam callback, oldest first. onItemUpdated and
+    // onItemNotUpdated carry no item ID, and Steam reports uploads in the order they were started.
+    private static final Deque<FilteredFolderInfo> inFlightUploads = new ArrayDeque<>();
     
-    // Cache for ignore patterns per directory (maps directory path -> list of patterns)
-    private static final Map<String, List<String>> ignoreFileCache = new HashMap<>();
+    // Bounded cache of compiled ignore rules per directory, validated against the file's mtime and size
+    private static final IgnoreFileCache ignoreFileCache = new IgnoreFileCache(IGNORE_FILE_NAME, IgnoreFileCache.DEFAULT_MAX_ENTRIES);
+    
+    // Whether each item keeps its staging folder between uploads (synced incrementally)
+    private static volatile boolean persistentStaging = false;
+    private static final String PERSISTENT_STAGING_PREFIX = "item_";
+    
+    // Whether duplicate files in Contents are staged as hard links to one staged copy
+    private static volatile boolean dedupeStaging = false;
+    
+    // Whether staged PNG files in Contents are recompressed losslessly, results cached by content hash
+    private static volatile boolean optimizePngs = false;
+    public static final String PNG_CACHE_DIR_NAME = "zb_workshop_png_cache";
+    
+    // File transformers applied to Contents while staging, outputs cached next to the staging folders
+    private static volatile boolean normalizeTextFiles = false;
+    private static volatile boolean dropJavaSources = false;
+    private static volatile Map<String, String> modInfoOverrides = new LinkedHashMap<>();
+    private static final Map<FileTransformer, String[]> registeredTransformers = new LinkedHashMap<>();
+    public static final String TRANSFORM_CACHE_DIR_NAME = "zb_workshop_transform_cache";
+    
+    // Whether items are staged in the background while the submit page is open
+    private static volatile boolean preStaging = true;
+    
+    // How files are placed into the staging tree, see FileStager.forMode
+    private static volatile String stagingMode = FileStager.MODE_AUTO;
+    
+    // Content manifests by absolute Contents path, shared between the preview and the upload
+    private static final int MAX_MANIFESTS = 16;
+    private static final Map<String, ContentManifest> manifestCache = new LinkedHashMap<String, ContentManifest>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ContentManifest> eldest) {
+            return size() > MAX_MANIFESTS;
+        }
+    };
+    
+    // Content hash indexes by index file path, see getHashIndex
+    public static final String HASH_INDEX_DIR_NAME = "zb_workshop_index";
+    private static final Map<String, ContentHashIndex> hashIndexes = new HashMap<>();
+    
+    // Last successful upload per item
+    public static final String UPLOAD_HISTORY_FILE_NAME = "uploads.properties";
+    private static final Map<String, UploadHistory> uploadHistories = new HashMap<>();
+    private static volatile boolean skipUnchangedUploads = false;
+    
+    // Size budgets the submit screen warns about (0 disables a check)
+    private static volatile long uploadSizeWarningBytes = 200L * 1024 * 1024;
+    private static volatile long largeFileWarningBytes = 50L * 1024 * 1024;
     
     // Thread-local to track current SubmitWorkshopItem context
     private static final ThreadLocal<SteamWorkshopItem> submitContext = new ThreadLocal<>();
+    // The in-flight entry added by the submit running on this thread, until exitSubmitContext
+    private static final ThreadLocal<FilteredFolderInfo> submitInfo = new ThreadLocal<>();
+    
+    // Compiled exclusion rules (loaded from mod options). Replaced as a whole, never mutated,
+    // so readers just take the current snapshot without locking.
+    private static volatile FilterRuleSet globalRules;
+    
+    // Number of threads used to scan Contents trees (1 = serial walk)
+    private static volatile int scanParallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
     
-    // Files/patterns to exclude from upload (loaded from mod options)
-    private static final Set<String> EXCLUDED_PATTERNS = new HashSet<>();
-    private static boolean patternsLoaded = false;
+    // Number of threads used to stage files; copying is I/O bound, so a few threads are enough
+    private static volatile int stagingParallelism = defaultStagingParallelism();
     
     // Default patterns (used as fallback)
     private static final String[] DEFAULT_PATTERNS = {
@@ -57,23 +118,20 @@ public class WorkshopContentFilter {
      * @param patternsText Semicolon-separated patterns (e.g., ".git; *.tmp; .DS_Store")
      */
     public static void loadExcludedPatterns(String patternsText) {
-        synchronized (EXCLUDED_PATTERNS) {
-            EXCLUDED_PATTERNS.clear();
-            
-            if (patternsText != null && !patternsText.trim().isEmpty()) {
-                String[] patterns = patternsText.split(";");
-                for (String pattern : patterns) {
-                    pattern = pattern.trim();
-                    if (!pattern.isEmpty()) {
-                        EXCLUDED_PATTERNS.add(pattern);
-                    }
+        List<String> patterns = new ArrayList<>();
+        
+        if (patternsText != null && !patternsText.trim().isEmpty()) {
+            for (String pattern : patternsText.split(";")) {
+                pattern = pattern.trim();
+                if (!pattern.isEmpty()) {
+                    patterns.add(pattern);
                 }
-            } else {
-                addDefaultPatterns();
             }
-            
-            patternsLoaded = true;
+        } else {
+            patterns = Arrays.asList(DEFAULT_PATTERNS);
         }
+        
+        globalRules = FilterRuleSet.compile(patterns);
     }
     
     /**
@@ -82,10 +140,56 @@ public class WorkshopContentFilter {
      * @return Set of exclusion patterns
      */
     public static Set<String> getExcludedPatterns() {
-        ensurePatternsLoaded();
-        synchronized (EXCLUDED_PATTERNS) {
-            return new HashSet<>(EXCLUDED_PATTERNS);
+        return new HashSet<>(getGlobalRules().getPatterns());
+    }
+    
+    /**
+     * Gets the current compiled global rule set. If not loaded from mod options, uses defaults.
+     * 
+     * @return The published rule set snapshot
+     */
+    public static FilterRuleSet getGlobalRules() {
+        FilterRuleSet rules = globalRules;
+        if (rules == null) {
+            synchronized (WorkshopContentFilter.class) {
+                rules = globalRules;
+                if (rules == null) {
+                    rules = FilterRuleSet.compile(Arrays.asList(DEFAULT_PATTERNS));
+                    globalRules = rules;
+                }
+            }
         }
+        return rules;
+    }
+    
+    /**
+     * Sets the number of threads used to scan Contents trees.
+     * 
+     * @param parallelism Thread count; 1 scans serially, 0 or less uses the number of CPU cores
+     */
+    public static void setScanParallelism(int parallelism) {
+        scanParallelism = parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+    
+    public static int getScanParallelism() {
+        return scanParallelism;
+    }
+    
+    /**
+     * Sets the number of threads used to stage files for upload.
+     * 
+     * @param parallelism Thread count; 1 stages serially, 0 or less uses the default (up to 4)
+     */
+    public static void setStagingParallelism(int parallelism) {
+        stagingParallelism = parallelism > 0 ? parallelism : defaultStagingParallelism();
+    }
+    
+    public static int getStagingParallelism() {
+        return stagingParallelism;
+    }
+    
+    private static int defaultStagingParallelism() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
     }
     
     /**
@@ -104,28 +208,48 @@ public class WorkshopContentFilter {
         return sb.toString();
     }
     
-    /**
-     * Ensures patterns are loaded. If not loaded from mod options, uses defaults.
-     */
-    private static void ensurePatternsLoaded() {
-        if (!patternsLoaded) {
-            synchronized (EXCLUDED_PATTERNS) {
-                if (!patternsLoaded) {
-                    addDefaultPatterns();
-                    patternsLoaded = true;
+    private static class PendingUpload {
+        final UploadHistory history;
+        final Future<UploadHistory.UploadState> state; // computed on the pre-staging thread, null if unknown
+        
+        PendingUpload(UploadHistory history, Future<UploadHistory.UploadState> state) {
+            this.history = history;
+            this.state = state;
+        }
+        
+        // Runs on the pre-staging thread, after the state was computed there
+        void record(String itemId) {
+            UploadHistory.UploadState uploaded;
+            try {
+                uploaded = state.get();
+            } catch (ExecutionException e) {
+                System.err.println("[ZBetterWorkshopUpload] Cannot compare with last upload: " + e.getCause());
+                uploaded = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                if (uploaded == null) {
+                    history.forget(itemId);
+                    System.out.println("[ZBetterWorkshopUpload] Files of item " + itemId + " changed while it was submitted, not recording the upload");
+                } else {
+                    history.record(uploaded);
+                    System.out.println("[ZBetterWorkshopUpload] Recorded successful upload of item " + itemId);
                 }
+            } catch (IOException e) {
+                System.err.println("[ZBetterWorkshopUpload] Failed to record upload of item " + itemId + ": " + e.getMessage());
             }
         }
     }
-
-    private static void addDefaultPatterns() {
-        for (String pattern : DEFAULT_PATTERNS) {
-            EXCLUDED_PATTERNS.add(pattern);
-        }
-    }
     
     private static class FilteredFolderInfo {
-        String filteredWorkshopFolder;
+        String itemId;
+        String filteredWorkshopFolder; // null if the original folder is uploaded
+        boolean persistent; // kept after upload and synced incrementally next time
+        PendingUpload pending; // recorded as the last upload on success, null if unknown
+        UploadMetrics metrics;
+        Path metricsHistoryFile;
     }
     
     /**
@@ -163,6 +287,7 @@ public class WorkshopContentFilter {
     
     /**
      * Checks if a file path should be included (doesn't match exclusion patterns).
+     * Only .workshopignore files between basePath and the file's directory are consulted.
      * 
      * @param filePath The file path to check (relative to basePath)
      * @param basePath The base content folder path (absolute) for resolving relative paths
@@ -173,232 +298,470 @@ public class WorkshopContentFilter {
             return false;
         }
         
-        ensurePatternsLoaded();
-        
         // Normalize path separators for matching
         String normalizedPath = filePath.replace("\\", "/");
-        String fileName = new File(filePath).getName();
         
-        // Check against global excluded patterns (from mod options)
-        Set<String> patterns;
-        synchronized (EXCLUDED_PATTERNS) {
-            patterns = new HashSet<>(EXCLUDED_PATTERNS);
+        if (basePath == null || basePath.isEmpty()) {
+            // No root to resolve ignore files against, check global patterns only
+            return !getGlobalRules().matches(normalizedPath);
         }
         
-        for (String pattern : patterns) {
-            if (matchesPattern(normalizedPath, fileName, pattern)) {
+        // Check and push a frame for every directory between the Contents root and the file;
+        // nothing inside an excluded directory can be re-included
+        File baseDir = new File(basePath);
+        IgnoreFrame frame = rootFrame(baseDir);
+        int start = 0;
+        int slash;
+        while ((slash = normalizedPath.indexOf('/', start)) >= 0) {
+            String dirPath = normalizedPath.substring(0, slash);
+            if (frame.isExcluded(dirPath, normalizedPath.substring(start, slash), true)) {
                 return false;
             }
+            frame = frame.enter(new File(baseDir, dirPath), dirPath);
+            start = slash + 1;
         }
         
-        // Check against local ignore files (recursive from file's directory up to root)
-        // Resolve relative path to absolute path using basePath
-        File absoluteFile;
-        if (basePath != null && !basePath.isEmpty()) {
-            absoluteFile = new File(basePath, filePath);
-        } else {
-            absoluteFile = new File(filePath);
+        boolean isDir = new File(baseDir, normalizedPath).isDirectory();
+        return !frame.isExcluded(normalizedPath, normalizedPath.substring(start), isDir);
+    }
+    
+    /**
+     * Creates the root ignore frame for a traversal of a Contents folder.
+     * 
+     * @param contentsRoot The Contents folder
+     * @return Frame holding the global rules plus the root's own .workshopignore
+     */
+    public static IgnoreFrame rootFrame(File contentsRoot) {
+        return IgnoreFrame.root(contentsRoot, getGlobalRules());
+    }
+    
+    /**
+     * Gets the compiled rules of the .workshopignore file in a single directory (cached).
+     * 
+     * @param directory The directory to check
+     * @return Compiled rules, or {@link FilterRuleSet#EMPTY} if there is no ignore file
+     */
+    static FilterRuleSet getIgnoreRules(File directory) {
+        return ignoreFileCache.get(directory);
+    }
+    
+    /**
+     * Gets the rules in effect in a directory, reusing the combination compiled for an earlier
+     * path or scan below the same directory.
+     * 
+     * @param directory The directory
+     * @param inherited Rules in effect in its parent (the global rules for the Contents root)
+     * @param relativePath The directory relative to the Contents root
+     * @return The combined rules
+     */
+    static FilterRuleSet getCombinedIgnoreRules(File directory, FilterRuleSet inherited, String relativePath) {
+        return ignoreFileCache.extend(directory, inherited, relativePath);
+    }
+    
+    /**
+     * @return Total number of stat calls made to look up .workshopignore files
+     */
+    static long getIgnoreFileStatCount() {
+        return ignoreFileCache.getStatCount();
+    }
+    
+    /**
+     * @return Cumulative counters of .workshopignore files read and compiled
+     */
+    static IgnoreFileCache.ReadStats getIgnoreFileReadStats() {
+        return ignoreFileCache.getReadStats();
+    }
+    
+    /**
+     * Clears the ignore file and manifest caches. Not needed for correctness (entries are
+     * validated against the files on disk), only frees memory.
+     */
+    public static void clearIgnoreFileCache() {
+        ignoreFileCache.clear();
+        synchronized (manifestCache) {
+            manifestCache.clear();
         }
-        
-        File dir = absoluteFile.isDirectory() ? absoluteFile : absoluteFile.getParentFile();
-        if (dir != null) {
-            List<String> localPatterns = getIgnorePatternsForPath(dir);
-            for (String pattern : localPatterns) {
-                if (matchesPattern(normalizedPath, fileName, pattern)) {
-                    return false;
-                }
+    }
+    
+    /**
+     * Sets how files are placed into the staging tree.
+     * 
+     * @param mode "auto" (hard link, then copy-on-write clone, then copy), "clone" (clone, then copy) or "copy"
+     */
+    public static void setStagingMode(String mode) {
+        stagingMode = mode == null || mode.trim().isEmpty() ? FileStager.MODE_AUTO : mode.trim().toLowerCase();
+        System.out.println("[ZBetterWorkshopUpload] Staging mode: " + stagingMode);
+    }
+    
+    public static String getStagingMode() {
+        return stagingMode;
+    }
+    
+    /**
+     * Enables or disables persistent staging: each item keeps its staging folder after upload,
+     * and the next upload only stages what changed since.
+     * 
+     * @param enabled true to keep staging folders between uploads
+     */
+    public static void setPersistentStaging(boolean enabled) {
+        persistentStaging = enabled;
+        System.out.println("[ZBetterWorkshopUpload] Persistent staging: " + (enabled ? "on" : "off"));
+    }
+    
+    public static boolean isPersistentStaging() {
+        return persistentStaging;
+    }
+    
+    /**
+     * Gets the content hash index of a workshop item, loading it from disk on first use.
+     * Indexes live in Zomboid/zb_workshop_index, one file per item folder.
+     * 
+     * @param sourceWorkshopDir The workshop item folder
+     * @return The item's index
+     */
+    public static ContentHashIndex getHashIndex(Path sourceWorkshopDir) {
+        Path file = getHashIndexFile(sourceWorkshopDir);
+        synchronized (hashIndexes) {
+            ContentHashIndex index = hashIndexes.get(file.toString());
+            if (index == null) {
+                index = ContentHashIndex.load(file);
+                hashIndexes.put(file.toString(), index);
             }
+            return index;
         }
-        
-        return true;
+    }
+    
+    static Path getHashIndexFile(Path sourceWorkshopDir) {
+        Path itemDir = sourceWorkshopDir.toAbsolutePath().normalize();
+        String name = itemDir.getFileName() == null ? "root" : itemDir.getFileName().toString();
+        return getZomboidDir(itemDir).resolve(HASH_INDEX_DIR_NAME).resolve(name.replaceAll("[^A-Za-z0-9._-]", "_") + ".tsv");
+    }
+    
+    /**
+     * @param sourceWorkshopDir A workshop item folder
+     * @return The JSON-lines file upload metrics are appended to, in the Zomboid folder
+     */
+    static Path getMetricsHistoryFile(Path sourceWorkshopDir) {
+        return getZomboidDir(sourceWorkshopDir.toAbsolutePath().normalize()).resolve(UploadMetrics.HISTORY_FILE_NAME);
+    }
+    
+    // Zomboid/Workshop/<item> -> Zomboid; the system temp folder for items not in a Workshop folder
+    private static Path getZomboidDir(Path itemDir) {
+        Path workshopDir = itemDir.getParent();
+        return workshopDir == null || workshopDir.getParent() == null
+            ? Paths.get(System.getProperty("java.io.tmpdir"))
+            : workshopDir.getParent();
     }
     
     /**
-     * Gets all ignore patterns that apply to a given file/directory path.
-     * Recursively checks parent directories for ignore files.
+     * Updates and saves the content hash index of a workshop item, hashing only files whose
+     * size or mtime changed since the last update.
      * 
-     * @param file The file or directory to check
-     * @return List of patterns from ignore files (most specific first)
+     * @param sourceWorkshopDir The workshop item folder
+     * @return What changed since the last update
+     * @throws IOException If the item cannot be read or the index cannot be written
      */
-    private static List<String> getIgnorePatternsForPath(File file) {
-        List<String> allPatterns = new ArrayList<>();
-        File currentDir = file.isDirectory() ? file : file.getParentFile();
-        
-        if (currentDir == null) {
-            return allPatterns;
-        }
-        
-        // Walk up the directory tree, collecting ignore patterns
-        try {
-            File root = currentDir.getCanonicalFile();
-            File checkDir = root;
-            
-            while (checkDir != null && checkDir.exists()) {
-                // Check cache first
-                String dirPath = checkDir.getCanonicalPath();
-                List<String> cachedPatterns;
-                synchronized (ignoreFileCache) {
-                    cachedPatterns = ignoreFileCache.get(dirPath);
-                }
-                
-                if (cachedPatterns == null) {
-                    // Read ignore files from this directory
-                    cachedPatterns = readIgnoreFiles(checkDir);
-                    synchronized (ignoreFileCache) {
-                        ignoreFileCache.put(dirPath, cachedPatterns);
-                    }
-                }
-                
-                // Add patterns from this directory (most specific first)
-                allPatterns.addAll(0, cachedPatterns);
-                
-                // Move to parent directory
-                File parent = checkDir.getParentFile();
-                if (parent == null || parent.equals(checkDir)) {
-                    break;
-                }
-                checkDir = parent;
+    public static ContentHashIndex.Diff updateHashIndex(File sourceWorkshopDir) throws IOException {
+        File contentsDir = new File(sourceWorkshopDir, "Contents");
+        ContentManifest manifest = contentsDir.isDirectory() ? getContentManifest(contentsDir) : null;
+        ContentHashIndex index = getHashIndex(sourceWorkshopDir.toPath());
+        ContentHashIndex.Diff diff = index.update(UploadFileSet.collect(sourceWorkshopDir.toPath(), manifest));
+        index.save();
+        return diff;
+    }
+    
+    /**
+     * Gets the upload history kept next to the content hash indexes.
+     * 
+     * @param sourceWorkshopDir A workshop item folder
+     * @return The history of that Zomboid folder
+     */
+    static UploadHistory getUploadHistory(Path sourceWorkshopDir) {
+        Path file = getHashIndexFile(sourceWorkshopDir).resolveSibling(UPLOAD_HISTORY_FILE_NAME);
+        synchronized (uploadHistories) {
+            UploadHistory history = uploadHistories.get(file.toString());
+            if (history == null) {
+                history = UploadHistory.load(file);
+                uploadHistories.put(file.toString(), history);
             }
-        } catch (IOException e) {
-            // If we can't get canonical path, just check the immediate directory
-            List<String> patterns = readIgnoreFiles(currentDir);
-            allPatterns.addAll(patterns);
+            return history;
         }
-        
-        return allPatterns;
     }
     
     /**
-     * Reads ignore patterns from .workshopignore file in a directory.
+     * Computes what an upload of the item would send: updates its content hash index and
+     * digests the index, the expanded description and the staging configuration.
      * 
-     * @param directory The directory to check for ignore file
-     * @return List of patterns found in ignore file
+     * @param steamWorkshopItem The workshop item (must have an ID)
+     * @return The state to compare with the last successful upload
+     * @throws IOException If the item cannot be read
      */
-    private static List<String> readIgnoreFiles(File directory) {
-        List<String> patterns = new ArrayList<>();
-        
-        if (directory == null || !directory.isDirectory()) {
-            return patterns;
+    static UploadHistory.UploadState computeUploadState(SteamWorkshopItem steamWorkshopItem) throws IOException {
+        return computeUploadState(new File(getWorkshopFolderPath(steamWorkshopItem)), steamWorkshopItem.getID(), steamWorkshopItem.getSubmitDescription());
+    }
+    
+    private static UploadHistory.UploadState computeUploadState(File sourceWorkshopDir, String itemId, String description) throws IOException {
+        ContentHashIndex.Diff diff = updateHashIndex(sourceWorkshopDir);
+        System.out.println("[ZBetterWorkshopUpload] Content index of " + sourceWorkshopDir.getName() + ": " + diff);
+        String contentDigest = getHashIndex(sourceWorkshopDir.toPath()).digest();
+        return new UploadHistory.UploadState(itemId, contentDigest, description, getStagingConfiguration(sourceWorkshopDir.toPath()));
+    }
+    
+    /**
+     * Computes the state of a submitted upload from the files listed when it was submitted.
+     * Runs on the pre-staging thread, so the submit never waits for hashing.
+     * 
+     * @param sourceWorkshopDir The workshop item folder
+     * @param files The item's files when it was submitted (see {@link UploadFileSet#collect})
+     * @param itemId The item ID
+     * @param description The submitted expanded description
+     * @param configuration The staging configuration of the submit
+     * @return The state, or null if a file changed since it was listed (what was hashed may not be what was staged)
+     * @throws IOException If a file cannot be read or the index cannot be written
+     */
+    static UploadHistory.UploadState computeSubmittedState(File sourceWorkshopDir, Map<String, UploadFileSet.Entry> files, String itemId,
+            String description, String configuration) throws IOException {
+        ContentHashIndex index = getHashIndex(sourceWorkshopDir.toPath());
+        String contentDigest;
+        synchronized (index) {
+            ContentHashIndex.Diff diff = index.update(files);
+            contentDigest = index.digest();
+            System.out.println("[ZBetterWorkshopUpload] Content index of " + sourceWorkshopDir.getName() + " at submit: " + diff);
         }
-        
-        File ignoreFile = new File(directory, IGNORE_FILE_NAME);
-        if (ignoreFile.exists() && ignoreFile.isFile()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(ignoreFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    line = line.trim();
-                    // Skip empty lines and comments
-                    if (line.isEmpty() || line.startsWith("#")) {
-                        continue;
-                    }
-                    patterns.add(line);
+        index.save();
+        for (UploadFileSet.Entry entry : files.values()) {
+            if (entry.directory) {
+                continue;
+            }
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(entry.source, BasicFileAttributes.class);
+                if (attrs.size() != entry.size || attrs.lastModifiedTime().toMillis() != entry.lastModified) {
+                    return null;
                 }
-            } catch (IOException e) {
-                System.err.println("[ZBetterWorkshopUpload] Failed to read ignore file: " + ignoreFile.getAbsolutePath());
-                e.printStackTrace();
+            } catch (NoSuchFileException e) {
+                return null;
             }
         }
-        
-        return patterns;
+        UploadHistory.UploadState state = new UploadHistory.UploadState(itemId, contentDigest, description, configuration);
+        if (getUploadHistory(sourceWorkshopDir.toPath()).isUnchanged(state)) {
+            System.out.println("[ZBetterWorkshopUpload] WARNING: files and description of item " + itemId + " are unchanged since the last successful upload");
+        }
+        return state;
     }
     
     /**
-     * Clears the ignore file cache. Useful when ignore files might have changed.
+     * Describes how staging turns the files of an item into what is uploaded: the active file
+     * transformers with their globs and the PNG optimizer version, if enabled. The same files
+     * staged under another configuration upload different content.
+     * 
+     * @param sourceWorkshopDir The workshop item folder
+     * @return The configuration, e.g. "text-v1 *.txt *.lua; png-v1"
      */
-    public static void clearIgnoreFileCache() {
-        synchronized (ignoreFileCache) {
-            ignoreFileCache.clear();
+    static String getStagingConfiguration(Path sourceWorkshopDir) {
+        // the cache folder is never touched, the transforms are only described
+        FileTransforms transforms = buildTransforms(sourceWorkshopDir, sourceWorkshopDir);
+        String configuration = transforms == null ? "" : transforms.getDescription();
+        if (optimizePngs) {
+            configuration += (configuration.isEmpty() ? "" : "; ") + "png-v" + PngOptimizer.VERSION;
         }
+        return configuration;
     }
     
     /**
-     * Checks if a file path or filename matches a pattern with wildcards.
-     * Supports "*" wildcards anywhere in the pattern.
+     * Checks whether the filtered files and expanded description of an item are the same as in
+     * its last successful upload. Hashes the files changed since the item's content index was
+     * last updated, so the submit page leaves this to the pre-staging thread, see
+     * {@link #getUnchangedStatus}.
      * 
-     * @param filePath The full file path (normalized with "/")
-     * @param fileName The filename only
-     * @param pattern The pattern to match (may contain "*" wildcards)
-     * @return true if the path matches the pattern
+     * @param steamWorkshopItem The workshop item
+     * @return true if uploading again would change nothing; false if it would, or if unknown
      */
-    private static boolean matchesPattern(String filePath, String fileName, String pattern) {
-        if (pattern == null || pattern.isEmpty()) {
+    public static boolean isUnchangedSinceLastUpload(SteamWorkshopItem steamWorkshopItem) {
+        String itemId = steamWorkshopItem.getID();
+        String folder = getWorkshopFolderPath(steamWorkshopItem);
+        if (itemId == null || itemId.isEmpty() || folder == null) {
             return false;
         }
+        try {
+            return isUnchangedSinceLastUpload(new File(folder), itemId, steamWorkshopItem.getSubmitDescription());
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Cannot compare with last upload: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    static boolean isUnchangedSinceLastUpload(File sourceWorkshopDir, String itemId, String description) throws IOException {
+        return getUploadHistory(sourceWorkshopDir.toPath()).isUnchanged(computeUploadState(sourceWorkshopDir, itemId, description));
+    }
+    
+    /**
+     * Gets the result of the background comparison started by {@link #startPreStaging}, without
+     * waiting for it.
+     * 
+     * @param steamWorkshopItem The workshop item shown on the submit page
+     * @return "unchanged" or "changed" once compared, "checking" while the comparison runs,
+     *         "unknown" if none was started for this item
+     */
+    public static String getUnchangedStatus(SteamWorkshopItem steamWorkshopItem) {
+        String itemId = steamWorkshopItem.getID();
+        String folder = getWorkshopFolderPath(steamWorkshopItem);
+        if (itemId == null || itemId.isEmpty() || folder == null) {
+            return "unknown";
+        }
+        return PreStager.getUnchangedStatus(new File(folder), itemId);
+    }
+    
+    /**
+     * Sets whether Lua skips submitting an unchanged item (true) or only warns about it (false).
+     * 
+     * @param enabled true to skip unchanged uploads
+     */
+    public static void setSkipUnchangedUploads(boolean enabled) {
+        skipUnchangedUploads = enabled;
+    }
+    
+    public static boolean isSkipUnchangedUploads() {
+        return skipUnchangedUploads;
+    }
+    
+    /**
+     * Finishes the oldest upload in flight: records it as the item's last successful upload and
+     * deletes its temp staging folder in the background. Other uploads in flight are not touched.
+     * Called from onItemUpdated and onItemNotUpdated.
+     * 
+     * @param success Whether Steam accepted the upload
+     */
+    public static void onUploadFinished(boolean success) {
+        FilteredFolderInfo info;
+        synchronized (inFlightUploads) {
+            info = inFlightUploads.pollFirst();
+        }
+        if (info == null) {
+            System.out.println("[ZBetterWorkshopUpload] Upload finished, but none was in flight");
+            return;
+        }
+        finishUpload(info, success);
+    }
+    
+    private static void finishUpload(FilteredFolderInfo info, boolean success) {
+        System.out.println("[ZBetterWorkshopUpload] Upload of item " + info.itemId + (success ? " succeeded" : " failed"));
         
-        // Convert pattern with wildcards to regex
-        String regexPattern = patternToRegex(pattern);
+        if (success && info.pending != null) {
+            // queued after the state's computation on the same thread
+            PendingUpload pending = info.pending;
+            PreStager.submit(() -> {
+                pending.record(info.itemId);
+                return null;
+            });
+        }
         
-        try {
-            // Check filename
-            if (fileName.matches(regexPattern)) {
-                return true;
-            }
-            
-            // Check full path
-            if (filePath.matches(regexPattern)) {
-                return true;
-            }
-            
-            // Check if pattern appears as a directory in the path
-            // (for patterns without wildcards, check if it's a directory segment)
-            if (!pattern.contains("*")) {
-                // For non-wildcard patterns, check if it appears as a directory segment
-                if (filePath.contains("/" + pattern + "/") || filePath.endsWith("/" + pattern) ||
-                    filePath.startsWith(pattern + "/")) {
-                    return true;
-                }
+        UploadMetrics metrics = info.metrics;
+        if (metrics != null) {
+            metrics.finish(success ? "success" : "failed");
+        }
+        boolean cleanupQueued = false;
+        if (info.filteredWorkshopFolder != null) {
+            if (info.persistent) {
+                System.out.println("[ZBetterWorkshopUpload] Keeping persistent staging folder for item " + info.itemId + ": " + info.filteredWorkshopFolder);
             } else {
-                // For wildcard patterns, check if any path segment matches
-                String[] pathSegments = filePath.split("/");
-                for (String segment : pathSegments) {
-                    if (segment.matches(regexPattern)) {
-                        return true;
-                    }
+                // Delete the entire temp directory, not just Contents, off the Steam callback thread
+                File filteredWorkshopDir = new File(info.filteredWorkshopFolder).getParentFile();
+                if (filteredWorkshopDir != null) {
+                    StagingCleaner.deleteLater(filteredWorkshopDir.toPath(), cleanup -> {
+                        if (metrics != null) {
+                            metrics.add(UploadMetrics.Phase.CLEANUP, cleanup.nanos, cleanup.files, cleanup.bytes);
+                            metrics.complete(info.metricsHistoryFile);
+                        }
+                    });
+                    cleanupQueued = true;
+                    System.out.println("[ZBetterWorkshopUpload] Queued cleanup of filtered folder for item " + info.itemId + ": " + filteredWorkshopDir.getAbsolutePath());
                 }
             }
-        } catch (Exception e) {
-            // If regex is invalid, fall back to simple string matching
-            if (filePath.contains(pattern) || fileName.contains(pattern)) {
-                return true;
-            }
         }
-        
-        return false;
+        if (metrics != null && !cleanupQueued) {
+            metrics.complete(info.metricsHistoryFile);
+        }
+        UploadQueue.finish(info.itemId, success ? UploadQueue.Status.DONE : UploadQueue.Status.FAILED);
     }
     
     /**
-     * Converts a pattern with "*" wildcards to a Java regex pattern.
-     * "*" matches any sequence of characters (except path separators in directory context).
+     * @return Number of submitted uploads still waiting for their Steam callback
+     */
+    public static int getInFlightUploadCount() {
+        synchronized (inFlightUploads) {
+            return inFlightUploads.size();
+        }
+    }
+    
+    /**
+     * Gets the last manifest built for a Contents folder without checking it against the disk.
+     * Meant for paging through a list that was validated when it was first shown.
      * 
-     * @param pattern The pattern with wildcards
-     * @return A regex pattern string
+     * @param contentsRoot The Contents folder
+     * @return The cached manifest, or null if none
      */
-    private static String patternToRegex(String pattern) {
-        // Escape special regex characters except *
-        StringBuilder regex = new StringBuilder();
-        for (int i = 0; i < pattern.length(); i++) {
-            char c = pattern.charAt(i);
-            if (c == '*') {
-                regex.append(".*");
-            } else if (c == '.' || c == '+' || c == '?' || c == '^' || c == '$' || 
-                       c == '[' || c == ']' || c == '(' || c == ')' || c == '{' || 
-                       c == '}' || c == '|' || c == '\\') {
-                regex.append("\\").append(c);
-            } else {
-                regex.append(c);
-            }
+    public static ContentManifest getCachedContentManifest(File contentsRoot) {
+        String key = contentsRoot.toPath().toAbsolutePath().normalize().toString();
+        synchronized (manifestCache) {
+            return manifestCache.get(key);
         }
-        return regex.toString();
+    }
+    
+    /**
+     * Gets the content manifest of a Contents folder, reusing the cached one if the pattern set
+     * and the tree haven't changed since it was built, otherwise scanning again.
+     * 
+     * @param contentsRoot The Contents folder
+     * @return The manifest
+     * @throws IOException If the tree cannot be scanned
+     */
+    public static ContentManifest getContentManifest(File contentsRoot) throws IOException {
+        String key = contentsRoot.toPath().toAbsolutePath().normalize().toString();
+        ContentManifest manifest;
+        synchronized (manifestCache) {
+            manifest = manifestCache.get(key);
+        }
+        if (manifest != null && manifest.isValid()) {
+            return manifest;
+        }
+        
+        manifest = ContentManifest.build(contentsRoot.toPath());
+        System.out.println("[ZBetterWorkshopUpload] Scanned " + contentsRoot + ": " + manifest.getStats());
+        synchronized (manifestCache) {
+            manifestCache.put(key, manifest);
+        }
+        return manifest;
+    }
+    
+    /**
+     * Checks if a file path or filename matches a pattern with wildcards.
+     * Supports "*" wildcards anywhere in the pattern.
+     * Compiles the pattern on every call; use {@link FilterRuleSet} for repeated matching.
+     * 
+     * @param filePath The full file path (normalized with "/")
+     * @param fileName The filename only
+     * @param pattern The pattern to match (may contain "*" wildcards)
+     * @return true if the path matches the pattern
+     */
+    static boolean matchesPattern(String filePath, String fileName, String pattern) {
+        return FilterRuleSet.matchesPattern(filePath, fileName, pattern);
     }
     
     /**
      * Enters SubmitWorkshopItem context and prepares filtered content.
+     * Every submit of an item with an ID gets exactly one in-flight entry, also when preparing it
+     * fails, so that each Steam callback finishes the upload it belongs to; a submit that Steam
+     * rejects right away drops its entry again in {@link #exitSubmitContext}. Unchanged items are never skipped here;
+     * Lua checks {@link #isUnchangedSinceLastUpload} before submitting.
      * 
      * @param steamWorkshopItem The workshop item being submitted
      */
     public static void enterSubmitContext(SteamWorkshopItem steamWorkshopItem) {
+        // Tracks the upload until its own callback arrives
+        FilteredFolderInfo info = new FilteredFolderInfo();
         try {
             String itemId = steamWorkshopItem.getID();
+            info.itemId = itemId;
             if (itemId == null) {
                 System.err.println("[ZBetterWorkshopUpload] Workshop item has no ID, cannot track for cleanup");
                 return;
@@ -408,38 +771,84 @@ public class WorkshopContentFilter {
             String originalWorkshopFolder = getWorkshopFolderPath(steamWorkshopItem);
             System.out.println("[ZBetterWorkshopUpload] Original workshop folder: " + originalWorkshopFolder);
             
-            // Create filtered copy of entire workshop folder
-            String filteredFolder = createFilteredCopy(originalWorkshopFolder);
-            if (filteredFolder == null) {
-                System.out.println("[ZBetterWorkshopUpload] Failed to create filtered copy, using original");
-                return;
+            // Collects the phases of this upload done on this thread, until exitSubmitContext
+            UploadMetrics metrics = new UploadMetrics(itemId);
+            UploadMetrics.setCurrent(metrics);
+            info.metrics = metrics;
+            info.metricsHistoryFile = getMetricsHistoryFile(new File(originalWorkshopFolder).toPath());
+            
+            // Record what is uploaded: the files are listed now and hashed on the pre-staging thread
+            PendingUpload pending = null;
+            try {
+                File sourceWorkshopDir = new File(originalWorkshopFolder);
+                File contentsDir = new File(sourceWorkshopDir, "Contents");
+                Map<String, UploadFileSet.Entry> files = UploadFileSet.collect(sourceWorkshopDir.toPath(),
+                    contentsDir.isDirectory() ? getContentManifest(contentsDir) : null);
+                String description = steamWorkshopItem.getSubmitDescription();
+                String configuration = getStagingConfiguration(sourceWorkshopDir.toPath());
+                pending = new PendingUpload(getUploadHistory(sourceWorkshopDir.toPath()),
+                    PreStager.submit(() -> computeSubmittedState(sourceWorkshopDir, files, itemId, description, configuration)));
+            } catch (IOException e) {
+                System.err.println("[ZBetterWorkshopUpload] Cannot compare with last upload: " + e.getMessage());
             }
             
-            // Store info for cleanup (keyed by item ID)
-            FilteredFolderInfo info = new FilteredFolderInfo();
+            info.pending = pending;
+            
+            // Create filtered copy of entire workshop folder
+            boolean persistent = persistentStaging;
+            info.persistent = persistent;
+            String filteredFolder = createFilteredCopy(originalWorkshopFolder, persistent ? itemId : null);
             info.filteredWorkshopFolder = filteredFolder;
             
-            // Store for cleanup after upload completes
-            synchronized (filteredFoldersByItemId) {
-                filteredFoldersByItemId.put(itemId, info);
+            if (filteredFolder == null) {
+                System.out.println("[ZBetterWorkshopUpload] Failed to create filtered copy, using original");
+                return;
             }
             
             // Set thread-local context so getContentFolder() knows to return filtered path
             submitContext.set(steamWorkshopItem);
             
             System.out.println("[ZBetterWorkshopUpload] Using filtered folder: " + filteredFolder);
-            System.out.println("[ZBetterWorkshopUpload] Will clean up filtered folder when upload completes for item ID: " + itemId);
+            if (!persistent) {
+                System.out.println("[ZBetterWorkshopUpload] Will clean up filtered folder when upload completes for item ID: " + itemId);
+            }
         } catch (Exception e) {
             System.err.println("[ZBetterWorkshopUpload] Error in enterSubmitContext: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            // without an ID Steam rejects the submit, no callback will come
+            if (info.itemId != null) {
+                synchronized (inFlightUploads) {
+                    inFlightUploads.addLast(info);
+                }
+                submitInfo.set(info);
+            }
         }
     }
     
     /**
-     * Exits SubmitWorkshopItem context.
+     * Exits SubmitWorkshopItem context. A submit that returned false never gets a Steam callback,
+     * so its in-flight entry is removed and finished as failed right away: its temp staging folder
+     * is released and a queued item is marked failed, letting the queue move on.
+     * 
+     * @param submitted The result of SubmitWorkshopItem
      */
-    public static void exitSubmitContext() {
+    public static void exitSubmitContext(boolean submitted) {
+        FilteredFolderInfo info = submitInfo.get();
+        submitInfo.remove();
         submitContext.remove();
+        UploadMetrics.setCurrent(null);
+        if (submitted || info == null) {
+            return;
+        }
+        boolean removed;
+        synchronized (inFlightUploads) {
+            removed = inFlightUploads.removeLastOccurrence(info);
+        }
+        if (removed) {
+            System.out.println("[ZBetterWorkshopUpload] Steam rejected the submit of item " + info.itemId);
+            finishUpload(info, false);
+        }
     }
     
     /**
@@ -460,13 +869,15 @@ public class WorkshopContentFilter {
             return null;
         }
         
-        FilteredFolderInfo info;
-        synchronized (filteredFoldersByItemId) {
-            info = filteredFoldersByItemId.get(itemId);
-        }
-        
-        if (info != null && info.filteredWorkshopFolder != null) {
-            return info.filteredWorkshopFolder;
+        // The upload being submitted right now is the newest one in flight for this item
+        synchronized (inFlightUploads) {
+            Iterator<FilteredFolderInfo> it = inFlightUploads.descendingIterator();
+            while (it.hasNext()) {
+                FilteredFolderInfo info = it.next();
+                if (itemId.equals(info.itemId)) {
+                    return info.filteredWorkshopFolder;
+                }
+            }
         }
         
         return null;
@@ -483,49 +894,22 @@ public class WorkshopContentFilter {
         return Accessor.tryGet(steamWorkshopItem, "workshopFolder", null);
     }
     
-    /**
-     * Cleans up all pending filtered folders. Called when upload completes.
-     */
-    public static void cleanupAllPendingFolders() {
-        synchronized (filteredFoldersByItemId) {
-            if (filteredFoldersByItemId.isEmpty()) {
-                return;
-            }
-            
-            // Clean up all pending filtered folders
-            for (Map.Entry<String, FilteredFolderInfo> entry : filteredFoldersByItemId.entrySet()) {
-                String itemId = entry.getKey();
-                FilteredFolderInfo info = entry.getValue();
-                
-                try {
-                    // Clean up filtered folder (delete the entire temp directory, not just Contents)
-                    File filteredContentDir = new File(info.filteredWorkshopFolder);
-                    File filteredWorkshopDir = filteredContentDir.getParentFile();
-                    if (filteredWorkshopDir != null && filteredWorkshopDir.exists()) {
-                        deleteDirectory(filteredWorkshopDir);
-                        System.out.println("[ZBetterWorkshopUpload] Cleaned up filtered folder for item " + itemId + ": " + filteredWorkshopDir.getAbsolutePath());
-                    }
-                } catch (Exception e) {
-                    System.err.println("[ZBetterWorkshopUpload] Failed to clean up filtered folder for item " + itemId + ": " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }
-            
-            // Clear all entries
-            filteredFoldersByItemId.clear();
-            System.out.println("[ZBetterWorkshopUpload] Cleaned up all pending filtered folders");
-        }
-    }
-    
     /**
      * Creates a filtered copy of the entire workshop folder.
      * Copies all files and folders from the workshop folder, but applies filtering
-     * only to the Contents subfolder.
+     * only to the Contents subfolder. Picks up the folder pre-staged in the background
+     * for this item if there is one, bringing it up to date incrementally.
      * 
      * @param sourceWorkshopFolder The source workshop folder path
+     * @param persistentItemId Item ID to sync that item's persistent staging folder, or null for a new temp folder
      * @return The filtered Contents folder path (for compatibility with existing code)
      */
-    private static String createFilteredCopy(String sourceWorkshopFolder) {
+    private static String createFilteredCopy(String sourceWorkshopFolder, String persistentItemId) {
+        UploadEvents.FilteredCopy event = UploadEvents.beginFilteredCopy();
+        if (event != null) {
+            event.source = sourceWorkshopFolder;
+            event.persistent = persistentItemId != null;
+        }
         try {
             File sourceWorkshopDir = new File(sourceWorkshopFolder);
             if (!sourceWorkshopDir.exists() || !sourceWorkshopDir.isDirectory()) {
@@ -533,151 +917,462 @@ public class WorkshopContentFilter {
                 return null;
             }
             
-            // Create temp directory for filtered copy
-            File tempDir = Files.createTempDirectory("zb_workshop_filtered_").toFile();
-            System.out.println("[ZBetterWorkshopUpload] Creating filtered copy in: " + tempDir.getAbsolutePath());
-            
-            // Copy files with filtering
-            ensurePatternsLoaded();
-            Set<String> patterns;
-            synchronized (EXCLUDED_PATTERNS) {
-                patterns = new HashSet<>(EXCLUDED_PATTERNS);
+            long waitStart = System.nanoTime();
+            Path stagingDir = UploadQueue.take(sourceWorkshopDir, persistentItemId, stagingMode);
+            if (stagingDir == null) {
+                stagingDir = PreStager.take(sourceWorkshopDir, persistentItemId, stagingMode);
             }
-            
-            // Counter to track kept and removed items in Contents folder
-            int[] keptCount = new int[1]; // Use array to allow modification in nested class
-            int[] removedCount = new int[1];
-            
-            // FileFilter for Contents folder - applies filtering
-            FileFilter contentsFilter = new FileFilter() {
-                @Override
-                public boolean accept(File pathname) {
-                    // Use shouldIncludePath which checks both global patterns and local ignore files
-                    // pathname is already absolute, so we need to get relative path for matching
-                    File sourceContentsDir = new File(sourceWorkshopDir, "Contents");
-                    String absolutePath = pathname.getAbsolutePath();
-                    String relativePath = sourceContentsDir.toPath().relativize(pathname.toPath()).toString().replace("\\", "/");
-                    boolean shouldInclude = shouldIncludePath(relativePath, sourceContentsDir.getAbsolutePath());
-                    
-                    if (shouldInclude) {
-                        keptCount[0]++;
-                    } else {
-                        removedCount[0]++;
-                    }
-                    
-                    return shouldInclude;
-                }
-            };
-            
-            // Copy all files and folders from workshop folder
-            File[] files = sourceWorkshopDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    File destFile = new File(tempDir, file.getName());
-                    
-                    if (file.isDirectory()) {
-                        if ("Contents".equals(file.getName())) {
-                            // Apply filtering to Contents folder
-                            File filteredContentsDir = new File(tempDir, "Contents");
-                            filteredContentsDir.mkdirs();
-                            copyDirectoryFiltered(file, filteredContentsDir, contentsFilter);
-                        } else {
-                            // Copy other directories without filtering
-                            copyDirectoryUnfiltered(file, destFile);
-                        }
-                    } else {
-                        // Copy files (like preview.png, workshop.txt) without filtering
-                        copyFile(file, destFile);
-                    }
+            UploadMetrics metrics = UploadMetrics.current();
+            if (metrics != null) {
+                // time spent waiting for a folder staged in the background
+                metrics.add(UploadMetrics.Phase.STAGING, System.nanoTime() - waitStart, 0, 0);
+            }
+            if (stagingDir != null) {
+                // Files edited since pre-staging are re-staged, usually nothing is left to do
+                System.out.println("[ZBetterWorkshopUpload] Using pre-staged folder: " + stagingDir);
+                if (event != null) {
+                    event.preStaged = true;
                 }
+                syncStagingFolder(sourceWorkshopDir, stagingDir);
+            } else {
+                stagingDir = stageItem(sourceWorkshopDir, persistentItemId);
             }
-            
-            File filteredContentDir = new File(tempDir, "Contents");
-            System.out.println("[ZBetterWorkshopUpload] Filtered copy created successfully - kept " + keptCount[0] + " items, removed " + removedCount[0] + " items from Contents");
-            return filteredContentDir.getAbsolutePath();
+            if (event != null) {
+                event.stagingFolder = stagingDir.toString();
+                event.succeeded = true;
+            }
+            return stagingDir.resolve("Contents").toAbsolutePath().toString();
         } catch (Exception e) {
             System.err.println("[ZBetterWorkshopUpload] Failed to create filtered copy: " + e.getMessage());
             e.printStackTrace();
             return null;
+        } finally {
+            if (event != null) {
+                event.commit();
+            }
         }
     }
     
-    private static void copyDirectoryFiltered(File sourceDir, File destDir, FileFilter filter) throws IOException {
-        if (!sourceDir.isDirectory()) {
-            return;
-        }
+    /**
+     * Stages a workshop item: into its persistent staging folder (synced incrementally) or into
+     * a new temp folder. The staging root is on the same filesystem as the source where possible,
+     * so files can be hard-linked or cloned instead of copied.
+     * 
+     * @param sourceWorkshopDir The workshop item folder
+     * @param persistentItemId Item ID to sync that item's persistent staging folder, or null for a new temp folder
+     * @return The staging folder (the copy of the workshop item folder)
+     * @throws IOException If staging fails
+     */
+    static Path stageItem(File sourceWorkshopDir, String persistentItemId) throws IOException {
+        Path stagingRoot = FileStager.chooseStagingRoot(sourceWorkshopDir.toPath());
+        Files.createDirectories(stagingRoot);
         
-        if (!destDir.exists()) {
-            destDir.mkdirs();
+        if (persistentItemId != null) {
+            // Reuse this item's staging folder from the last upload, staging only what changed
+            Path stagingDir = stagingRoot.resolve(PERSISTENT_STAGING_PREFIX + persistentItemId.replaceAll("[^A-Za-z0-9_-]", "_"));
+            System.out.println("[ZBetterWorkshopUpload] Syncing persistent staging folder: " + stagingDir + " (staging mode: " + stagingMode + ")");
+            syncStagingFolder(sourceWorkshopDir, stagingDir);
+            return stagingDir;
         }
         
-        File[] files = sourceDir.listFiles(filter);
-        if (files != null) {
-            for (File file : files) {
-                File destFile = new File(destDir, file.getName());
-                if (file.isDirectory()) {
-                    copyDirectoryFiltered(file, destFile, filter);
-                } else {
-                    copyFile(file, destFile);
-                }
-            }
+        Path stagingDir = Files.createTempDirectory(stagingRoot, StagingCleaner.TEMP_STAGING_PREFIX);
+        StagingCleaner.lock(stagingDir);
+        System.out.println("[ZBetterWorkshopUpload] Creating filtered copy in: " + stagingDir + " (staging mode: " + stagingMode + ")");
+        FileStager stager = FileStager.forMode(stagingMode);
+        StagingPipeline pipeline = new StagingPipeline(stager, stagingParallelism, buildTransforms(sourceWorkshopDir.toPath(), stagingRoot));
+        StagingStamps stamps = StagingStamps.take(stagingDir, optimizePngs);
+        Map<String, String> duplicateLinks = new LinkedHashMap<>();
+        ContentScanner.ScanStats contentsStats = stageWorkshopFolder(sourceWorkshopDir.toPath(), stagingDir, pipeline, stamps, duplicateLinks);
+        
+        // Directories exist now, stage the files on the worker pool
+        StagingPipeline.Stats stagingStats = pipeline.run();
+        logStaging(contentsStats, stagingStats, stager, pipeline);
+        optimizeStagedPngs(sourceWorkshopDir.toPath(), stagingDir, pipeline);
+        if (!duplicateLinks.isEmpty()) {
+            linkDuplicates(stagingDir.resolve("Contents"), duplicateLinks, stager);
         }
+        // a pre-staged folder is synced when it is picked up, which needs the stamps of the final files
+        stamps.save(stagingDir);
+        return stagingDir;
     }
     
     /**
-     * Copies a directory and all its contents without filtering.
+     * Brings an existing staging folder in line with the workshop item folder, staging only what changed.
      * 
-     * @param sourceDir The source directory
-     * @param destDir The destination directory
-     * @throws IOException If an I/O error occurs
+     * @param sourceWorkshopDir The workshop item folder
+     * @param stagingDir The staging folder (created if missing)
+     * @throws IOException If syncing fails
      */
-    private static void copyDirectoryUnfiltered(File sourceDir, File destDir) throws IOException {
-        if (!sourceDir.isDirectory()) {
+    static void syncStagingFolder(File sourceWorkshopDir, Path stagingDir) throws IOException {
+        FileStager stager = FileStager.forMode(stagingMode);
+        StagingPipeline pipeline = new StagingPipeline(stager, stagingParallelism, buildTransforms(sourceWorkshopDir.toPath(), stagingDir.getParent()));
+        File contentsDir = new File(sourceWorkshopDir, "Contents");
+        ContentManifest manifest = contentsDir.isDirectory() ? getContentManifest(contentsDir) : null;
+        StagingStamps stamps = StagingStamps.take(stagingDir, optimizePngs);
+        IncrementalStager.SyncStats syncStats = IncrementalStager.sync(sourceWorkshopDir.toPath(), manifest, stagingDir, pipeline, stamps);
+        System.out.println("[ZBetterWorkshopUpload] Sync: " + syncStats);
+        StagingPipeline.Stats stagingStats = pipeline.run();
+        logStaging(manifest == null ? null : manifest.getStats(), stagingStats, stager, pipeline);
+        optimizeStagedPngs(sourceWorkshopDir.toPath(), stagingDir, pipeline);
+        stamps.save(stagingDir);
+    }
+    
+    /**
+     * Recompresses the PNG files just staged into Contents, if enabled. Runs after staging and
+     * replaces the staged files, never the sources.
+     * 
+     * @param sourceWorkshopDir The workshop item folder (locates the result cache)
+     * @param stagingDir The staging folder
+     * @param pipeline The pipeline that staged the files
+     * @throws IOException If a staged file cannot be read or replaced
+     */
+    private static void optimizeStagedPngs(Path sourceWorkshopDir, Path stagingDir, StagingPipeline pipeline) throws IOException {
+        if (!optimizePngs) {
             return;
         }
-        
-        if (!destDir.exists()) {
-            destDir.mkdirs();
+        Path contentsDir = stagingDir.resolve("Contents");
+        List<Path> staged = new ArrayList<>();
+        for (Path dest : pipeline.getDestinations()) {
+            if (dest.startsWith(contentsDir)) {
+                staged.add(dest);
+            }
         }
-        
-        File[] files = sourceDir.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                File destFile = new File(destDir, file.getName());
-                if (file.isDirectory()) {
-                    copyDirectoryUnfiltered(file, destFile);
-                } else {
-                    copyFile(file, destFile);
-                }
+        PngOptimizer optimizer = new PngOptimizer(getHashIndexFile(sourceWorkshopDir).getParent().resolveSibling(PNG_CACHE_DIR_NAME));
+        System.out.println("[ZBetterWorkshopUpload] " + optimizer.optimizeAll(staged));
+    }
+    
+    private static void logStaging(ContentScanner.ScanStats contentsStats, StagingPipeline.Stats stagingStats, FileStager stager, StagingPipeline pipeline) {
+        if (contentsStats != null) {
+            System.out.println("[ZBetterWorkshopUpload] Filtered copy created successfully - kept " + (contentsStats.files + contentsStats.directories) + " items, removed " + contentsStats.excluded + " items from Contents");
+            System.out.println("[ZBetterWorkshopUpload] Contents scan: " + contentsStats);
+        }
+        System.out.println("[ZBetterWorkshopUpload] Staged " + stagingStats + "; " + stager.getSummary());
+        if (pipeline.getTransforms() != null) {
+            System.out.println("[ZBetterWorkshopUpload] " + pipeline.getTransforms().getSummary());
+        }
+        UploadMetrics metrics = UploadMetrics.current();
+        if (metrics != null) {
+            if (contentsStats != null) {
+                metrics.recordScan(contentsStats);
             }
+            metrics.recordStaging(stagingStats);
+        }
+        for (StagingPipeline.FileTiming timing : stagingStats.getSlowest(3)) {
+            System.out.println("[ZBetterWorkshopUpload]   slowest: " + timing);
+        }
+    }
+    
+    /**
+     * Starts comparing a workshop item with its last successful upload and, if pre-staging is
+     * on, staging it in the background, so that the upload can pick up the finished folder.
+     * Called when the submit page shows the item's file list.
+     * 
+     * @param steamWorkshopItem The workshop item
+     */
+    public static void startPreStaging(SteamWorkshopItem steamWorkshopItem) {
+        String folder = getWorkshopFolderPath(steamWorkshopItem);
+        String itemId = steamWorkshopItem.getID();
+        if (folder == null || itemId == null || itemId.isEmpty()) {
+            return; // enterSubmitContext only filters items that have an ID
+        }
+        // always compared, so the submit-time check and record only stat the files
+        PreStager.check(new File(folder), itemId, steamWorkshopItem.getSubmitDescription());
+        if (preStaging) {
+            PreStager.start(new File(folder), persistentStaging ? itemId : null, stagingMode);
+        }
+    }
+    
+    /**
+     * Sets the size budgets the submit screen warns about.
+     * 
+     * @param maxUploadBytes Warn if the whole upload is larger (0 to disable)
+     * @param maxFileBytes Warn about files larger than this (0 to disable)
+     */
+    public static void setSizeWarningThresholds(long maxUploadBytes, long maxFileBytes) {
+        uploadSizeWarningBytes = Math.max(0, maxUploadBytes);
+        largeFileWarningBytes = Math.max(0, maxFileBytes);
+    }
+    
+    /**
+     * Checks an upload against the configured size budgets.
+     * 
+     * @param analysis Size analysis of the upload
+     * @return Warnings, empty if within budget
+     */
+    public static List<String> getSizeWarnings(SizeAnalysis analysis) {
+        return analysis.getWarnings(uploadSizeWarningBytes, largeFileWarningBytes);
+    }
+    
+    /**
+     * Adds an item to the upload queue and starts staging it in the background.
+     * 
+     * @param steamWorkshopItem The workshop item (must have an ID)
+     * @return false if the item has no ID or folder, or is already queued
+     */
+    public static boolean enqueueUpload(SteamWorkshopItem steamWorkshopItem) {
+        String folder = getWorkshopFolderPath(steamWorkshopItem);
+        if (folder == null) {
+            return false;
+        }
+        return UploadQueue.add(steamWorkshopItem, new File(folder), persistentStaging ? steamWorkshopItem.getID() : null, stagingMode);
+    }
+    
+    /**
+     * Sets whether staged PNG files are recompressed losslessly before upload.
+     * 
+     * @param enabled true to recompress PNGs
+     */
+    public static void setOptimizePngs(boolean enabled) {
+        optimizePngs = enabled;
+    }
+    
+    /**
+     * Sets the built-in file transformers applied to Contents while staging.
+     * 
+     * @param normalizeText true to strip BOMs and convert CRLF to LF in .txt and .lua files
+     * @param dropJava true to leave out .java sources that ship next to their built jar
+     * @param modInfo mod.info overrides, e.g. "versionMin=42.0; poster=poster.png" (empty for none)
+     */
+    public static void setFileTransforms(boolean normalizeText, boolean dropJava, String modInfo) {
+        normalizeTextFiles = normalizeText;
+        dropJavaSources = dropJava;
+        modInfoOverrides = ModInfoRewriter.parse(modInfo);
+    }
+    
+    /**
+     * Registers an additional file transformer, applied after the built-in ones.
+     * 
+     * @param transformer The transformer
+     * @param globs Patterns of the files it applies to, relative to Contents (e.g. "*.lua")
+     */
+    public static void registerFileTransformer(FileTransformer transformer, String... globs) {
+        synchronized (registeredTransformers) {
+            registeredTransformers.put(transformer, globs.clone());
         }
     }
     
-    private static void copyFile(File source, File dest) throws IOException {
-        try (FileInputStream fis = new FileInputStream(source);
-             FileOutputStream fos = new FileOutputStream(dest)) {
-            byte[] buffer = new byte[8192];
-            int length;
-            while ((length = fis.read(buffer)) > 0) {
-                fos.write(buffer, 0, length);
+    /**
+     * Builds the transformers for one staging run.
+     * 
+     * @param sourceWorkshopDir The workshop item folder
+     * @param stagingRoot The folder the staging folder is in (the output cache goes there too, so outputs can be hard-linked)
+     * @return The transformers, or null if none are enabled
+     */
+    static FileTransforms buildTransforms(Path sourceWorkshopDir, Path stagingRoot) {
+        FileTransforms transforms = new FileTransforms(stagingRoot.resolve(TRANSFORM_CACHE_DIR_NAME), getHashIndex(sourceWorkshopDir));
+        if (dropJavaSources) {
+            transforms.add(new JavaSourceDropper(), "*.java");
+        }
+        if (normalizeTextFiles) {
+            transforms.add(new TextNormalizer(), "*.txt", "*.lua");
+        }
+        Map<String, String> overrides = modInfoOverrides;
+        if (!overrides.isEmpty()) {
+            transforms.add(new ModInfoRewriter(overrides), "mod.info");
+        }
+        synchronized (registeredTransformers) {
+            for (Map.Entry<FileTransformer, String[]> e : registeredTransformers.entrySet()) {
+                transforms.add(e.getKey(), e.getValue());
             }
         }
+        return transforms.isEmpty() ? null : transforms;
     }
     
-    private static void deleteDirectory(File directory) {
-        if (directory.exists() && directory.isDirectory()) {
-            File[] files = directory.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isDirectory()) {
-                        deleteDirectory(file);
+    /**
+     * Sets whether duplicate files are staged as hard links to one staged copy. Applies to
+     * temp staging folders; persistent folders are synced file by file.
+     * 
+     * @param enabled true to link duplicates
+     */
+    public static void setDedupeStaging(boolean enabled) {
+        dedupeStaging = enabled;
+    }
+    
+    /**
+     * Finds duplicate files among the files of a Contents folder that will be uploaded.
+     * 
+     * @param contentsRoot The Contents folder
+     * @return The duplicate analysis
+     * @throws IOException If the folder cannot be scanned or a candidate file cannot be read
+     */
+    public static DuplicateAnalysis findDuplicates(File contentsRoot) throws IOException {
+        ContentManifest manifest = getContentManifest(contentsRoot);
+        DuplicateAnalysis duplicates = DuplicateAnalysis.of(manifest, getHashIndex(contentsRoot.toPath().toAbsolutePath().getParent()));
+        System.out.println("[ZBetterWorkshopUpload] " + duplicates);
+        return duplicates;
+    }
+    
+    /**
+     * Sets whether items are staged in the background while the submit page is open.
+     * 
+     * @param enabled true to pre-stage
+     */
+    public static void setPreStaging(boolean enabled) {
+        preStaging = enabled;
+        if (!enabled) {
+            PreStager.discard();
+        }
+    }
+    
+    /**
+     * Creates the directory tree of a new staging folder and queues all files to stage:
+     * Contents filtered (reusing the manifest built for the preview), everything else as is.
+     * 
+     * @param sourceWorkshopDir The workshop item folder
+     * @param destRoot The new staging folder
+     * @param pipeline Receives the files to stage
+     * @param stamps Records the sources of the queued files of Contents
+     * @return Scan statistics of Contents, or null if the item has no Contents folder
+     * @throws IOException If an I/O error occurs
+     */
+    private static ContentScanner.ScanStats stageWorkshopFolder(Path sourceWorkshopDir, Path destRoot, StagingPipeline pipeline, StagingStamps stamps, Map<String, String> duplicateLinks) throws IOException {
+        ContentScanner.ScanStats contentsStats = null;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(sourceWorkshopDir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                Path dest = destRoot.resolve(name);
+                
+                if (Files.isDirectory(entry)) {
+                    if ("Contents".equals(name)) {
+                        // Apply filtering to Contents folder, reusing the manifest built for the preview
+                        ContentManifest manifest = getContentManifest(entry.toFile());
+                        if (dedupeStaging) {
+                            DuplicateAnalysis duplicates = DuplicateAnalysis.of(manifest, getHashIndex(sourceWorkshopDir));
+                            System.out.println("[ZBetterWorkshopUpload] " + duplicates);
+                            duplicateLinks.putAll(duplicates.getLinkTargets());
+                        }
+                        stageManifest(manifest, dest, pipeline, stamps, duplicateLinks);
+                        contentsStats = manifest.getStats();
                     } else {
-                        file.delete();
+                        // Copy other directories without filtering
+                        stageDirectoryUnfiltered(entry, dest, pipeline);
                     }
+                } else {
+                    // Copy files (like preview.png, workshop.txt) without filtering
+                    pipeline.add(entry, dest, Files.size(entry));
                 }
             }
-            directory.delete();
         }
+        return contentsStats;
+    }
+    
+    /**
+     * Creates the included directories of a Contents manifest and queues its included files,
+     * leaving out files a transformer drops. Entries are in path order, so parent directories
+     * are always created before their contents.
+     * 
+     * @param manifest The manifest of the source Contents folder
+     * @param destDir The destination directory
+     * @param pipeline Receives the files to stage
+     * @param stamps Records the sources of the queued and linked files
+     * @param duplicateLinks Duplicates to skip here, they are linked once the pipeline has run
+     * @throws IOException If an I/O error occurs
+     */
+    private static void stageManifest(ContentManifest manifest, Path destDir, StagingPipeline pipeline, StagingStamps stamps, Map<String, String> duplicateLinks) throws IOException {
+        FileTransforms transforms = pipeline.getTransforms();
+        if (transforms != null) {
+            // a duplicate may only share the staged copy of a file that is transformed the same way
+            duplicateLinks.entrySet().removeIf(e -> transforms.find(e.getKey()) != transforms.find(e.getValue()));
+        }
+        Files.createDirectories(destDir);
+        for (ContentEntry entry : manifest.getEntries()) {
+            if (!entry.isIncluded()) {
+                continue;
+            }
+            Path dest = destDir.resolve(entry.getRelativePath());
+            if (entry.isDirectory()) {
+                Files.createDirectories(dest);
+            } else if (transforms != null && transforms.isDropped(manifest.getRoot(), entry.getRelativePath())) {
+                transforms.countDropped();
+                duplicateLinks.remove(entry.getRelativePath());
+            } else if (duplicateLinks.containsKey(entry.getRelativePath())) {
+                // linked to the staged original, so produced the same way
+                FileTransformer transformer = transforms == null ? null : transforms.find(entry.getRelativePath());
+                stamps.expect("Contents/" + entry.getRelativePath(), entry.getSize(), entry.getLastModified(), dest, transformer);
+            } else {
+                FileTransformer transformer = pipeline.addContentsFile(manifest.getRoot().resolve(entry.getRelativePath()), dest, entry.getSize(), entry.getRelativePath());
+                stamps.expect("Contents/" + entry.getRelativePath(), entry.getSize(), entry.getLastModified(), dest, transformer);
+            }
+        }
+    }
+    
+    /**
+     * Stages duplicate files as hard links to the staged copy of the file they duplicate,
+     * falling back to staging a copy of that staged file where the filesystem has no hard links,
+     * so a duplicate is always transformed and recompressed like its original.
+     * 
+     * @param destContents The staged Contents folder
+     * @param duplicateLinks Relative path of a duplicate -> relative path of its staged original
+     * @param stager Stager for the fallback
+     * @throws IOException If a duplicate can be neither linked nor staged
+     */
+    static void linkDuplicates(Path destContents, Map<String, String> duplicateLinks, FileStager stager) throws IOException {
+        int linked = 0;
+        long savedBytes = 0;
+        for (Map.Entry<String, String> e : duplicateLinks.entrySet()) {
+            Path dest = destContents.resolve(e.getKey());
+            Path original = destContents.resolve(e.getValue());
+            try {
+                Files.createLink(dest, original);
+                linked++;
+                savedBytes += Files.size(dest);
+            } catch (IOException | UnsupportedOperationException ex) {
+                stager.stage(original, dest, Files.size(original));
+            }
+        }
+        System.out.println("[ZBetterWorkshopUpload] Linked " + linked + " of " + duplicateLinks.size() + " duplicate files to one staged copy (" + FileStager.formatBytes(savedBytes) + " not staged again)");
+    }
+    
+    /**
+     * Creates a directory tree without filtering and queues all its files.
+     * 
+     * @param sourceDir The source directory
+     * @param destDir The destination directory
+     * @param pipeline Receives the files to stage
+     * @throws IOException If an I/O error occurs
+     */
+    private static void stageDirectoryUnfiltered(Path sourceDir, Path destDir, StagingPipeline pipeline) throws IOException {
+        Files.createDirectories(destDir);
+        ContentScanner.scan(sourceDir, false, new ContentScanner.Visitor() {
+            @Override
+            public void directory(Path dir, String relativePath, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(destDir.resolve(relativePath));
+            }
+            
+            @Override
+            public void file(Path file, String relativePath, BasicFileAttributes attrs) throws IOException {
+                pipeline.add(file, destDir.resolve(relativePath), attrs.size());
+            }
+        });
+    }
+    
+    /**
+     * Deletes a staging folder that was never handed to an upload.
+     * 
+     * @param stagingDir The staging folder
+     */
+    static void deleteStagingFolder(File stagingDir) {
+        StagingCleaner.delete(stagingDir.toPath());
+    }
+    
+    /**
+     * Sweeps temp staging folders left behind by a game that crashed mid-upload, in the background.
+     * Folders still in use by a running game are kept. Also trims the PNG optimizer's and the
+     * file transformers' caches.
+     * 
+     * @param zomboidDir The Zomboid user folder (may be null to sweep only the system temp folder)
+     */
+    public static void sweepStagingFolders(String zomboidDir) {
+        List<Path> roots = new ArrayList<>();
+        List<Path> caches = new ArrayList<>();
+        roots.add(Paths.get(System.getProperty("java.io.tmpdir")));
+        if (zomboidDir != null && !zomboidDir.isEmpty()) {
+            roots.add(Paths.get(zomboidDir).resolve(FileStager.STAGING_DIR_NAME));
+            caches.add(Paths.get(zomboidDir).resolve(PNG_CACHE_DIR_NAME));
+        }
+        for (Path root : roots) {
+            caches.add(root.resolve(TRANSFORM_CACHE_DIR_NAME));
+        }
+        StagingCleaner.sweepLater(roots, caches);
     }
 }
-
@@ -4,8 +4,11 @@ import zombie.core.znet.SteamWorkshopItem;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 
 import me.zed_0xff.zombie_buddy.Exposer;
@@ -22,23 +25,46 @@ public class ZBetterWorkshopUpload {
         return (File[]) arrayList.toArray(new File[0]);
     }
 
-    // copied from ZomboidFileSystem.java because the original method does not call fileFilter.accept() for directories
+    // based on ZomboidFileSystem.java because the original method does not call fileFilter.accept() for directories;
+    // reads each entry's attributes once instead of isFile()/isDirectory() calls
     private static void listAllFilesInternal(File file, FileFilter fileFilter, boolean z, ArrayList<File> arrayList) {
-        File[] fileArrListFiles = file.listFiles();
-        if (fileArrListFiles == null) {
-            return;
-        }
-        for (File file2 : fileArrListFiles) {
-            if (fileFilter.accept(file2)) {
-                if (file2.isFile()) {
-                    arrayList.add(file2);
-                } else if (file2.isDirectory() && z) {
-                    listAllFilesInternal(file2, fileFilter, true, arrayList);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(file.toPath())) {
+            for (Path entry : entries) {
+                File file2 = entry.toFile();
+                if (fileFilter.accept(file2)) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (attrs.isRegularFile()) {
+                        arrayList.add(file2);
+                    } else if (attrs.isDirectory() && z) {
+                        listAllFilesInternal(file2, fileFilter, true, arrayList);
+                    }
                 }
             }
+        } catch (IOException e) {
+            // unreadable directory, same as listFiles() returning null
         }
     }
 
+    /**
+     * Lists all files under a Contents folder that pass the filter, as paths relative to it.
+     * Backed by the folder's {@link ContentManifest}, which the upload reuses afterwards.
+     * 
+     * @param contentFolder The Contents folder
+     * @return Relative file paths (normalized with "/"), sorted
+     */
+    public static ArrayList<String> listFilteredFiles(File contentFolder) {
+        if (contentFolder == null) {
+            return new ArrayList<>();
+        }
+        ContentManifest manifest = getManifest(contentFolder, true);
+        return manifest == null ? new ArrayList<>() : manifest.getIncludedFilePaths();
+    }
+
     /**
      * Gets filtered contents of a workshop item - called from LUA
      * 
@@ -46,33 +72,322 @@ public class ZBetterWorkshopUpload {
      * @return ArrayList of filtered file paths (relative to content folder)
      */
     public static ArrayList<String> getWorkshopItemFilteredContents(SteamWorkshopItem workshopItem) {
+        return listFilteredFiles(new File(workshopItem.getContentFolder()));
+    }
+    
+    /**
+     * Counts the files of a workshop item that will be uploaded - called from LUA.
+     * Scans the Contents folder (or revalidates the cached manifest), so call it once
+     * when the list is shown and then page with {@link #getWorkshopItemFilePage}.
+     * 
+     * @param workshopItem The workshop item
+     * @return Number of files that pass the filter
+     */
+    public static int getWorkshopItemFileCount(SteamWorkshopItem workshopItem) {
+        ContentManifest manifest = getManifest(new File(workshopItem.getContentFolder()), true);
+        return manifest == null ? 0 : manifest.getIncludedFileCount();
+    }
+    
+    /**
+     * Gets one page of the sorted filtered file list of a workshop item - called from LUA.
+     * Uses the manifest built by {@link #getWorkshopItemFileCount} without rescanning.
+     * 
+     * @param workshopItem The workshop item
+     * @param offset Index of the first file
+     * @param limit Maximum number of files to return
+     * @return Relative file paths (normalized with "/")
+     */
+    public static ArrayList<String> getWorkshopItemFilePage(SteamWorkshopItem workshopItem, int offset, int limit) {
+        ContentManifest manifest = getManifest(new File(workshopItem.getContentFolder()), false);
+        return manifest == null ? new ArrayList<>() : manifest.getIncludedFiles(offset, limit);
+    }
+    
+    /**
+     * Gets the categories of one page of files, parallel to {@link #getWorkshopItemFilePage} - called from LUA.
+     * 
+     * @param workshopItem The workshop item
+     * @param offset Index of the first file
+     * @param limit Maximum number of files to return
+     * @return {@link FileCategory} names (IMAGE, TEXT, LUA, JAVA, JAR, EXE, OTHER)
+     */
+    public static ArrayList<String> getWorkshopItemFileCategories(SteamWorkshopItem workshopItem, int offset, int limit) {
+        ContentManifest manifest = getManifest(new File(workshopItem.getContentFolder()), false);
+        return manifest == null ? new ArrayList<>() : manifest.getIncludedFileCategories(offset, limit);
+    }
+    
+    /**
+     * Gets a per-category summary of the files that will be uploaded - called from LUA.
+     * 
+     * @param workshopItem The workshop item
+     * @return Summary like "312 Lua, 1.2k images, 3 executables"
+     */
+    public static String getWorkshopItemFileSummary(SteamWorkshopItem workshopItem) {
+        ContentManifest manifest = getManifest(new File(workshopItem.getContentFolder()), false);
+        return manifest == null ? "" : manifest.getCategorySummary();
+    }
+    
+    /**
+     * Gets the sizes of one page of files, parallel to {@link #getWorkshopItemFilePage} - called from LUA.
+     * 
+     * @param workshopItem The workshop item
+     * @param offset Index of the first file
+     * @param limit Maximum number of files to return
+     * @return Formatted sizes, e.g. "1.2 MB"
+     */
+    public static ArrayList<String> getWorkshopItemFileSizes(SteamWorkshopItem workshopItem, int offset, int limit) {
+        ContentManifest manifest = getManifest(new File(workshopItem.getContentFolder()), false);
+        return manifest == null ? new ArrayList<>() : manifest.getIncludedFileSizes(offset, limit);
+    }
+    
+    /**
+     * Gets the total size of the files that will be uploaded - called from LUA.
+     * 
+     * @param workshopItem The workshop item
+     * @return Formatted size, e.g. "12.5 MB"
+     */
+    public static String getWorkshopItemUploadSize(SteamWorkshopItem workshopItem) {
+        ContentManifest manifest = getManifest(new File(workshopItem.getContentFolder()), false);
+        return FileStager.formatBytes(manifest == null ? 0 : manifest.getSizeAnalysis().getTotalBytes());
+    }
+    
+    /**
+     * Gets the size report of a workshop item (totals, largest files and directories) - called from LUA.
+     * 
+     * @param workshopItem The workshop item
+     * @return Report lines
+     */
+    public static ArrayList<String> getWorkshopItemSizeReport(SteamWorkshopItem workshopItem) {
+        ContentManifest manifest = getManifest(new File(workshopItem.getContentFolder()), false);
+        return manifest == null ? new ArrayList<>() : new ArrayList<>(manifest.getSizeAnalysis().getReport());
+    }
+    
+    /**
+     * Checks a workshop item against the size budgets from the mod options - called from LUA.
+     * 
+     * @param workshopItem The workshop item
+     * @return Warnings, empty if within budget
+     */
+    public static ArrayList<String> getWorkshopItemSizeWarnings(SteamWorkshopItem workshopItem) {
+        ContentManifest manifest = getManifest(new File(workshopItem.getContentFolder()), false);
+        return manifest == null ? new ArrayList<>() : new ArrayList<>(WorkshopContentFilter.getSizeWarnings(manifest.getSizeAnalysis()));
+    }
+    
+    /**
+     * Finds files with identical content in a workshop item - called from LUA.
+     * Only files sharing their size with another file are hashed.
+     * 
+     * @param workshopItem The workshop item
+     * @return Report lines: duplicate groups with their paths and the bytes that could be saved
+     */
+    public static ArrayList<String> getWorkshopItemDuplicateReport(SteamWorkshopItem workshopItem) {
         File contentFolder = new File(workshopItem.getContentFolder());
-        if (!contentFolder.exists() || !contentFolder.isDirectory()) {
+        if (!contentFolder.isDirectory()) {
             return new ArrayList<>();
         }
-
-        String basePathStr = contentFolder.getAbsolutePath();
-        Path basePath = Paths.get(basePathStr);
-        
-        // Get all files recursively
-        File[] filteredFiles = listAllFiles(contentFolder, new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                Path filePath = Paths.get(file.getAbsolutePath());
-                String relativePath = basePath.relativize(filePath).toString().replace("\\", "/");
-                return WorkshopContentFilter.shouldIncludePath(relativePath, basePathStr);
+        try {
+            return new ArrayList<>(WorkshopContentFilter.findDuplicates(contentFolder).getReport(SizeAnalysis.DEFAULT_TOP_N));
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Failed to find duplicates in " + contentFolder + ": " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Gets the phase timings of the item's last upload in this session, for the submit screen.
+     * The same metrics are appended to Zomboid/zb_workshop_metrics.jsonl after each upload.
+     * 
+     * @param workshopItem The workshop item
+     * @return A header line and one line per phase with duration, files, bytes and throughput; empty if none
+     */
+    public static ArrayList<String> getLastUploadMetrics(SteamWorkshopItem workshopItem) {
+        UploadMetrics metrics = workshopItem.getID() == null ? null : UploadMetrics.getLast(workshopItem.getID());
+        return metrics == null ? new ArrayList<>() : new ArrayList<>(metrics.getLines());
+    }
+    
+    /**
+     * Sets whether staged PNG textures are recompressed losslessly - called from Lua mod options.
+     * 
+     * @param enabled true to recompress PNGs
+     */
+    public static void setOptimizePngs(boolean enabled) {
+        WorkshopContentFilter.setOptimizePngs(enabled);
+    }
+    
+    /**
+     * Sets the file transformers applied to uploaded files - called from Lua mod options.
+     * 
+     * @param normalizeText true to strip BOMs and convert CRLF to LF in .txt and .lua files
+     * @param dropJavaSources true to leave out .java sources next to their built jar
+     * @param modInfoOverrides mod.info fields to change, e.g. "versionMin=42.0; poster=poster.png"
+     */
+    public static void setFileTransforms(boolean normalizeText, boolean dropJavaSources, String modInfoOverrides) {
+        WorkshopContentFilter.setFileTransforms(normalizeText, dropJavaSources, modInfoOverrides);
+    }
+    
+    /**
+     * Sets whether duplicate files are staged as links to one copy - called from Lua mod options.
+     * 
+     * @param enabled true to link duplicates
+     */
+    public static void setDedupeStaging(boolean enabled) {
+        WorkshopContentFilter.setDedupeStaging(enabled);
+    }
+    
+    /**
+     * Sets the size budgets the submit screen warns about - called from Lua mod options.
+     * 
+     * @param maxUploadMegabytes Warn if the whole upload is larger (0 to disable)
+     * @param maxFileMegabytes Warn about files larger than this (0 to disable)
+     */
+    public static void setSizeWarningThresholds(double maxUploadMegabytes, double maxFileMegabytes) {
+        WorkshopContentFilter.setSizeWarningThresholds((long) (maxUploadMegabytes * 1024 * 1024), (long) (maxFileMegabytes * 1024 * 1024));
+    }
+    
+    private static ContentManifest getManifest(File contentFolder, boolean validate) {
+        if (!validate) {
+            ContentManifest cached = WorkshopContentFilter.getCachedContentManifest(contentFolder);
+            if (cached != null) {
+                return cached;
             }
-        }, true);
-        
-        // Convert to relative paths
-        ArrayList<String> filenames = new ArrayList<>();
-        for (File file : filteredFiles) {
-            Path filePath = Paths.get(file.getAbsolutePath());
-            String relativePath = basePath.relativize(filePath).toString().replace("\\", "/");
-            filenames.add(relativePath);
         }
-        
-        return filenames;
+        if (!contentFolder.isDirectory()) {
+            return null;
+        }
+        try {
+            return WorkshopContentFilter.getContentManifest(contentFolder);
+        } catch (IOException e) {
+            System.err.println("[ZBetterWorkshopUpload] Failed to scan " + contentFolder + ": " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /**
+     * Removes staging folders orphaned by a crash, in the background - called from LUA on load.
+     * 
+     * @param zomboidDir The Zomboid user folder
+     */
+    public static void sweepStagingFolders(String zomboidDir) {
+        WorkshopContentFilter.sweepStagingFolders(zomboidDir);
+    }
+    
+    /**
+     * Starts comparing the item with its last upload and, if enabled, staging it in the background
+     * while the submit page is open - called from LUA.
+     * 
+     * @param workshopItem The workshop item shown on the submit page
+     */
+    public static void startPreStaging(SteamWorkshopItem workshopItem) {
+        WorkshopContentFilter.startPreStaging(workshopItem);
+    }
+    
+    /**
+     * Discards the background staging of the item shown on the submit page - called from LUA
+     * when the submit screen is closed.
+     */
+    public static void cancelPreStaging() {
+        PreStager.discard();
+    }
+    
+    /**
+     * Adds an item to the upload queue - called from LUA. Queued items are staged in parallel
+     * and submitted one by one, in order, by the Lua queue pump.
+     * 
+     * @param workshopItem The workshop item (must already have an ID)
+     * @return true if queued, false if it has no ID or is already queued
+     */
+    public static boolean addToUploadQueue(SteamWorkshopItem workshopItem) {
+        return WorkshopContentFilter.enqueueUpload(workshopItem);
+    }
+    
+    /**
+     * Gets the next queued item to submit - called from LUA every few frames.
+     * 
+     * @return The item to submit, or null if the previous upload is still running or the next item isn't staged yet
+     */
+    public static SteamWorkshopItem nextQueuedUpload() {
+        return UploadQueue.next();
+    }
+    
+    /**
+     * Finishes a queued item without submitting it - called from LUA instead of SubmitWorkshopItem
+     * when the item is unchanged and unchanged uploads are skipped.
+     * 
+     * @param workshopItem The item handed out by nextQueuedUpload
+     */
+    public static void skipQueuedUpload(SteamWorkshopItem workshopItem) {
+        UploadQueue.finish(workshopItem.getID(), UploadQueue.Status.SKIPPED);
+    }
+    
+    /**
+     * Describes the upload queue - called from LUA.
+     * 
+     * @return One line per queued item: folder name, item ID and status
+     */
+    public static ArrayList<String> getUploadQueue() {
+        return new ArrayList<>(UploadQueue.describe());
+    }
+    
+    /**
+     * @return true if every queued upload has finished
+     */
+    public static boolean isUploadQueueIdle() {
+        return UploadQueue.isIdle();
+    }
+    
+    /**
+     * Removes all queued items that are not uploading right now - called from LUA.
+     */
+    public static void clearUploadQueue() {
+        UploadQueue.clear();
+    }
+    
+    /**
+     * Checks whether uploading the item again would change nothing - called from LUA right before
+     * SubmitWorkshopItem when unchanged uploads are skipped. Hashes only files changed since the
+     * item's content index was last updated; the submit page polls getWorkshopItemUnchangedStatus.
+     * 
+     * @param workshopItem The workshop item
+     * @return true if files and expanded description match the last successful upload
+     */
+    public static boolean isWorkshopItemUnchanged(SteamWorkshopItem workshopItem) {
+        return WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem);
+    }
+    
+    /**
+     * Gets the result of the comparison with the last upload started by startPreStaging - called
+     * from LUA every few frames while the submit page is open. Never waits or hashes.
+     * 
+     * @param workshopItem The workshop item
+     * @return "unchanged", "changed", "checking" or "unknown"
+     */
+    public static String getWorkshopItemUnchangedStatus(SteamWorkshopItem workshopItem) {
+        return WorkshopContentFilter.getUnchangedStatus(workshopItem);
+    }
+    
+    /**
+     * Sets whether submitting an unchanged item is skipped - called from Lua mod options.
+     * 
+     * @param enabled true to skip, false to only warn
+     */
+    public static void setSkipUnchangedUploads(boolean enabled) {
+        WorkshopContentFilter.setSkipUnchangedUploads(enabled);
+    }
+    
+    /**
+     * @return true if LUA should not submit unchanged items
+     */
+    public static boolean isSkipUnchangedUploads() {
+        return WorkshopContentFilter.isSkipUnchangedUploads();
+    }
+    
+    /**
+     * Sets whether items are staged in the background while the submit page is open - called from Lua mod options.
+     * 
+     * @param enabled true to pre-stage, false to stage only when uploading
+     */
+    public static void setPreStaging(boolean enabled) {
+        WorkshopContentFilter.setPreStaging(enabled);
     }
     
     /**
@@ -95,6 +410,42 @@ public class ZBetterWorkshopUpload {
         return WorkshopContentFilter.getDefaultPatternsString();
     }
 
+    /**
+     * Sets the number of threads used to scan workshop Contents folders.
+     * 
+     * @param parallelism Thread count; 1 scans serially, 0 uses the number of CPU cores
+     */
+    public static void setScanParallelism(int parallelism) {
+        WorkshopContentFilter.setScanParallelism(parallelism);
+    }
+
+    /**
+     * Sets the number of threads used to stage files for upload.
+     * 
+     * @param parallelism Thread count; 1 stages serially, 0 uses the default (up to 4)
+     */
+    public static void setStagingParallelism(int parallelism) {
+        WorkshopContentFilter.setStagingParallelism(parallelism);
+    }
+
+    /**
+     * Sets how files are placed into the staging tree - called from Lua mod options.
+     * 
+     * @param mode "auto" (hard link, then copy-on-write clone, then copy), "clone" or "copy"
+     */
+    public static void setStagingMode(String mode) {
+        WorkshopContentFilter.setStagingMode(mode);
+    }
+
+    /**
+     * Enables or disables persistent per-item staging folders - called from Lua mod options.
+     * 
+     * @param enabled true to keep staging folders between uploads and sync them incrementally
+     */
+    public static void setPersistentStaging(boolean enabled) {
+        WorkshopContentFilter.setPersistentStaging(enabled);
+    }
+
     public static void clearCache() {
         WorkshopContentFilter.clearIgnoreFileCache();
     }
@@ -14,18 +14,19 @@ public class Patch_SteamWorkshop {
         }
 
         @Patch.OnExit
-        public static void afterSubmitWorkshopItem() {
-            WorkshopContentFilter.exitSubmitContext();
+        public static void afterSubmitWorkshopItem(@Patch.Return boolean submitted) {
+            WorkshopContentFilter.exitSubmitContext(submitted);
             // XXX do not cleanup yet, upload is async!
         }
     }    
     
-    // Patch the callback methods to trigger cleanup
+    // Patch the callback methods to finish the oldest upload in flight (record + cleanup).
+    // onItemCreated/onItemNotCreated are not patched: creating an item stages nothing.
     @Patch(className = "zombie.core.znet.SteamWorkshop", methodName = "onItemUpdated")
     public static class Patch_onItemUpdated {
         @Patch.OnEnter
         public static void beforeOnItemUpdated() {
-            WorkshopContentFilter.cleanupAllPendingFolders();
+            WorkshopContentFilter.onUploadFinished(true);
         }
     }
     
@@ -33,23 +34,7 @@ public class Patch_SteamWorkshop {
     public static class Patch_onItemNotUpdated {
         @Patch.OnEnter
         public static void beforeOnItemNotUpdated() {
-            WorkshopContentFilter.cleanupAllPendingFolders();
-        }
-    }
-
-    @Patch(className = "zombie.core.znet.SteamWorkshop", methodName = "onItemCreated")
-    public static class Patch_onItemCreated {
-        @Patch.OnEnter
-        public static void beforeOnItemCreated() {
-            WorkshopContentFilter.cleanupAllPendingFolders();
-        }
-    }
-    
-    @Patch(className = "zombie.core.znet.SteamWorkshop", methodName = "onItemNotCreated")
-    public static class Patch_onItemNotCreated {
-        @Patch.OnEnter
-        public static void beforeOnItemNotCreated() {
-            WorkshopContentFilter.cleanupAllPendingFolders();
+            WorkshopContentFilter.onUploadFinished(false);
         }
     }
 }
@@ -5,6 +5,7 @@ import me.zed_0xff.zombie_buddy.Patch;
 import zombie.core.znet.SteamWorkshopItem;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 
 public class Patch_SteamWorkshopItem {
 
@@ -15,7 +16,12 @@ public class Patch_SteamWorkshopItem {
             @Patch.This Object self,
             @Patch.Return(readOnly = false) String result
         ) {
+            long start = System.nanoTime();
             String expandedDescription = DescriptionIncludeProcessor.expandIncludes(result, (SteamWorkshopItem) self);
+            UploadMetrics metrics = UploadMetrics.current();
+            if (metrics != null) {
+                metrics.add(UploadMetrics.Phase.DESCRIPTION, System.nanoTime() - start, 1, expandedDescription == null ? 0 : expandedDescription.getBytes(StandardCharsets.UTF_8).length);
+            }
             if (expandedDescription != null && !expandedDescription.equals(result)) {
                 System.out.println("[ZBetterWorkshopUpload] Expanded description from: " + result.length() + " to " + expandedDescription.length() + " chars");
                 result = expandedDescription;
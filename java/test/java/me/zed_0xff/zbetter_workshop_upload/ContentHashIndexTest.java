@@ -0,0 +1,121 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ContentHashIndex.
+ */
+public class ContentHashIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path item;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        item = Files.createDirectories(tempDir.resolve("Zomboid/Workshop/MyMod"));
+    }
+
+    private void write(String relativePath, String text) throws IOException {
+        Path file = item.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        // older than the racy window, so its record is trusted
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 10000));
+    }
+
+    private ContentHashIndex.Diff update(ContentHashIndex index) throws IOException {
+        ContentManifest manifest = WorkshopContentFilter.getContentManifest(item.resolve("Contents").toFile());
+        ContentHashIndex.Diff diff = index.update(UploadFileSet.collect(item, manifest));
+        index.save();
+        return diff;
+    }
+
+    @Test
+    void testSha256() throws IOException {
+        write("abc.txt", "abc");
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", ContentHashIndex.sha256(item.resolve("abc.txt")));
+    }
+
+    @Test
+    void testIndexFileNextToWorkshopFolder() {
+        assertEquals(tempDir.resolve("Zomboid/zb_workshop_index/MyMod.tsv"), WorkshopContentFilter.getHashIndexFile(item));
+    }
+
+    @Test
+    void testUpdateRehashesOnlyChangedFiles() throws IOException {
+        write("preview.png", "png");
+        write("Contents/a.lua", "a");
+        write("Contents/b.lua", "b");
+        write("Contents/skip.tmp", "x");
+        Path indexFile = tempDir.resolve("index.tsv");
+
+        ContentHashIndex index = ContentHashIndex.load(indexFile);
+        ContentHashIndex.Diff first = update(index);
+        assertEquals(3, first.added.size());
+        assertEquals(3, first.rehashed);
+        assertNull(index.getHash("Contents/skip.tmp"));
+
+        // reload from disk: nothing to rehash
+        ContentHashIndex reloaded = ContentHashIndex.load(indexFile);
+        assertEquals(index.digest(), reloaded.digest());
+        ContentHashIndex.Diff second = update(reloaded);
+        assertTrue(second.isEmpty());
+        assertEquals(0, second.rehashed);
+
+        // same content, new mtime: rehashed but unchanged
+        Files.setLastModifiedTime(item.resolve("Contents/a.lua"), FileTime.fromMillis(1500000000000L));
+        ContentHashIndex.Diff third = update(reloaded);
+        assertEquals(1, third.rehashed);
+        assertTrue(third.isEmpty());
+
+        write("Contents/b.lua", "bb");
+        Files.delete(item.resolve("preview.png"));
+        ContentHashIndex.Diff fourth = update(reloaded);
+        assertEquals(Collections.singletonList("Contents/b.lua"), fourth.modified);
+        assertEquals(Collections.singletonList("preview.png"), fourth.removed);
+        assertNotEquals(index.digest(), reloaded.digest());
+    }
+
+    @Test
+    void testCorruptIndexIsEmpty() throws IOException {
+        Path indexFile = tempDir.resolve("index.tsv");
+        Files.write(indexFile, "garbage\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, ContentHashIndex.load(indexFile).size());
+    }
+
+    @Test
+    void testFileModifiedRightBeforeHashingIsRehashed() throws IOException {
+        write("Contents/a.lua", "a");
+        Path file = item.resolve("Contents/a.lua");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        long mtime = Files.getLastModifiedTime(file).toMillis();
+        Path indexFile = tempDir.resolve("index.tsv");
+
+        ContentHashIndex index = ContentHashIndex.load(indexFile);
+        update(index);
+        assertNotNull(index.getHash("Contents/a.lua"));
+        assertNull(index.getHash("Contents/a.lua", 1, mtime), "a same-size edit could follow in the same tick");
+
+        // an edit keeping size and mtime is still picked up
+        Files.write(file, "b".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(mtime));
+        ContentHashIndex reloaded = ContentHashIndex.load(indexFile);
+        ContentHashIndex.Diff diff = update(reloaded);
+        assertEquals(1, diff.rehashed);
+        assertEquals(Collections.singletonList("Contents/a.lua"), diff.modified);
+    }
+}
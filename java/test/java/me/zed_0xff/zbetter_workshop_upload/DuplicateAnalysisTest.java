@@ -0,0 +1,114 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for DuplicateAnalysis and duplicate linking during staging.
+ */
+public class DuplicateAnalysisTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path item;
+    private Path contents;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns("*.log");
+        item = Files.createDirectories(tempDir.resolve("Workshop/MyMod"));
+        contents = item.resolve("Contents");
+        write("mods/a/common/tex.png", "texture-bytes");
+        write("mods/a/42/tex.png", "texture-bytes");
+        write("mods/a/42.13/tex.png", "texture-bytes");
+        write("mods/a/42/other.png", "texture-BYTES"); // same size, other content
+        write("mods/a/42/unique.txt", "unique");
+        write("mods/a/debug.log", "texture-bytes"); // excluded
+    }
+
+    @AfterEach
+    void tearDown() {
+        WorkshopContentFilter.setDedupeStaging(false);
+    }
+
+    private void write(String relativePath, String text) throws Exception {
+        Path file = contents.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testGroupsIdenticalFilesOnly() throws Exception {
+        DuplicateAnalysis analysis = DuplicateAnalysis.of(ContentManifest.build(contents), null);
+
+        assertEquals(1, analysis.getGroups().size());
+        DuplicateAnalysis.Group group = analysis.getGroups().get(0);
+        assertEquals(Arrays.asList("mods/a/42.13/tex.png", "mods/a/42/tex.png", "mods/a/common/tex.png"), group.paths);
+        assertEquals(2 * 13, analysis.getWastedBytes());
+
+        Map<String, String> links = analysis.getLinkTargets();
+        assertEquals(2, links.size());
+        assertEquals("mods/a/42.13/tex.png", links.get("mods/a/common/tex.png"));
+    }
+
+    @Test
+    void testFileEditedAfterScanIsNotADuplicate() throws Exception {
+        ContentManifest manifest = ContentManifest.build(contents);
+        write("mods/a/common/tex.png", "texture-bytez");
+
+        DuplicateAnalysis analysis = DuplicateAnalysis.of(manifest, null);
+        assertEquals(Arrays.asList("mods/a/42.13/tex.png", "mods/a/42/tex.png"), analysis.getGroups().get(0).paths);
+    }
+
+    @Test
+    void testStagingLinksDuplicates() throws Exception {
+        WorkshopContentFilter.setDedupeStaging(true);
+        Path staged = WorkshopContentFilter.stageItem(item.toFile(), null);
+        try {
+            Path first = staged.resolve("Contents/mods/a/42.13/tex.png");
+            Path copy = staged.resolve("Contents/mods/a/common/tex.png");
+            assertEquals("texture-bytes", new String(Files.readAllBytes(copy), StandardCharsets.UTF_8));
+            assertTrue(Files.isSameFile(first, copy));
+            assertFalse(Files.exists(staged.resolve("Contents/mods/a/debug.log")));
+        } finally {
+            StagingCleaner.delete(staged);
+        }
+    }
+
+    @Test
+    void testLinkedDuplicatesAreUnchangedOnTheNextSync() throws Exception {
+        // each duplicate has its own mtime, which its link to the staged original does not keep
+        long old = System.currentTimeMillis() - 10000;
+        try (Stream<Path> files = Files.walk(contents)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                old -= 1000;
+                Files.setLastModifiedTime(file, FileTime.fromMillis(old));
+            }
+        }
+        WorkshopContentFilter.setDedupeStaging(true);
+        Path staged = WorkshopContentFilter.stageItem(item.toFile(), null);
+        try {
+            StagingPipeline pipeline = new StagingPipeline(new FileStager(Collections.singletonList(StagingBackend.COPY)), 2);
+            StagingStamps stamps = StagingStamps.take(staged, false);
+            IncrementalStager.SyncStats stats = IncrementalStager.sync(item, ContentManifest.build(contents), staged, pipeline, stamps);
+            assertEquals(0, stats.updated);
+            assertEquals(5, stats.unchanged);
+        } finally {
+            StagingCleaner.delete(staged);
+        }
+    }
+}
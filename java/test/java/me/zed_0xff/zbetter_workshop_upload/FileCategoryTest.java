@@ -0,0 +1,43 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FileCategory and the manifest's per-category totals.
+ */
+public class FileCategoryTest {
+
+    @Test
+    void testClassifyByExtension() {
+        assertEquals(FileCategory.IMAGE, FileCategory.of("media/textures/a.PNG"));
+        assertEquals(FileCategory.TEXT, FileCategory.of("mod.info"));
+        assertEquals(FileCategory.LUA, FileCategory.of("media/lua/client/x.lua"));
+        assertEquals(FileCategory.JAVA, FileCategory.of("src/build.gradle"));
+        assertEquals(FileCategory.JAR, FileCategory.of("java/mod.jar"));
+        assertEquals(FileCategory.EXE, FileCategory.of("tools/run.sh"));
+        assertEquals(FileCategory.OTHER, FileCategory.of("media/sound/a.ogg"));
+        assertEquals(FileCategory.OTHER, FileCategory.of("Makefile"));
+        assertEquals(FileCategory.OTHER, FileCategory.of("dir.png/trailing."));
+    }
+
+    @Test
+    void testLicenseIsText() {
+        assertEquals(FileCategory.TEXT, FileCategory.of("LICENSE"));
+        assertEquals(FileCategory.TEXT, FileCategory.of("sub/license"));
+    }
+
+    @Test
+    void testFormatCount() {
+        assertEquals("312", ContentManifest.formatCount(312));
+        assertEquals("1.2k", ContentManifest.formatCount(1234));
+        assertEquals("2.5M", ContentManifest.formatCount(2500000));
+    }
+
+    @Test
+    void testEntryCategory() {
+        assertEquals(FileCategory.LUA, new ContentEntry("a.lua", false, 1, 0, true).getCategory());
+        assertEquals(FileCategory.OTHER, new ContentEntry("dir.lua", true, 0, 0, true).getCategory());
+    }
+}
@@ -0,0 +1,128 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FileStager and the staging backends.
+ */
+public class FileStagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final StagingBackend FAILING = new StagingBackend() {
+        @Override
+        public String getName() {
+            return "failing";
+        }
+
+        @Override
+        public boolean writesData() {
+            return false;
+        }
+
+        @Override
+        public void stage(Path source, Path dest) throws IOException {
+            throw new IOException("not supported");
+        }
+    };
+
+    private Path source(String name, String text) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    void testHardLinkWritesNoData() throws IOException {
+        Path src = source("a.txt", "hello");
+        FileStager stager = new FileStager(Arrays.asList(StagingBackend.HARD_LINK, StagingBackend.COPY));
+        Path dest = tempDir.resolve("staged.txt");
+        stager.stage(src, dest, 5);
+
+        assertEquals("hello", new String(Files.readAllBytes(dest), StandardCharsets.UTF_8));
+        assertEquals(1, stager.getFileCount(StagingBackend.HARD_LINK));
+        assertEquals(0, stager.getBytesWritten());
+    }
+
+    @Test
+    void testFallsBackAndDisablesFailingBackend() throws IOException {
+        FileStager stager = new FileStager(Arrays.asList(FAILING, StagingBackend.COPY));
+        stager.stage(source("a.txt", "12345"), tempDir.resolve("a2.txt"), 5);
+        stager.stage(source("b.txt", "123"), tempDir.resolve("b2.txt"), 3);
+
+        assertEquals(2, stager.getFileCount(StagingBackend.COPY));
+        assertEquals(8, stager.getBytesWritten());
+        assertEquals("copy: 2 files (8 B); 8 B written", stager.getSummary());
+    }
+
+    @Test
+    void testSmallFilesSkipBackendWithMinimumSize() throws IOException {
+        StagingBackend bigOnly = new StagingBackend() {
+            @Override
+            public String getName() {
+                return "big";
+            }
+
+            @Override
+            public boolean writesData() {
+                return false;
+            }
+
+            @Override
+            public long getMinimumSize() {
+                return 4;
+            }
+
+            @Override
+            public void stage(Path source, Path dest) throws IOException {
+                Files.createLink(dest, source);
+            }
+        };
+        FileStager stager = new FileStager(Arrays.asList(bigOnly, StagingBackend.COPY));
+        assertEquals(StagingBackend.COPY, stager.stage(source("a.txt", "123"), tempDir.resolve("a2.txt"), 3));
+        assertEquals(bigOnly, stager.stage(source("b.txt", "12345"), tempDir.resolve("b2.txt"), 5));
+
+        assertEquals(1, stager.getTooSmallCount(bigOnly));
+        assertEquals("big: 1 files (5 B), copy: 1 files (3 B); 1 files under 4 B not staged with big; 3 B written", stager.getSummary());
+        assertEquals(1L << 20, StagingBackend.CLONE.getMinimumSize());
+    }
+
+    @Test
+    void testLastBackendFailureIsThrown() throws IOException {
+        FileStager stager = new FileStager(Collections.singletonList(FAILING));
+        Path src = source("a.txt", "x");
+        assertThrows(IOException.class, () -> stager.stage(src, tempDir.resolve("a2.txt"), 1));
+    }
+
+    @Test
+    void testModes() {
+        assertEquals(Collections.singletonList(StagingBackend.COPY), FileStager.backendsFor("copy"));
+        assertEquals(StagingBackend.CLONE, FileStager.backendsFor("clone").get(0));
+        assertEquals(StagingBackend.HARD_LINK, FileStager.backendsFor("auto").get(0));
+    }
+
+    @Test
+    void testStagingRootNextToWorkshopFolder() throws IOException {
+        Path item = tempDir.resolve("Zomboid/Workshop/MyMod");
+        Files.createDirectories(item.resolve("Contents"));
+        assertEquals(tempDir.resolve("Zomboid").resolve(FileStager.STAGING_DIR_NAME), FileStager.chooseStagingRoot(item));
+    }
+
+    @Test
+    void testFormatBytes() {
+        assertEquals("512 B", FileStager.formatBytes(512));
+        assertEquals("1.5 KB", FileStager.formatBytes(1536));
+        assertEquals("2.0 GB", FileStager.formatBytes(2L << 30));
+    }
+}
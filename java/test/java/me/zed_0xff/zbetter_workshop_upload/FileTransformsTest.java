@@ -0,0 +1,193 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FileTransforms and the built-in file transformers.
+ */
+public class FileTransformsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path item;
+    private Path staging;
+    private Path cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        item = Files.createDirectories(tempDir.resolve("Workshop/MyMod"));
+        staging = tempDir.resolve("staging");
+        cache = tempDir.resolve("cache");
+    }
+
+    private void write(String relativePath, String text) throws IOException {
+        Path file = item.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // older than the racy window, so that staging stamps are written for the file
+    private void backdate(String relativePath) throws IOException {
+        Files.setLastModifiedTime(item.resolve(relativePath), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+    }
+
+    private String read(String relativePath) throws IOException {
+        return new String(Files.readAllBytes(staging.resolve(relativePath)), StandardCharsets.UTF_8);
+    }
+
+    private static String transform(FileTransformer transformer, byte[] input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.transform(new ByteArrayInputStream(input), out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private IncrementalStager.SyncStats sync(FileTransforms transforms) throws IOException {
+        StagingPipeline pipeline = new StagingPipeline(new FileStager(Collections.singletonList(StagingBackend.COPY)), 2, transforms);
+        ContentManifest manifest = WorkshopContentFilter.getContentManifest(item.resolve("Contents").toFile());
+        StagingStamps stamps = StagingStamps.take(staging, false);
+        IncrementalStager.SyncStats stats = IncrementalStager.sync(item, manifest, staging, pipeline, stamps);
+        pipeline.run();
+        stamps.save(staging);
+        return stats;
+    }
+
+    @Test
+    void testTextNormalizer() throws IOException {
+        TextNormalizer normalizer = new TextNormalizer();
+        assertEquals("a\nb\nc", transform(normalizer, "\uFEFFa\r\nb\r\nc".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("lone\rcr\r", transform(normalizer, "lone\rcr\r".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("x\n", transform(normalizer, "x\r\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("", transform(normalizer, new byte[0]));
+        assertEquals("ab", transform(normalizer, "ab".getBytes(StandardCharsets.UTF_8)));
+
+        // CRLF split across buffer boundaries
+        byte[] big = new byte[200000];
+        for (int i = 0; i < big.length; i += 2) {
+            big[i] = '\r';
+            big[i + 1] = '\n';
+        }
+        assertEquals(100000, transform(normalizer, big).length());
+    }
+
+    @Test
+    void testModInfoRewriter() throws IOException {
+        Map<String, String> overrides = ModInfoRewriter.parse("name=New Name; poster=; versionMin=42.0; bogus");
+        assertEquals(3, overrides.size());
+        ModInfoRewriter rewriter = new ModInfoRewriter(overrides);
+        String input = "name=Old\r\nid=MyMod\r\nposter=poster.png\r\nname=Again";
+        assertEquals("name=New Name\r\nid=MyMod\r\nversionMin=42.0\r\n", transform(rewriter, input.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("id=x\nname=New Name\nversionMin=42.0\n", transform(rewriter, "id=x".getBytes(StandardCharsets.UTF_8)));
+
+        assertNotEquals(rewriter.getCacheKey(), new ModInfoRewriter(ModInfoRewriter.parse("name=Other")).getCacheKey());
+        assertEquals(rewriter.getCacheKey(), new ModInfoRewriter(overrides).getCacheKey());
+    }
+
+    @Test
+    void testJavaSourceDropper() throws IOException {
+        write("Contents/mods/a/media/java/client/src/Main.java", "class Main {}");
+        write("Contents/mods/a/media/java/client/build/libs/client.jar", "jar");
+        write("Contents/mods/b/src/Other.java", "class Other {}");
+        Path contents = item.resolve("Contents");
+
+        JavaSourceDropper dropper = new JavaSourceDropper();
+        assertTrue(dropper.isDropped(contents, "mods/a/media/java/client/src/Main.java"));
+        assertFalse(dropper.isDropped(contents, "mods/b/src/Other.java"));
+    }
+
+    @Test
+    void testTransformsAppliedWhileStaging() throws IOException {
+        write("Contents/mods/a/mod.info", "name=Old\nid=a\n");
+        write("Contents/mods/a/media/lua/x.lua", "\uFEFFprint(1)\r\n");
+        write("Contents/mods/a/media/textures/t.png", "png\r\n");
+        write("Contents/mods/a/src/A.java", "class A {}");
+        write("Contents/mods/a/a.jar", "jar");
+
+        FileTransforms transforms = new FileTransforms(cache, null)
+            .add(new JavaSourceDropper(), "*.java")
+            .add(new TextNormalizer(), "*.txt", "*.lua")
+            .add(new ModInfoRewriter(ModInfoRewriter.parse("name=New")), "mod.info");
+        sync(transforms);
+
+        assertEquals("name=New\nid=a\n", read("Contents/mods/a/mod.info"));
+        assertEquals("print(1)\n", read("Contents/mods/a/media/lua/x.lua"));
+        assertEquals("png\r\n", read("Contents/mods/a/media/textures/t.png"));
+        assertFalse(Files.exists(staging.resolve("Contents/mods/a/src/A.java")));
+        assertTrue(Files.exists(staging.resolve("Contents/mods/a/a.jar")));
+        assertEquals(2, transforms.getTransformedCount());
+        assertEquals(1, transforms.getDroppedCount());
+        assertTrue(transforms.isDropped(item.resolve("Contents"), "mods/a/src/A.java"));
+        assertEquals(1, transforms.getDroppedCount(), "counted where the file is skipped, not per check");
+
+        // sources are untouched
+        assertEquals("\uFEFFprint(1)\r\n", new String(Files.readAllBytes(item.resolve("Contents/mods/a/media/lua/x.lua")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testCachedOutputReusedByInputHash() throws IOException {
+        write("Contents/x.lua", "a\r\n");
+        backdate("Contents/x.lua");
+        ContentHashIndex index = WorkshopContentFilter.getHashIndex(item);
+        WorkshopContentFilter.updateHashIndex(item.toFile());
+
+        FileTransforms first = new FileTransforms(cache, index).add(new TextNormalizer(), "*.lua");
+        sync(first);
+        assertEquals(1, first.getTransformedCount());
+        assertEquals(0, first.getCachedCount());
+
+        // staged again into a fresh folder, from the cache this time
+        StagingCleaner.delete(staging);
+        FileTransforms second = new FileTransforms(cache, index).add(new TextNormalizer(), "*.lua");
+        IncrementalStager.SyncStats stats = sync(second);
+        assertEquals(1, stats.added);
+        assertEquals(0, second.getTransformedCount());
+        assertEquals(1, second.getCachedCount());
+        assertEquals("a\n", read("Contents/x.lua"));
+    }
+
+    @Test
+    void testUntouchedTransformedFilesAreNotRestaged() throws IOException {
+        write("Contents/mods/a/mod.info", "name=Old\nid=a\n");
+        write("Contents/mods/a/media/lua/x.lua", "print(1)\r\n");
+        backdate("Contents/mods/a/mod.info");
+        backdate("Contents/mods/a/media/lua/x.lua");
+
+        FileTransforms transforms = new FileTransforms(cache, null)
+            .add(new TextNormalizer(), "*.lua")
+            .add(new ModInfoRewriter(ModInfoRewriter.parse("name=New")), "mod.info");
+        assertEquals(2, sync(transforms).added);
+
+        IncrementalStager.SyncStats second = sync(transforms);
+        assertEquals(0, second.added + second.updated + second.deleted);
+        assertEquals(2, second.unchanged);
+
+        // other overrides produce another mod.info
+        FileTransforms renamed = new FileTransforms(cache, null)
+            .add(new TextNormalizer(), "*.lua")
+            .add(new ModInfoRewriter(ModInfoRewriter.parse("name=Newer")), "mod.info");
+        IncrementalStager.SyncStats third = sync(renamed);
+        assertEquals(1, third.updated);
+        assertEquals(1, third.unchanged);
+        assertEquals("name=Newer\nid=a\n", read("Contents/mods/a/mod.info"));
+
+        // and without transformers the sources are staged as they are
+        IncrementalStager.SyncStats plain = sync(null);
+        assertEquals(2, plain.updated);
+        assertEquals("print(1)\r\n", read("Contents/mods/a/media/lua/x.lua"));
+    }
+}
@@ -0,0 +1,168 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FilterRuleSet.
+ */
+public class FilterRuleSetTest {
+
+    private static FilterRuleSet rules(String... patterns) {
+        return FilterRuleSet.compile(Arrays.asList(patterns));
+    }
+
+    @Test
+    void testEmptyRuleSet() {
+        FilterRuleSet set = FilterRuleSet.compile(Collections.emptyList());
+        assertTrue(set.isEmpty());
+        assertFalse(set.matches("media/lua/foo.lua"));
+    }
+
+    @Test
+    void testLiteralFileName() {
+        FilterRuleSet set = rules(".DS_Store");
+        assertTrue(set.matches(".DS_Store"));
+        assertTrue(set.matches("media/.DS_Store"));
+        assertFalse(set.matches("media/DS_Store"));
+    }
+
+    @Test
+    void testLiteralDirectorySegment() {
+        FilterRuleSet set = rules("tmp");
+        assertTrue(set.matches("tmp"));
+        assertTrue(set.matches("tmp/foo.txt"));
+        assertTrue(set.matches("media/tmp/foo.txt"));
+        assertFalse(set.matches("media/tmpfile.txt"));
+    }
+
+    @Test
+    void testExtensionWildcard() {
+        FilterRuleSet set = rules("*.log");
+        assertTrue(set.matches("debug.log"));
+        assertTrue(set.matches("a/b/c/debug.log"));
+        assertFalse(set.matches("a/b/c/debug.lua"));
+    }
+
+    @Test
+    void testPrefixWildcardMatchesDirectory() {
+        FilterRuleSet set = rules(".git*");
+        assertTrue(set.matches(".gitignore"));
+        assertTrue(set.matches(".git/config"));
+        assertTrue(set.matches("sub/.github/workflows/ci.yml"));
+        assertFalse(set.matches("media/git.txt"));
+    }
+
+    @Test
+    void testRegexCharactersAreLiteral() {
+        FilterRuleSet set = rules("a+b(1).txt");
+        assertTrue(set.matches("a+b(1).txt"));
+        assertFalse(set.matches("aab1.txt"));
+    }
+
+    @Test
+    void testVersionIncreases() {
+        FilterRuleSet first = rules("*.log");
+        FilterRuleSet second = rules("*.log");
+        assertTrue(second.getVersion() > first.getVersion());
+    }
+
+    @Test
+    void testExtend() {
+        FilterRuleSet base = rules("*.log");
+        assertSame(base, base.extend(FilterRuleSet.EMPTY, ""));
+        FilterRuleSet combined = base.extend(rules("build"), "");
+        assertTrue(combined.matches("a/debug.log"));
+        assertTrue(combined.matches("build/x.class"));
+        assertFalse(base.matches("build/x.class"));
+    }
+
+    @Test
+    void testExtendRebasesAnchoredRules() {
+        FilterRuleSet combined = FilterRuleSet.EMPTY.extend(rules("/out", "*.bak"), "mods/a");
+        assertTrue(combined.matches("mods/a/out/x.txt"));
+        assertFalse(combined.matches("mods/a/b/out/x.txt"));
+        assertTrue(combined.matches("mods/a/b/x.bak"));
+    }
+
+    @Test
+    void testBlankLinesAndCommentsSkipped() {
+        FilterRuleSet set = rules("# comment", "*.log", "", "   ", "tmp");
+        assertEquals(Arrays.asList("*.log", "tmp"), set.getPatterns());
+    }
+
+    @Test
+    void testDirectoryOnlyPattern() {
+        FilterRuleSet set = rules("build/");
+        assertTrue(set.matches("build/x.class"));
+        assertTrue(set.matches("a/build/x.class"));
+        assertFalse(set.matches("a/build"));
+        assertTrue(set.isExcluded("a/build", "build", true));
+    }
+
+    @Test
+    void testNegation() {
+        FilterRuleSet set = rules("*.png", "!preview.png");
+        assertTrue(set.matches("a/tex.png"));
+        assertFalse(set.matches("preview.png"));
+        assertFalse(set.matches("a/preview.png"));
+    }
+
+    @Test
+    void testNegationCannotReincludeInsideExcludedDirectory() {
+        FilterRuleSet set = rules("build/", "!build/keep.txt");
+        assertTrue(set.matches("build/keep.txt"));
+    }
+
+    @Test
+    void testAnchoredPattern() {
+        FilterRuleSet set = rules("/docs", "media/raw/*.psd");
+        assertTrue(set.matches("docs/readme.md"));
+        assertFalse(set.matches("mods/docs/readme.md"));
+        assertTrue(set.matches("media/raw/a.psd"));
+        assertFalse(set.matches("media/raw/sub/a.psd"));
+        assertFalse(set.matches("x/media/raw/a.psd"));
+    }
+
+    @Test
+    void testDoubleStar() {
+        FilterRuleSet set = rules("**/cache", "logs/**", "a/**/z.txt");
+        assertTrue(set.matches("cache/x"));
+        assertTrue(set.matches("deep/er/cache/x"));
+        assertTrue(set.matches("logs/a/b.txt"));
+        assertTrue(set.matches("a/z.txt"));
+        assertTrue(set.matches("a/b/c/z.txt"));
+        assertFalse(set.matches("b/a/z.txt"));
+    }
+
+    @Test
+    void testQuestionMarkAndClasses() {
+        FilterRuleSet set = rules("file?.txt", "*.[oa]", "[!x]y");
+        assertTrue(set.matches("file1.txt"));
+        assertFalse(set.matches("file10.txt"));
+        assertTrue(set.matches("lib/x.o"));
+        assertTrue(set.matches("lib/x.a"));
+        assertFalse(set.matches("lib/x.so"));
+        assertTrue(set.matches("ay"));
+        assertFalse(set.matches("xy"));
+    }
+
+    @Test
+    void testStarDoesNotCrossDirectories() {
+        FilterRuleSet set = rules("a*b");
+        assertFalse(set.matches("a/b"));
+        assertTrue(set.matches("a/axxb"));
+    }
+
+    @Test
+    void testEscapes() {
+        FilterRuleSet set = rules("\\#hash", "\\!bang", "trailing\\ ");
+        assertTrue(set.matches("#hash"));
+        assertTrue(set.matches("!bang"));
+        assertTrue(set.matches("trailing "));
+    }
+}
@@ -0,0 +1,123 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for IgnoreFileCache.
+ */
+public class IgnoreFileCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private void writeIgnore(Path dir, String text, long lastModified) throws IOException {
+        Path file = dir.resolve(".workshopignore");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        file.toFile().setLastModified(lastModified);
+    }
+
+    @Test
+    void testMissingIgnoreFileIsCached() {
+        IgnoreFileCache cache = new IgnoreFileCache(".workshopignore", 16);
+        assertSame(FilterRuleSet.EMPTY, cache.get(tempDir.toFile()));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testUnchangedFileReturnsSameRules() throws IOException {
+        writeIgnore(tempDir, "*.psd\n", 1_600_000_000_000L);
+        IgnoreFileCache cache = new IgnoreFileCache(".workshopignore", 16);
+        FilterRuleSet first = cache.get(tempDir.toFile());
+        assertTrue(first.matches("a.psd"));
+        assertSame(first, cache.get(tempDir.toFile()));
+    }
+
+    @Test
+    void testEditedFileIsReloaded() throws IOException {
+        writeIgnore(tempDir, "*.psd\n", 1_600_000_000_000L);
+        IgnoreFileCache cache = new IgnoreFileCache(".workshopignore", 16);
+        assertTrue(cache.get(tempDir.toFile()).matches("a.psd"));
+
+        writeIgnore(tempDir, "*.xcf\n", 1_600_000_001_000L);
+        FilterRuleSet reloaded = cache.get(tempDir.toFile());
+        assertFalse(reloaded.matches("a.psd"));
+        assertTrue(reloaded.matches("a.xcf"));
+    }
+
+    @Test
+    void testSameSizeEditWithinMtimeGranularityIsReloaded() throws IOException {
+        long now = System.currentTimeMillis();
+        writeIgnore(tempDir, "*.psd\n", now);
+        IgnoreFileCache cache = new IgnoreFileCache(".workshopignore", 16);
+        FilterRuleSet first = cache.get(tempDir.toFile());
+        assertTrue(first.matches("a.psd"));
+        // unchanged content: the compiled rules are kept
+        assertSame(first, cache.get(tempDir.toFile()));
+
+        // same size and mtime, as after an edit in the same filesystem clock tick
+        writeIgnore(tempDir, "*.xcf\n", now);
+        FilterRuleSet reloaded = cache.get(tempDir.toFile());
+        assertFalse(reloaded.matches("a.psd"));
+        assertTrue(reloaded.matches("a.xcf"));
+    }
+
+    @Test
+    void testCombinedRulesAreReused() throws IOException {
+        writeIgnore(tempDir, "*.psd\n", 1_600_000_000_000L);
+        IgnoreFileCache cache = new IgnoreFileCache(".workshopignore", 16);
+        FilterRuleSet global = FilterRuleSet.compile(Arrays.asList("*.tmp"));
+
+        FilterRuleSet combined = cache.extend(tempDir.toFile(), global, "sub");
+        assertTrue(combined.matches("sub/a.psd"));
+        assertTrue(combined.matches("x.tmp"));
+        assertSame(combined, cache.extend(tempDir.toFile(), global, "sub"));
+
+        // other inherited rules or another relative path compile a new combination
+        FilterRuleSet otherGlobal = FilterRuleSet.compile(Arrays.asList("*.log"));
+        assertNotSame(combined, cache.extend(tempDir.toFile(), otherGlobal, "sub"));
+        assertNotSame(combined, cache.extend(tempDir.toFile(), global, "other"));
+
+        // an edited ignore file too
+        writeIgnore(tempDir, "*.xcf\n", 1_600_000_001_000L);
+        FilterRuleSet edited = cache.extend(tempDir.toFile(), global, "sub");
+        assertTrue(edited.matches("sub/a.xcf"));
+        assertFalse(edited.matches("sub/a.psd"));
+
+        // no ignore file: the inherited rules themselves
+        File empty = Files.createDirectories(tempDir.resolve("empty")).toFile();
+        assertSame(global, cache.extend(empty, global, "empty"));
+    }
+
+    @Test
+    void testCreatedAndDeletedFileDetected() throws IOException {
+        IgnoreFileCache cache = new IgnoreFileCache(".workshopignore", 16);
+        assertTrue(cache.get(tempDir.toFile()).isEmpty());
+
+        writeIgnore(tempDir, "*.psd\n", 1_600_000_000_000L);
+        assertTrue(cache.get(tempDir.toFile()).matches("a.psd"));
+
+        Files.delete(tempDir.resolve(".workshopignore"));
+        assertTrue(cache.get(tempDir.toFile()).isEmpty());
+    }
+
+    @Test
+    void testSizeIsBounded() throws IOException {
+        IgnoreFileCache cache = new IgnoreFileCache(".workshopignore", 4);
+        for (int i = 0; i < 10; i++) {
+            File dir = tempDir.resolve("d" + i).toFile();
+            dir.mkdirs();
+            cache.get(dir);
+        }
+        assertEquals(4, cache.size());
+    }
+}
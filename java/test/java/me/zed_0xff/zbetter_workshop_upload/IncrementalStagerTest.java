@@ -0,0 +1,148 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for IncrementalStager.
+ */
+public class IncrementalStagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path item;
+    private Path staging;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        item = Files.createDirectories(tempDir.resolve("Workshop/MyMod"));
+        staging = tempDir.resolve("staging");
+    }
+
+    private void write(String relativePath, String text) throws IOException {
+        Path file = item.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // older than the racy window, so that staging stamps are written for the file
+    private void backdate(String relativePath, long millis) throws IOException {
+        Files.setLastModifiedTime(item.resolve(relativePath), FileTime.fromMillis(System.currentTimeMillis() - millis));
+    }
+
+    private IncrementalStager.SyncStats sync() throws IOException {
+        return sync(false);
+    }
+
+    // mirrors WorkshopContentFilter.syncStagingFolder
+    private IncrementalStager.SyncStats sync(boolean optimizePngs) throws IOException {
+        StagingPipeline pipeline = new StagingPipeline(new FileStager(Collections.singletonList(StagingBackend.COPY)), 2);
+        ContentManifest manifest = WorkshopContentFilter.getContentManifest(item.resolve("Contents").toFile());
+        StagingStamps stamps = StagingStamps.take(staging, optimizePngs);
+        IncrementalStager.SyncStats stats = IncrementalStager.sync(item, manifest, staging, pipeline, stamps);
+        pipeline.run();
+        if (optimizePngs) {
+            new PngOptimizer(tempDir.resolve("png_cache")).optimizeAll(pipeline.getDestinations());
+        }
+        stamps.save(staging);
+        return stats;
+    }
+
+    private String read(String relativePath) throws IOException {
+        return new String(Files.readAllBytes(staging.resolve(relativePath)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testSyncStagesOnlyChanges() throws IOException {
+        write("preview.png", "png");
+        write("Contents/mods/a/mod.info", "info");
+        write("Contents/mods/a/media/lua/x.lua", "x1");
+        write("Contents/mods/a/media/lua/y.lua", "y");
+
+        IncrementalStager.SyncStats first = sync();
+        assertEquals(4, first.added);
+        assertEquals("x1", read("Contents/mods/a/media/lua/x.lua"));
+
+        IncrementalStager.SyncStats second = sync();
+        assertEquals(0, second.added + second.updated + second.deleted);
+        assertEquals(4, second.unchanged);
+
+        write("Contents/mods/a/media/lua/x.lua", "x2!");
+        Files.delete(item.resolve("Contents/mods/a/media/lua/y.lua"));
+        write("Contents/mods/a/media/lua/z.lua", "z");
+        IncrementalStager.SyncStats third = sync();
+        assertEquals(1, third.added);
+        assertEquals(1, third.updated);
+        assertEquals(1, third.deleted);
+        assertEquals(2, third.unchanged);
+        assertEquals("x2!", read("Contents/mods/a/media/lua/x.lua"));
+        assertFalse(Files.exists(staging.resolve("Contents/mods/a/media/lua/y.lua")));
+    }
+
+    @Test
+    void testSyncDeletesNewlyExcludedEntries() throws IOException {
+        write("Contents/keep.lua", "k");
+        write("Contents/build/out.txt", "o");
+        sync();
+        assertTrue(Files.exists(staging.resolve("Contents/build/out.txt")));
+
+        write("Contents/.workshopignore", "build/\n");
+        IncrementalStager.SyncStats stats = sync();
+        assertEquals(1, stats.deleted);
+        assertFalse(Files.exists(staging.resolve("Contents/build")));
+        assertTrue(Files.exists(staging.resolve("Contents/.workshopignore")));
+    }
+
+    @Test
+    void testSyncReplacesFileWithSameSizeButNewMtime() throws IOException {
+        write("Contents/a.lua", "aaa");
+        sync();
+        write("Contents/a.lua", "bbb");
+        Files.setLastModifiedTime(item.resolve("Contents/a.lua"), FileTime.fromMillis(1500000000000L));
+        assertEquals(1, sync().updated);
+        assertEquals("bbb", read("Contents/a.lua"));
+    }
+
+    @Test
+    void testOptimizedPngIsNotRestagedUntilItsSourceChanges() throws Exception {
+        byte[] png = PngOptimizerTest.poorlyCompressedPng();
+        Path source = item.resolve("Contents/media/textures/a.png");
+        Files.createDirectories(source.getParent());
+        Files.write(source, png);
+        write("Contents/b.lua", "b");
+        backdate("Contents/media/textures/a.png", 60000);
+        backdate("Contents/b.lua", 60000);
+        Path staged = staging.resolve("Contents/media/textures/a.png");
+
+        assertEquals(2, sync(true).added);
+        assertTrue(Files.size(staged) < png.length);
+        assertTrue(Files.exists(StagingStamps.file(staging)));
+
+        IncrementalStager.SyncStats second = sync(true);
+        assertEquals(0, second.added + second.updated + second.deleted);
+        assertEquals(2, second.unchanged);
+
+        // without the optimizer the staged file is no longer what staging would produce
+        IncrementalStager.SyncStats third = sync(false);
+        assertEquals(1, third.updated);
+        assertEquals(png.length, Files.size(staged));
+
+        sync(true);
+        backdate("Contents/media/textures/a.png", 30000);
+        IncrementalStager.SyncStats edited = sync(true);
+        assertEquals(1, edited.updated);
+        assertEquals(1, edited.unchanged);
+    }
+}
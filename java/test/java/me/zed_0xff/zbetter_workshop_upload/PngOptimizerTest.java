@@ -0,0 +1,145 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for PngOptimizer.
+ */
+public class PngOptimizerTest {
+
+    @TempDir
+    Path tempDir;
+
+    // 64x64 RGBA gradient, stored without compression and with a tEXt chunk
+    static byte[] poorlyCompressedPng() throws Exception {
+        int w = 64;
+        int h = 64;
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        for (int y = 0; y < h; y++) {
+            raw.write(0); // filter: none
+            for (int x = 0; x < w; x++) {
+                raw.write(x * 4);
+                raw.write(y * 4);
+                raw.write(128);
+                raw.write(x == y ? 0 : 255);
+            }
+        }
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(idat, new Deflater(Deflater.NO_COMPRESSION))) {
+            out.write(raw.toByteArray());
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        png.write(PngOptimizer.SIGNATURE);
+        chunk(png, "IHDR", new byte[] { 0, 0, 0, (byte) w, 0, 0, 0, (byte) h, 8, 6, 0, 0, 0 });
+        chunk(png, "tEXt", "Software\0SomeExporter 1.0".getBytes(StandardCharsets.ISO_8859_1));
+        chunk(png, "IDAT", idat.toByteArray());
+        chunk(png, "IEND", new byte[0]);
+        return png.toByteArray();
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String type, byte[] data) throws Exception {
+        byte[] typeBytes = type.getBytes(StandardCharsets.ISO_8859_1);
+        out.write(new byte[] { (byte) (data.length >>> 24), (byte) (data.length >>> 16), (byte) (data.length >>> 8), (byte) data.length });
+        out.write(typeBytes);
+        out.write(data);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        int v = (int) crc.getValue();
+        out.write(new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v });
+    }
+
+    private static int[] pixels(byte[] png) throws Exception {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    void testOptimizeIsSmallerAndPixelIdentical() throws Exception {
+        byte[] input = poorlyCompressedPng();
+        byte[] output = PngOptimizer.optimize(input);
+
+        assertNotNull(output);
+        assertTrue(output.length < input.length);
+        assertArrayEquals(pixels(input), pixels(output));
+        assertFalse(new String(output, StandardCharsets.ISO_8859_1).contains("tEXt"));
+        assertNull(PngOptimizer.optimize(output), "already optimal");
+    }
+
+    @Test
+    void testRejectsNonPngAndCorruptFiles() throws Exception {
+        assertNull(PngOptimizer.optimize("not a png at all".getBytes(StandardCharsets.UTF_8)));
+        byte[] corrupt = poorlyCompressedPng();
+        corrupt[40] ^= 1;
+        assertNull(PngOptimizer.optimize(corrupt));
+    }
+
+    @Test
+    void testReplacesStagedLinkButNotSource() throws Exception {
+        byte[] input = poorlyCompressedPng();
+        Path source = tempDir.resolve("source.png");
+        Files.write(source, input);
+        Path staged = tempDir.resolve("staged.png");
+        Files.createLink(staged, source);
+
+        PngOptimizer optimizer = new PngOptimizer(tempDir.resolve("cache"));
+        optimizer.optimizeAll(Collections.singletonList(staged));
+        assertTrue(Arrays.equals(input, Files.readAllBytes(source)));
+        assertTrue(Files.size(staged) < input.length);
+        assertEquals(1, optimizer.getOptimizedCount());
+        assertTrue(optimizer.getBytesSaved() > 0);
+
+        // second run on another copy of the same content comes from the cache
+        Path other = tempDir.resolve("other.png");
+        Files.write(other, input);
+        PngOptimizer cached = new PngOptimizer(tempDir.resolve("cache"));
+        cached.optimizeAll(Collections.singletonList(other));
+        assertTrue(cached.getSummary().contains("1 from cache"));
+        assertArrayEquals(Files.readAllBytes(staged), Files.readAllBytes(other));
+    }
+
+    @Test
+    void testUsedCacheEntriesSurviveTheTrim() throws Exception {
+        Path cache = tempDir.resolve("cache");
+        Path first = tempDir.resolve("first.png");
+        Files.write(first, poorlyCompressedPng());
+        new PngOptimizer(cache).optimizeAll(Collections.singletonList(first));
+        Path entry;
+        try (Stream<Path> entries = Files.list(cache)) {
+            entry = entries.findFirst().get();
+        }
+        long now = System.currentTimeMillis();
+        long old = now - 2 * StagingCleaner.CACHE_MAX_AGE_MILLIS;
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(old));
+
+        // a hit marks the entry as used
+        Path second = tempDir.resolve("second.png");
+        Files.write(second, poorlyCompressedPng());
+        new PngOptimizer(cache).optimizeAll(Collections.singletonList(second));
+        assertEquals(0, StagingCleaner.trimCache(cache, StagingCleaner.CACHE_MAX_AGE_MILLIS, now));
+
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(old));
+        assertEquals(1, StagingCleaner.trimCache(cache, StagingCleaner.CACHE_MAX_AGE_MILLIS, now));
+        assertFalse(Files.exists(entry));
+    }
+}
@@ -0,0 +1,58 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for PreStager.
+ */
+public class PreStagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        PreStager.discard();
+    }
+
+    private Path createItem(String name) throws Exception {
+        Path item = Files.createDirectories(tempDir.resolve("Workshop").resolve(name));
+        Path file = Files.createDirectories(item.resolve("Contents/mods/a")).resolve("mod.info");
+        Files.write(file, "name=a".getBytes(StandardCharsets.UTF_8));
+        return item;
+    }
+
+    @Test
+    void testTakeReturnsPreStagedFolder() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        Path item = createItem("MyMod");
+
+        PreStager.start(item.toFile(), null, FileStager.MODE_COPY);
+        Path staged = PreStager.take(item.toFile(), null, FileStager.MODE_COPY);
+
+        assertNotNull(staged);
+        assertTrue(Files.isRegularFile(staged.resolve("Contents/mods/a/mod.info")));
+        assertNull(PreStager.take(item.toFile(), null, FileStager.MODE_COPY), "a folder is handed out only once");
+    }
+
+    @Test
+    void testTakeIgnoresOtherItemOrSettings() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        Path item = createItem("MyMod");
+        Path other = createItem("OtherMod");
+
+        PreStager.start(item.toFile(), null, FileStager.MODE_COPY);
+        assertNull(PreStager.take(other.toFile(), null, FileStager.MODE_COPY));
+
+        PreStager.start(item.toFile(), null, FileStager.MODE_COPY);
+        assertNull(PreStager.take(item.toFile(), null, FileStager.MODE_AUTO));
+    }
+}
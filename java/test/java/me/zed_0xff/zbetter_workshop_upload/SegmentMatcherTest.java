@@ -0,0 +1,86 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SegmentMatcher.
+ */
+public class SegmentMatcherTest {
+
+    private static SegmentMatcher matcher(String... patterns) {
+        List<IgnoreRule> rules = new ArrayList<>();
+        for (String pattern : patterns) {
+            rules.add(IgnoreRule.parse(pattern));
+        }
+        return new SegmentMatcher(rules);
+    }
+
+    private static int file(SegmentMatcher m, String path) {
+        return m.lastMatch(path, path.substring(path.lastIndexOf('/') + 1), false);
+    }
+
+    private static int dir(SegmentMatcher m, String path) {
+        return m.lastMatch(path, path.substring(path.lastIndexOf('/') + 1), true);
+    }
+
+    @Test
+    void testLiteralNames() {
+        SegmentMatcher m = matcher("tmp", ".DS_Store");
+        assertEquals(0, dir(m, "a/tmp"));
+        assertEquals(1, file(m, "a/b/.DS_Store"));
+        assertEquals(-1, dir(m, "a/tmpx"));
+    }
+
+    @Test
+    void testSuffixTable() {
+        SegmentMatcher m = matcher("*.log", "*.tmp");
+        assertEquals(0, file(m, "a/b/debug.log"));
+        assertEquals(1, dir(m, "x.tmp"));
+        assertEquals(-1, file(m, "a/b/log"));
+    }
+
+    @Test
+    void testPrefixTrie() {
+        SegmentMatcher m = matcher(".git*", ".gi*");
+        assertEquals(1, dir(m, ".git"));
+        assertEquals(1, dir(m, "sub/.github"));
+        assertEquals(-1, dir(m, "sub/git"));
+    }
+
+    @Test
+    void testGenericNamePatterns() {
+        SegmentMatcher m = matcher("*_old*", "a?b", "[ab]x");
+        assertEquals(0, file(m, "media/tex_old_v2.png"));
+        assertEquals(1, file(m, "media/axb"));
+        assertEquals(2, file(m, "bx"));
+        assertEquals(-1, file(m, "media/ab"));
+    }
+
+    @Test
+    void testAnchoredPaths() {
+        SegmentMatcher m = matcher("/media/raw", "docs/*.md");
+        assertEquals(0, dir(m, "media/raw"));
+        assertEquals(-1, dir(m, "42/media/raw"));
+        assertEquals(1, file(m, "docs/readme.md"));
+        assertEquals(-1, file(m, "docs/sub/readme.md"));
+    }
+
+    @Test
+    void testLastMatchAcrossBuckets() {
+        SegmentMatcher m = matcher("*.png", "keep*", "!keep.png", "keep.png");
+        assertEquals(3, file(m, "keep.png"));
+        assertEquals(1, file(m, "keeper.txt"));
+    }
+
+    @Test
+    void testDirectoryOnlyRules() {
+        SegmentMatcher m = matcher("build/");
+        assertEquals(0, dir(m, "build"));
+        assertEquals(-1, file(m, "build"));
+    }
+}
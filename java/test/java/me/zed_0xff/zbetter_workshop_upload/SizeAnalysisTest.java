@@ -0,0 +1,81 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SizeAnalysis.
+ */
+public class SizeAnalysisTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path contents;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(".git; *.log");
+        contents = Files.createDirectories(tempDir.resolve("workshop/Contents"));
+        write("mods/a/media/big.png", 5000);
+        write("mods/a/media/small.png", 100);
+        write("mods/a/mod.info", 10);
+        write("mods/b/mod.info", 20);
+        write("readme.txt", 1);
+        write("debug.log", 300);
+        write(".git/objects/pack", 4000);
+        write(".git/config", 50);
+    }
+
+    private void write(String relativePath, int size) throws Exception {
+        Path file = contents.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+    }
+
+    private SizeAnalysis analyze(int topN) throws Exception {
+        return SizeAnalysis.of(ContentManifest.build(contents), topN);
+    }
+
+    @Test
+    void testTotalsAndExcludedBytes() throws Exception {
+        SizeAnalysis analysis = analyze(SizeAnalysis.DEFAULT_TOP_N);
+        assertEquals(5, analysis.getFileCount());
+        assertEquals(5131, analysis.getTotalBytes());
+        assertEquals(4350, analysis.getExcludedBytes(), "excluded file plus everything inside the excluded directory");
+        assertEquals(3, analysis.getExcludedFileCount());
+    }
+
+    @Test
+    void testLargestFilesAndDirectories() throws Exception {
+        SizeAnalysis analysis = analyze(2);
+        assertEquals(2, analysis.getLargestFiles().size());
+        assertEquals("mods/a/media/big.png", analysis.getLargestFiles().get(0).getRelativePath());
+        assertEquals("mods/a/media/small.png", analysis.getLargestFiles().get(1).getRelativePath());
+
+        assertEquals(5130, analysis.getDirectoryBytes("mods"));
+        assertEquals(5110, analysis.getDirectoryBytes("mods/a"));
+        assertEquals(20, analysis.getDirectoryBytes("mods/b"));
+        assertEquals(Arrays.asList("mods", "mods/a", "mods/b"), analysis.getLargestDirectories(10, 2));
+    }
+
+    @Test
+    void testWarnings() throws Exception {
+        SizeAnalysis analysis = analyze(SizeAnalysis.DEFAULT_TOP_N);
+        assertTrue(analysis.getWarnings(0, 0).isEmpty());
+        assertTrue(analysis.getWarnings(10000, 10000).isEmpty());
+
+        List<String> warnings = analysis.getWarnings(5000, 1000);
+        assertEquals(2, warnings.size());
+        assertTrue(warnings.get(0).startsWith("Upload is "));
+        assertTrue(warnings.get(1).startsWith("mods/a/media/big.png is "));
+    }
+}
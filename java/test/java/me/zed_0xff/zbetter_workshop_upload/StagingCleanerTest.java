@@ -0,0 +1,82 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for StagingCleaner.
+ */
+public class StagingCleanerTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @TempDir
+    Path tempDir;
+
+    private Path stagingDir(String suffix, long modified) throws Exception {
+        Path dir = Files.createDirectories(tempDir.resolve(StagingCleaner.TEMP_STAGING_PREFIX + suffix));
+        Files.write(Files.createDirectories(dir.resolve("Contents")).resolve("a.txt"), "a".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(dir, FileTime.fromMillis(modified));
+        return dir;
+    }
+
+    @Test
+    void testSweepKeepsLockedAndRecentFolders() throws Exception {
+        long now = System.currentTimeMillis();
+        Path unlockedOld = stagingDir("old", now - 2 * HOUR);
+        Path unlockedRecent = stagingDir("recent", now);
+        Path locked = stagingDir("locked", now - 2 * HOUR);
+        StagingCleaner.lock(locked);
+        Files.setLastModifiedTime(StagingCleaner.lockFile(locked), FileTime.fromMillis(now - 2 * HOUR));
+        Path deadLock = stagingDir("dead", now - 2 * HOUR);
+        Files.write(StagingCleaner.lockFile(deadLock), (Long.MAX_VALUE + " 1").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(StagingCleaner.lockFile(deadLock), FileTime.fromMillis(now - 2 * HOUR));
+        Path unrelated = Files.createDirectories(tempDir.resolve("other"));
+        Files.setLastModifiedTime(unrelated, FileTime.fromMillis(now - 2 * HOUR));
+
+        assertEquals(2, StagingCleaner.sweep(tempDir, HOUR, now));
+
+        assertFalse(Files.exists(unlockedOld));
+        assertTrue(Files.exists(unlockedRecent));
+        assertTrue(Files.exists(locked));
+        assertFalse(Files.exists(deadLock));
+        assertFalse(Files.exists(StagingCleaner.lockFile(deadLock)));
+        assertTrue(Files.exists(unrelated));
+    }
+
+    @Test
+    void testTrimCacheDeletesOldEntriesOnly() throws Exception {
+        long now = System.currentTimeMillis();
+        Path cache = Files.createDirectories(tempDir.resolve("cache"));
+        Path old = cache.resolve("old.png");
+        Path recent = cache.resolve("recent.skip");
+        Files.write(old, "o".getBytes(StandardCharsets.UTF_8));
+        Files.write(recent, new byte[0]);
+        Files.setLastModifiedTime(old, FileTime.fromMillis(now - 2 * HOUR));
+        Files.setLastModifiedTime(recent, FileTime.fromMillis(now - HOUR / 2));
+
+        assertEquals(1, StagingCleaner.trimCache(cache, HOUR, now));
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(recent));
+        assertEquals(0, StagingCleaner.trimCache(tempDir.resolve("missing"), HOUR, now));
+    }
+
+    @Test
+    void testDeleteLaterRemovesFolderAndLock() throws Exception {
+        Path dir = stagingDir("done", System.currentTimeMillis());
+        StagingCleaner.lock(dir);
+        assertTrue(StagingCleaner.isLockHeld(StagingCleaner.lockFile(dir)));
+
+        StagingCleaner.deleteLater(dir).get();
+
+        assertFalse(Files.exists(dir));
+        assertFalse(Files.exists(StagingCleaner.lockFile(dir)));
+    }
+}
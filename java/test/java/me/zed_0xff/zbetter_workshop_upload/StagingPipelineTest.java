@@ -0,0 +1,65 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for StagingPipeline and the copy backend.
+ */
+public class StagingPipelineTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path source(String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        Path file = tempDir.resolve("src").resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, data);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1500000000000L));
+        return file;
+    }
+
+    @Test
+    void testStagesSmallAndLargeFilesInParallel() throws IOException {
+        Path dest = Files.createDirectories(tempDir.resolve("dest"));
+        FileStager stager = new FileStager(Collections.singletonList(StagingBackend.COPY));
+        StagingPipeline pipeline = new StagingPipeline(stager, 4);
+        int large = (int) StagingPipeline.LARGE_FILE + 17;
+        pipeline.add(source("big.bin", large), dest.resolve("big.bin"), large);
+        for (int i = 0; i < 600; i++) {
+            pipeline.add(source("f" + i + ".lua", 100), dest.resolve("f" + i + ".lua"), 100);
+        }
+
+        StagingPipeline.Stats stats = pipeline.run();
+        assertEquals(601, stats.getFiles().size());
+        assertEquals(large + 600 * 100L, stats.getBytes());
+        assertEquals(stats.getBytes(), stager.getBytesWritten());
+
+        assertArrayEquals(Files.readAllBytes(tempDir.resolve("src/big.bin")), Files.readAllBytes(dest.resolve("big.bin")));
+        assertArrayEquals(Files.readAllBytes(tempDir.resolve("src/f599.lua")), Files.readAllBytes(dest.resolve("f599.lua")));
+        assertEquals(1500000000000L, Files.getLastModifiedTime(dest.resolve("big.bin")).toMillis());
+        assertEquals(1500000000000L, Files.getLastModifiedTime(dest.resolve("f0.lua")).toMillis());
+    }
+
+    @Test
+    void testFailureIsReported() throws IOException {
+        Path dest = Files.createDirectories(tempDir.resolve("dest"));
+        StagingPipeline pipeline = new StagingPipeline(new FileStager(Arrays.asList(StagingBackend.COPY)), 2);
+        pipeline.add(source("a.lua", 10), dest.resolve("a.lua"), 10);
+        pipeline.add(tempDir.resolve("missing.lua"), dest.resolve("missing.lua"), 10);
+        assertThrows(IOException.class, pipeline::run);
+    }
+}
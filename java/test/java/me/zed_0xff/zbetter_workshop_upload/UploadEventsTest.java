@@ -0,0 +1,119 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the flight recorder events of UploadEvents.
+ */
+public class UploadEventsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        WorkshopContentFilter.clearIgnoreFileCache();
+    }
+
+    private void write(String relativePath, String text) throws IOException {
+        Path file = tempDir.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> result = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(UploadEvents.PREFIX + name)) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    void testEventsNotCreatedWithoutRecording() {
+        assertNull(UploadEvents.beginContentScan());
+        assertNull(UploadEvents.beginRuleDecision());
+    }
+
+    @Test
+    void testScanStageAndCleanupEvents() throws IOException {
+        write("Contents/.workshopignore", "*.bak\n# comment\n");
+        write("Contents/a.lua", "aaaa");
+        write("Contents/b.bak", "b");
+        write("Contents/sub/c.txt", "cc");
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(UploadEvents.PREFIX + "IgnoreFileRead");
+            recording.enable(UploadEvents.PREFIX + "IgnoreRules");
+            recording.enable(UploadEvents.PREFIX + "RuleDecision");
+            recording.enable(UploadEvents.PREFIX + "ContentScan");
+            recording.enable(UploadEvents.PREFIX + "StageFile");
+            recording.enable(UploadEvents.PREFIX + "StagingCleanup");
+            recording.start();
+
+            ContentScanner.collect(tempDir.resolve("Contents"), true);
+            Files.createDirectories(tempDir.resolve("staging/Contents"));
+            StagingPipeline pipeline = new StagingPipeline(new FileStager(Collections.singletonList(StagingBackend.COPY)), 1);
+            pipeline.add(tempDir.resolve("Contents/a.lua"), tempDir.resolve("staging/Contents/a.lua"), 4);
+            pipeline.run();
+            StagingCleaner.delete(tempDir.resolve("staging"));
+
+            recording.stop();
+            Path dump = tempDir.resolve("upload.jfr");
+            recording.dump(dump);
+            events = RecordingFile.readAllEvents(dump);
+        }
+
+        List<RecordedEvent> reads = named(events, "IgnoreFileRead");
+        assertEquals(1, reads.size());
+        assertEquals(16, reads.get(0).getLong("bytes"));
+        assertEquals(2, reads.get(0).getInt("lines"));
+        assertEquals(1, reads.get(0).getInt("rules"));
+
+        List<RecordedEvent> scans = named(events, "ContentScan");
+        assertEquals(1, scans.size());
+        assertEquals(1, scans.get(0).getInt("excluded"));
+        assertTrue(scans.get(0).getBoolean("filtered"));
+
+        // Contents and sub
+        assertEquals(2, named(events, "IgnoreRules").size());
+
+        boolean bakExcluded = false;
+        for (RecordedEvent decision : named(events, "RuleDecision")) {
+            if (decision.getString("path").equals("b.bak")) {
+                bakExcluded = decision.getBoolean("excluded");
+            }
+        }
+        assertTrue(bakExcluded);
+
+        List<RecordedEvent> staged = named(events, "StageFile");
+        assertEquals(1, staged.size());
+        assertEquals("copy", staged.get(0).getString("backend"));
+        assertEquals(4, staged.get(0).getLong("bytes"));
+        assertEquals("", staged.get(0).getString("transformer"));
+
+        List<RecordedEvent> cleanups = named(events, "StagingCleanup");
+        assertEquals(1, cleanups.size());
+        assertEquals(1, cleanups.get(0).getLong("files"));
+        assertTrue(cleanups.get(0).getBoolean("succeeded"));
+    }
+}
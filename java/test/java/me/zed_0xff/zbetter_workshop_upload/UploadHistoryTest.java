@@ -0,0 +1,179 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import zombie.core.znet.SteamWorkshopItem;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UploadHistory and the unchanged-upload check.
+ */
+public class UploadHistoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path item;
+    private SteamWorkshopItem workshopItem;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        item = Files.createDirectories(tempDir.resolve("Zomboid/Workshop/MyMod"));
+        write("Contents/mods/a/mod.info", "name=A");
+        workshopItem = new SteamWorkshopItem(item.toString());
+        workshopItem.setID("12345");
+        workshopItem.description = "Hello";
+    }
+
+    @AfterEach
+    void tearDown() {
+        PreStager.discard();
+    }
+
+    private void write(String relativePath, String text) throws IOException {
+        Path file = item.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testRecordAndCompare() throws IOException {
+        Path file = tempDir.resolve("uploads.properties");
+        UploadHistory history = UploadHistory.load(file);
+        UploadHistory.UploadState state = new UploadHistory.UploadState("1", "abc", "desc", "");
+        assertFalse(history.isUnchanged(state));
+
+        history.record(state);
+        UploadHistory reloaded = UploadHistory.load(file);
+        assertTrue(reloaded.isUnchanged(new UploadHistory.UploadState("1", "abc", "desc", "")));
+        assertFalse(reloaded.isUnchanged(new UploadHistory.UploadState("1", "abc", "desc2", "")));
+        assertFalse(reloaded.isUnchanged(new UploadHistory.UploadState("1", "abd", "desc", "")));
+        assertFalse(reloaded.isUnchanged(new UploadHistory.UploadState("2", "abc", "desc", "")));
+        assertFalse(reloaded.isUnchanged(new UploadHistory.UploadState("1", "abc", "desc", "png-v1")));
+    }
+
+    @Test
+    void testEntryWithoutConfigurationIsChanged() throws IOException {
+        Path file = tempDir.resolve("uploads.properties");
+        UploadHistory.UploadState state = new UploadHistory.UploadState("1", "abc", "desc", "");
+        Files.write(file, ("1=abc " + state.descriptionDigest + " 1700000000000\n").getBytes(StandardCharsets.ISO_8859_1));
+        assertFalse(UploadHistory.load(file).isUnchanged(state));
+    }
+
+    @Test
+    void testStagingConfigurationChangesState() throws IOException {
+        UploadHistory history = WorkshopContentFilter.getUploadHistory(item);
+        history.record(WorkshopContentFilter.computeUploadState(workshopItem));
+        assertTrue(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+        try {
+            WorkshopContentFilter.setOptimizePngs(true);
+            assertFalse(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+            WorkshopContentFilter.setOptimizePngs(false);
+            WorkshopContentFilter.setFileTransforms(true, false, null);
+            assertFalse(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+            assertEquals("text-v" + TextNormalizer.VERSION + " *.txt *.lua", WorkshopContentFilter.getStagingConfiguration(item));
+        } finally {
+            WorkshopContentFilter.setOptimizePngs(false);
+            WorkshopContentFilter.setFileTransforms(false, false, null);
+        }
+        assertTrue(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+    }
+
+    @Test
+    void testUnchangedAfterSuccessfulUpload() throws IOException {
+        assertFalse(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+
+        UploadHistory history = WorkshopContentFilter.getUploadHistory(item);
+        history.record(WorkshopContentFilter.computeUploadState(workshopItem));
+        assertTrue(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+
+        workshopItem.description = "Hello again";
+        assertFalse(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+        workshopItem.description = "Hello";
+
+        write("Contents/mods/a/media/lua/x.lua", "x");
+        assertFalse(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+
+        // excluded files don't count as changes
+        Files.delete(item.resolve("Contents/mods/a/media/lua/x.lua"));
+        write("Contents/mods/a/notes.tmp", "x");
+        assertTrue(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+    }
+
+    private String awaitUnchangedStatus() throws InterruptedException {
+        String status = WorkshopContentFilter.getUnchangedStatus(workshopItem);
+        for (int i = 0; i < 500 && status.equals("checking"); i++) {
+            Thread.sleep(10);
+            status = WorkshopContentFilter.getUnchangedStatus(workshopItem);
+        }
+        return status;
+    }
+
+    @Test
+    void testSubmitPageComparesInTheBackground() throws Exception {
+        assertEquals("unknown", WorkshopContentFilter.getUnchangedStatus(workshopItem));
+        WorkshopContentFilter.startPreStaging(workshopItem);
+        assertEquals("changed", awaitUnchangedStatus());
+
+        WorkshopContentFilter.getUploadHistory(item).record(WorkshopContentFilter.computeUploadState(workshopItem));
+        WorkshopContentFilter.startPreStaging(workshopItem);
+        assertEquals("unchanged", awaitUnchangedStatus());
+
+        PreStager.discard();
+        assertEquals("unknown", WorkshopContentFilter.getUnchangedStatus(workshopItem));
+    }
+
+    // Waits for everything queued on the pre-staging thread so far
+    private static void drainPreStager() throws Exception {
+        PreStager.submit(() -> null).get();
+    }
+
+    private void submit(boolean success) {
+        WorkshopContentFilter.enterSubmitContext(workshopItem);
+        WorkshopContentFilter.exitSubmitContext(true);
+        WorkshopContentFilter.onUploadFinished(success);
+    }
+
+    @Test
+    void testSubmittedStateIsRecordedOnThePreStagingThread() throws Exception {
+        submit(false);
+        drainPreStager();
+        assertFalse(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem), "failed uploads are not recorded");
+
+        submit(true);
+        drainPreStager();
+        assertTrue(WorkshopContentFilter.isUnchangedSinceLastUpload(workshopItem));
+    }
+
+    @Test
+    void testFileChangedDuringSubmitForgetsLastUpload() throws Exception {
+        WorkshopContentFilter.getUploadHistory(item).record(WorkshopContentFilter.computeUploadState(workshopItem));
+        CountDownLatch blocked = new CountDownLatch(1);
+        PreStager.submit(() -> blocked.await(5, TimeUnit.SECONDS));
+
+        // listed at submit, modified before it is hashed
+        WorkshopContentFilter.enterSubmitContext(workshopItem);
+        WorkshopContentFilter.exitSubmitContext(true);
+        Path file = item.resolve("Contents/mods/a/mod.info");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 10000));
+        WorkshopContentFilter.onUploadFinished(true);
+        blocked.countDown();
+        drainPreStager();
+
+        UploadHistory.UploadState state = WorkshopContentFilter.computeUploadState(workshopItem);
+        assertFalse(WorkshopContentFilter.getUploadHistory(item).isUnchanged(state), "what was uploaded is unknown");
+    }
+}
@@ -0,0 +1,100 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UploadMetrics.
+ */
+public class UploadMetricsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        WorkshopContentFilter.clearIgnoreFileCache();
+    }
+
+    private void write(String relativePath, String text) throws IOException {
+        Path file = tempDir.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testScanPhasesFromScanStats() throws IOException {
+        write("Contents/.workshopignore", "*.bak\n");
+        write("Contents/a.lua", "aaaa");
+        write("Contents/b.bak", "b");
+        write("Contents/sub/c.txt", "cc");
+
+        ContentScanner.ScanStats stats = ContentScanner.collect(tempDir.resolve("Contents"), true).getStats();
+        assertEquals(5, stats.ruleChecks); // .workshopignore, a.lua, b.bak, sub, sub/c.txt
+        assertEquals(1, stats.ignoreReads);
+        assertEquals(6, stats.ignoreReadBytes);
+
+        UploadMetrics metrics = new UploadMetrics("42");
+        metrics.recordScan(stats);
+        metrics.recordScan(stats); // replaces, doesn't add up
+        assertEquals(stats.getEntryCount(), metrics.get(UploadMetrics.Phase.SCAN).files);
+        assertEquals(1, metrics.get(UploadMetrics.Phase.IGNORE_READS).files);
+        assertEquals(5, metrics.get(UploadMetrics.Phase.RULES).files);
+        assertNull(metrics.get(UploadMetrics.Phase.CLEANUP));
+    }
+
+    @Test
+    void testPhasesAddUp() {
+        UploadMetrics metrics = new UploadMetrics("42");
+        metrics.add(UploadMetrics.Phase.STAGING, 2000000, 10, 1000);
+        metrics.add(UploadMetrics.Phase.STAGING, 1000000, 0, 0);
+        UploadMetrics.PhaseStats staging = metrics.get(UploadMetrics.Phase.STAGING);
+        assertEquals(3000000, staging.nanos);
+        assertEquals(10, staging.files);
+        assertEquals(1000, staging.bytes);
+    }
+
+    @Test
+    void testJsonHistory() throws IOException {
+        UploadMetrics metrics = new UploadMetrics("4\"2");
+        metrics.add(UploadMetrics.Phase.DESCRIPTION, 1500000, 1, 300);
+        metrics.add(UploadMetrics.Phase.CLEANUP, 500000, 3, 1048576);
+        metrics.finish("success");
+
+        String json = metrics.toJson();
+        assertTrue(json.startsWith("{\"time\":\""), json);
+        assertTrue(json.contains("\"itemId\":\"4\\\"2\""), json);
+        assertTrue(json.contains("\"outcome\":\"success\""), json);
+        assertTrue(json.contains("\"description\":{\"ms\":1.500,\"files\":1,\"bytes\":300,"), json);
+        assertTrue(json.contains("\"cleanup\":{\"ms\":0.500,\"files\":3,\"bytes\":1048576,\"mbPerSec\":2000.0}"), json);
+        assertTrue(json.endsWith("}}"), json);
+
+        Path history = tempDir.resolve("Zomboid/" + UploadMetrics.HISTORY_FILE_NAME);
+        metrics.complete(history);
+        metrics.complete(history);
+        List<String> lines = Files.readAllLines(history, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertEquals(json, lines.get(0));
+        assertSame(metrics, UploadMetrics.getLast("4\"2"));
+    }
+
+    @Test
+    void testCleanupReportsDeletedFiles() throws IOException {
+        write("staging/Contents/a.lua", "aaaa");
+        write("staging/preview.png", "pp");
+        UploadMetrics.PhaseStats cleanup = StagingCleaner.delete(tempDir.resolve("staging"));
+        assertEquals(2, cleanup.files);
+        assertEquals(6, cleanup.bytes);
+        assertFalse(Files.exists(tempDir.resolve("staging")));
+    }
+}
@@ -0,0 +1,145 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import zombie.core.znet.SteamWorkshopItem;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UploadQueue and the per-upload lifecycle in WorkshopContentFilter.
+ */
+public class UploadQueueTest {
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        UploadQueue.clear();
+    }
+
+    private SteamWorkshopItem createItem(String name, String id) throws Exception {
+        Path item = Files.createDirectories(tempDir.resolve("Workshop").resolve(name));
+        Path file = Files.createDirectories(item.resolve("Contents/mods/" + name)).resolve("mod.info");
+        Files.write(file, ("name=" + name).getBytes(StandardCharsets.UTF_8));
+        SteamWorkshopItem workshopItem = new SteamWorkshopItem(item.toString());
+        workshopItem.setID(id);
+        return workshopItem;
+    }
+
+    private static SteamWorkshopItem awaitNext() throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            SteamWorkshopItem item = UploadQueue.next();
+            if (item != null) {
+                return item;
+            }
+            Thread.sleep(10);
+        }
+        return null;
+    }
+
+    @Test
+    void testItemsAreSubmittedInOrderAndCleanedUpByTheirOwnCallback() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        SteamWorkshopItem first = createItem("First", "101");
+        SteamWorkshopItem second = createItem("Second", "102");
+
+        assertTrue(WorkshopContentFilter.enqueueUpload(first));
+        assertTrue(WorkshopContentFilter.enqueueUpload(second));
+        assertFalse(WorkshopContentFilter.enqueueUpload(first), "already queued");
+
+        assertSame(first, awaitNext());
+        WorkshopContentFilter.enterSubmitContext(first);
+        String firstFolder = WorkshopContentFilter.getFilteredWorkshopFolder(first);
+        WorkshopContentFilter.exitSubmitContext(true);
+        assertNotNull(firstFolder);
+        assertTrue(Files.isRegularFile(new File(firstFolder).toPath().resolve("mods/First/mod.info")));
+        assertNull(UploadQueue.next(), "first upload is still in flight");
+
+
+        WorkshopContentFilter.onUploadFinished(true);
+        assertSame(second, awaitNext());
+        WorkshopContentFilter.enterSubmitContext(second);
+        WorkshopContentFilter.exitSubmitContext(true);
+        assertEquals(1, WorkshopContentFilter.getInFlightUploadCount());
+
+        // the first item's folder is deleted in the background, the second one's is still in use
+        Path firstStaging = new File(firstFolder).getParentFile().toPath();
+        for (int i = 0; i < 500 && Files.exists(firstStaging); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(Files.exists(firstStaging));
+
+        WorkshopContentFilter.onUploadFinished(false);
+        assertEquals(0, WorkshopContentFilter.getInFlightUploadCount());
+        assertTrue(UploadQueue.isIdle());
+    }
+
+    @Test
+    void testFailedSubmitPreparationStillTracksTheUpload() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        SteamWorkshopItem broken = new SteamWorkshopItem(null); // preparing it throws
+        broken.setID("103");
+        SteamWorkshopItem next = createItem("Next", "104");
+
+        WorkshopContentFilter.enterSubmitContext(broken);
+        WorkshopContentFilter.exitSubmitContext(true);
+        assertEquals(1, WorkshopContentFilter.getInFlightUploadCount(), "the submit still reaches Steam");
+
+        WorkshopContentFilter.enterSubmitContext(next);
+        WorkshopContentFilter.exitSubmitContext(true);
+        assertEquals(2, WorkshopContentFilter.getInFlightUploadCount());
+
+        // the broken upload's callback must not finish the next one
+        WorkshopContentFilter.onUploadFinished(false);
+        assertEquals(1, WorkshopContentFilter.getInFlightUploadCount());
+        WorkshopContentFilter.onUploadFinished(true);
+        assertEquals(0, WorkshopContentFilter.getInFlightUploadCount());
+    }
+
+    @Test
+    void testRejectedSubmitFailsItsEntryAndLetsTheQueueMoveOn() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        SteamWorkshopItem rejected = createItem("Rejected", "105");
+        SteamWorkshopItem next = createItem("Next", "106");
+        assertTrue(WorkshopContentFilter.enqueueUpload(rejected));
+        assertTrue(WorkshopContentFilter.enqueueUpload(next));
+
+        assertSame(rejected, awaitNext());
+        WorkshopContentFilter.enterSubmitContext(rejected);
+        String folder = WorkshopContentFilter.getFilteredWorkshopFolder(rejected);
+        assertNotNull(folder);
+        WorkshopContentFilter.exitSubmitContext(false);
+        assertEquals(0, WorkshopContentFilter.getInFlightUploadCount(), "no callback will come for it");
+        assertTrue(UploadQueue.describe().get(0).endsWith(": failed"));
+
+        // its temp folder is deleted in the background
+        Path staging = new File(folder).getParentFile().toPath();
+        for (int i = 0; i < 500 && Files.exists(staging); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(Files.exists(staging));
+
+        assertSame(next, awaitNext());
+        WorkshopContentFilter.enterSubmitContext(next);
+        WorkshopContentFilter.exitSubmitContext(true);
+        WorkshopContentFilter.onUploadFinished(true);
+        assertTrue(UploadQueue.isIdle());
+    }
+
+    @Test
+    void testSubmitWithoutIdIsNotTracked() {
+        SteamWorkshopItem item = new SteamWorkshopItem(tempDir.toString());
+        WorkshopContentFilter.enterSubmitContext(item);
+        WorkshopContentFilter.exitSubmitContext(false);
+        assertEquals(0, WorkshopContentFilter.getInFlightUploadCount());
+    }
+}
@@ -0,0 +1,280 @@
+package me.zed_0xff.zbetter_workshop_upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for WorkshopContentFilter and the filtered Contents traversal.
+ */
+public class WorkshopContentFilterTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private Path contents;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        WorkshopContentFilter.loadExcludedPatterns(null);
+        contents = tempDir.resolve("workshop").resolve("Contents");
+        Files.createDirectories(contents);
+    }
+    
+    private void write(String relativePath, String text) throws IOException {
+        Path file = contents.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private ArrayList<String> listSorted() {
+        ArrayList<String> files = ZBetterWorkshopUpload.listFilteredFiles(contents.toFile());
+        Collections.sort(files);
+        return files;
+    }
+    
+    @Test
+    void testDefaultPatternsExcluded() throws IOException {
+        write("mods/a/mod.info", "name=a");
+        write("mods/a/.DS_Store", "");
+        write("mods/a/debug.log", "");
+        write(".git/config", "");
+        
+        assertEquals(Collections.singletonList("mods/a/mod.info"), listSorted());
+    }
+    
+    @Test
+    void testNestedIgnoreFileAppliesOnlyBelowItsDirectory() throws IOException {
+        write("mods/a/.workshopignore", "# comment\n\n*.psd\n");
+        write("mods/a/tex.psd", "");
+        write("mods/a/tex.png", "");
+        write("mods/b/tex.psd", "");
+        
+        ArrayList<String> files = listSorted();
+        assertTrue(files.contains("mods/a/tex.png"));
+        assertTrue(files.contains("mods/b/tex.psd"));
+        assertFalse(files.contains("mods/a/tex.psd"));
+    }
+    
+    @Test
+    void testIgnoreFileAboveContentsIsNotRead() throws IOException {
+        Files.write(contents.getParent().resolve(".workshopignore"), "*.png\n".getBytes(StandardCharsets.UTF_8));
+        write("preview.png", "");
+        
+        assertTrue(listSorted().contains("preview.png"));
+    }
+    
+    @Test
+    void testShouldIncludePathMatchesTraversal() throws IOException {
+        write("mods/a/.workshopignore", "*.psd\n");
+        write("mods/a/tex.psd", "");
+        
+        String base = contents.toString();
+        assertFalse(WorkshopContentFilter.shouldIncludePath("mods/a/tex.psd", base));
+        assertTrue(WorkshopContentFilter.shouldIncludePath("mods/b/tex.psd", base));
+        assertFalse(WorkshopContentFilter.shouldIncludePath("mods/tmp/x.txt", base));
+    }
+    
+    @Test
+    void testScannerPrunesExcludedDirectories() throws IOException {
+        write(".workshopignore", "node_modules/\n");
+        write("node_modules/a/b.js", "");
+        write("node_modules/c.js", "");
+        write("media/x.lua", "");
+        
+        ArrayList<String> excluded = new ArrayList<>();
+        ArrayList<String> visited = new ArrayList<>();
+        ContentScanner.ScanStats stats = ContentScanner.scan(contents, new ContentScanner.Visitor() {
+            @Override
+            public void directory(Path dir, String relativePath, BasicFileAttributes attrs) {
+                visited.add(relativePath + "/");
+            }
+            
+            @Override
+            public void file(Path file, String relativePath, BasicFileAttributes attrs) {
+                visited.add(relativePath);
+            }
+            
+            @Override
+            public void excluded(Path path, String relativePath, BasicFileAttributes attrs) {
+                excluded.add(relativePath);
+            }
+        });
+        
+        Collections.sort(visited);
+        assertEquals(Arrays.asList(".workshopignore", "media/", "media/x.lua"), visited);
+        assertEquals(Collections.singletonList("node_modules"), excluded);
+        assertEquals(2, stats.files);
+        assertEquals(1, stats.directories);
+    }
+    
+    @Test
+    void testParallelScanMatchesSerialScan() throws IOException {
+        write(".workshopignore", "*.psd\n!keep.psd\n");
+        write("a/b/.workshopignore", "/c/\n");
+        for (int i = 0; i < 5; i++) {
+            write("a/b/c/f" + i + ".txt", "x");
+            write("a/b/d" + i + "/f.psd", "x");
+            write("a/b/d" + i + "/keep.psd", "x");
+            write("a-b/e" + i + "/g.lua", "x");
+        }
+        
+        ContentScanner.ScanResult parallel = ParallelContentScanner.scan(contents, true, 4);
+        WorkshopContentFilter.setScanParallelism(1);
+        try {
+            ContentScanner.ScanResult serial = ContentScanner.collect(contents, true);
+            assertEquals(serial.getEntries().toString(), parallel.getEntries().toString());
+            assertEquals(serial.getStats().files, parallel.getStats().files);
+            assertEquals(serial.getStats().excluded, parallel.getStats().excluded);
+        } finally {
+            WorkshopContentFilter.setScanParallelism(0);
+        }
+        
+        for (int i = 1; i < parallel.getEntries().size(); i++) {
+            String prev = parallel.getEntries().get(i - 1).getRelativePath();
+            assertTrue(prev.compareTo(parallel.getEntries().get(i).getRelativePath()) < 0, "not sorted at " + prev);
+        }
+        assertEquals(5 + 1, parallel.getStats().excluded); // f.psd x5 + a/b/c
+    }
+    
+    @Test
+    void testParallelScanSkipsSymlinkLoops() throws IOException {
+        write("a/f.txt", "x");
+        Files.createSymbolicLink(contents.resolve("a").resolve("loop"), contents.resolve("a"));
+        
+        ContentScanner.ScanResult parallel = ParallelContentScanner.scan(contents, true, 2);
+        List<String> paths = new ArrayList<>();
+        for (ContentEntry entry : parallel.getEntries()) {
+            paths.add(entry.getRelativePath());
+        }
+        assertEquals(Arrays.asList("a", "a/f.txt"), paths);
+        assertEquals(1, parallel.getStats().errors);
+    }
+    
+    @Test
+    void testParallelScansWithChangingParallelism() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            write("d" + (i % 20) + "/e" + (i % 7) + "/f" + i + ".txt", "x");
+        }
+        
+        // scans on the old pool keep forking while the next scan replaces it
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int parallelism = 2 + t % 2;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        assertEquals(200, ParallelContentScanner.scan(contents, true, parallelism).getStats().files);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+    }
+    
+    @Test
+    void testManifestReusedUntilTreeOrRulesChange() throws IOException {
+        write("media/a.lua", "x");
+        write("media/.workshopignore", "*.tmp\n");
+        Path media = contents.resolve("media");
+        Files.setLastModifiedTime(media, FileTime.fromMillis(1000000000000L));
+        
+        ContentManifest first = WorkshopContentFilter.getContentManifest(contents.toFile());
+        assertSame(first, WorkshopContentFilter.getContentManifest(contents.toFile()));
+        assertEquals(Arrays.asList("media/.workshopignore", "media/a.lua"), first.getIncludedFilePaths());
+        
+        // a new entry changes the directory's mtime
+        write("media/b.lua", "x");
+        ContentManifest second = WorkshopContentFilter.getContentManifest(contents.toFile());
+        assertNotSame(first, second);
+        assertTrue(second.getIncludedFilePaths().contains("media/b.lua"));
+        
+        // editing an ignore file in place only changes the file itself
+        write("media/.workshopignore", "*.lua\n");
+        Files.setLastModifiedTime(media.resolve(".workshopignore"), FileTime.fromMillis(1000000000000L));
+        ContentManifest third = WorkshopContentFilter.getContentManifest(contents.toFile());
+        assertNotSame(second, third);
+        assertEquals(Collections.singletonList("media/.workshopignore"), third.getIncludedFilePaths());
+        
+        // new global patterns
+        WorkshopContentFilter.loadExcludedPatterns(".workshopignore");
+        assertFalse(third.isValid());
+        assertTrue(WorkshopContentFilter.getContentManifest(contents.toFile()).getIncludedFilePaths().isEmpty());
+    }
+    
+    @Test
+    void testManifestNotReusedAfterChangeWithinMtimeGranularity() throws IOException {
+        write("keep.lua", "x");
+        write("build/out.txt", "x");
+        ContentManifest manifest = ContentManifest.build(contents);
+        assertTrue(manifest.isValid());
+        
+        // a change within the same filesystem clock tick leaves the directory's mtime as it was
+        FileTime rootTime = Files.getLastModifiedTime(contents);
+        write(".workshopignore", "build/\n");
+        Files.setLastModifiedTime(contents, rootTime);
+        assertFalse(manifest.isValid());
+        
+        // an in-place edit of an ignore file that keeps its mtime but not its size
+        ContentManifest second = ContentManifest.build(contents);
+        FileTime ignoreTime = Files.getLastModifiedTime(contents.resolve(".workshopignore"));
+        write(".workshopignore", "build/\n*.lua\n");
+        Files.setLastModifiedTime(contents.resolve(".workshopignore"), ignoreTime);
+        assertFalse(second.isValid());
+    }
+    
+    @Test
+    void testManifestPaging() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            write("f" + i + ".lua", "x");
+        }
+        write("sub/g.lua", "x");
+        write("notes.tmp", "x");
+        
+        ContentManifest manifest = WorkshopContentFilter.getContentManifest(contents.toFile());
+        assertEquals(6, manifest.getIncludedFileCount());
+        assertEquals(Arrays.asList("f0.lua", "f1.lua"), manifest.getIncludedFiles(0, 2));
+        assertEquals(Arrays.asList("f4.lua", "sub/g.lua"), manifest.getIncludedFiles(4, 100));
+        assertTrue(manifest.getIncludedFiles(6, 10).isEmpty());
+        assertTrue(manifest.getIncludedFiles(100, 10).isEmpty());
+        assertSame(manifest, WorkshopContentFilter.getCachedContentManifest(contents.toFile()));
+    }
+    
+    @Test
+    void testManifestCategoryTotals() throws IOException {
+        write("a.lua", "12345");
+        write("b.lua", "1");
+        write("tex/a.png", "123");
+        write("run.exe", "1");
+        write("skip.tmp", "123");
+        
+        ContentManifest manifest = WorkshopContentFilter.getContentManifest(contents.toFile());
+        assertEquals(2, manifest.getCategoryCount(FileCategory.LUA));
+        assertEquals(6, manifest.getCategoryBytes(FileCategory.LUA));
+        assertEquals(3, manifest.getCategoryBytes(FileCategory.IMAGE));
+        assertEquals(0, manifest.getCategoryCount(FileCategory.OTHER));
+        assertEquals("1 image, 2 Lua, 1 executable", manifest.getCategorySummary());
+        assertEquals(Arrays.asList("LUA", "LUA", "EXE", "IMAGE"), manifest.getIncludedFileCategories(0, 10));
+    }
+}